@@ -0,0 +1,95 @@
+package com.unisa;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.unisa.git.GitProtocol;
+
+/**
+ * Serves the commands of many local clients with one peer, so a single connection to the DHT and
+ * a single cache are shared by every repository of the machine. <p>
+ * The daemon listens on the loopback address only, each client sends one command per connection,
+ * as a line of text, and reads its output until the connection is closed. The commands are the
+ * same of the terminal and they are run by a pool of threads: commands on different repositories
+ * run at the same time, commands on the same repository wait for each other.
+ * Paths sent by the clients should be absolute, the directory of the daemon is not the one of the client.
+ */
+public class Daemon implements Closeable {
+    final private GitProtocol git;
+    final private ServerSocket server;
+    final private ExecutorService workers;
+
+    /**
+     * @param git the peer running the commands
+     * @param port the port to listen on, 0 for any free port
+     * @param threads the number of commands run at the same time
+     * @throws IOException if the port can't be used
+     */
+    public Daemon(GitProtocol git, int port, int threads) throws IOException {
+        this.git = git;
+        this.server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        this.workers = Executors.newFixedThreadPool(threads);
+    }
+
+    /**
+     * @return the port the daemon listens on
+     */
+    public int getPort(){
+        return server.getLocalPort();
+    }
+
+    /**
+     * Accepts the clients until the daemon is closed, it doesn't return before
+     */
+    public void serve(){
+        while(!server.isClosed()){
+            try{
+                Socket client = server.accept();
+                workers.execute(() -> handle(client));
+            } catch(SocketException e) {
+                //closed while waiting for a client
+            } catch(IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Stops accepting clients and waits for the commands already running
+     */
+    @Override
+    public void close() throws IOException {
+        server.close();
+        workers.shutdown();
+        try{
+            workers.awaitTermination(1, TimeUnit.MINUTES);
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void handle(Socket client){
+        try(Socket socket = client;
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            Writer out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8)){
+            String input = in.readLine();
+            if(input != null)
+                out.write(Main.execute(git, input.trim()));
+            out.flush();
+        } catch(Exception e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -2,6 +2,8 @@ package com.unisa;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -9,6 +11,7 @@ import java.util.List;
 import com.unisa.git.GitProtocol;
 import com.unisa.git.GitProtocolImpl;
 import com.unisa.git.storage.DHTStorage;
+import com.unisa.git.storage.PackStorage;
 
 import org.beryx.textio.TextIO;
 import org.beryx.textio.TextIoFactory;
@@ -25,120 +28,63 @@ public class Main
     private static final String COMMIT = "commit";
     private static final String PUSH = "push";
     private static final String PULL = "pull";
+    private static final String DEPTH = "--depth";
+    private static final String INCLUDE = "--include";
+    private static final String EXCLUDE = "--exclude";
+    private static final String NO_SPARSE = "--no-sparse";
     private static final String HELP = "help";
     private static final String EXIT = "exit";
     private static final String STATUS = "status";
+    private static final String PEER_MAP = "peers";
+    private static final String WATCH = "watch";
 
-    @Option(name="-m", aliases="--masterip", usage="the master peer ip address", required=true)
+    @Option(name="-m", aliases="--masterip", usage="the addresses of the bootstrap peers, separated by a comma", required=true)
     private static String master;
 
     @Option(name="-id", aliases="--identifierpeer", usage="the unique identifier for this peer", required=true)
     private static int id;
 
+    @Option(name="-d", aliases="--daemon", usage="serve the commands of local clients on this port instead of the terminal")
+    private static int daemon = -1;
+
+    @Option(name="-t", aliases="--threads", usage="the number of commands served at the same time by the daemon")
+    private static int threads = 8;
+
+    @Option(name="-w", aliases="--watch", usage="watch the working directories, a status reads only the files changed since the last one")
+    private static boolean watch;
+
    public static void main( String[] args ) {
         Main main = new Main();
         final CmdLineParser parser= new CmdLineParser(main);
-        TextIO textIO = TextIoFactory.getTextIO();
-        TextTerminal terminal = textIO.getTextTerminal();        
 
         try {
             parser.parseArgument(args);
-            GitProtocol git = new GitProtocolImpl(new DHTStorage(id, master));
+            //local repositories are kept on disk, one storage for each peer
+            Path directory = Paths.get(System.getProperty("user.dir"), ".p2p-git", "peer" + id);
+            PackStorage localStorage = new PackStorage(directory);
+            //the peer joins the network with the first push or pull, the known peers are saved next to the local storage
+            DHTStorage remoteStorage = new DHTStorage(id, Arrays.asList(master.split(",")), directory.resolve(PEER_MAP));
+            //if asked, the working directories are watched to not scan them at every command, the cookies of the watchers stay next to the local storage
+            GitProtocol git = new GitProtocolImpl(remoteStorage, localStorage, watch ? directory.resolve(WATCH) : null);
+            if(daemon >= 0){
+                Daemon server = new Daemon(git, daemon, threads);
+                System.out.println("Peer with id: " + id + " on node: " + master + " serving on port " + server.getPort());
+                server.serve();
+                return;
+            }
+
+            TextIO textIO = TextIoFactory.getTextIO();
+            TextTerminal terminal = textIO.getTextTerminal();
             terminal.print("\nPeer with id: " + id + " on node: " + master + "\n");
             terminal.print(help());
             while(true){
                 String input = textIO.newStringInputReader().read("git");
-                String[] splitInput = input.split(" ");
-                //the first string is the command
-                switch(splitInput[0]){
-                    case CREATE:
-                        if(splitInput.length != 3 && splitInput.length != 2)
-                            terminal.printf(tip(splitInput[0]));
-                        else {
-                            String path;
-                            //Use the current path to create a repo
-                            if(splitInput.length == 2)
-                                path = System.getProperty("user.dir");
-                            else
-                                path = splitInput[2];
-
-                            boolean result = git.createRepository(splitInput[1], new File(path));
-                            if(result) 
-                                terminal.println("Repository created successfully!\n");
-                            else 
-                                terminal.println("Repository not created...\n");
-                        }
-                        break;
-                    case ADD:
-                        if(splitInput.length < 3)
-                            terminal.printf(tip(splitInput[0]));
-                        else {
-                            List<File> files = new ArrayList<>();
-                            for(int i = 2; i < splitInput.length; i++)
-                                files.add(new File(splitInput[i]));
-                            
-                            boolean result = git.addFilesToRepository(splitInput[1], files);
-                            if(result)
-                                terminal.println("Added files successfully!\n");
-                        }
-                        break;
-                    case REMOVE:
-                        if(splitInput.length < 3)
-                            terminal.printf(tip(splitInput[0]));
-                        else {
-                            List<File> files = new ArrayList<>();
-                            for(int i = 2; i < splitInput.length; i++)
-                                files.add(new File(splitInput[i]));
-        
-                            boolean result = git.removeFilesFromRepository(splitInput[1], files);
-                            if(result)
-                                terminal.println("Removed files successfully!\n");
-                        }
-                        break;
-                    case COMMIT:
-                        if(splitInput.length < 3)
-                            terminal.print(tip(splitInput[0]));
-                        else {
-                            String message = String.join(" ", Arrays.copyOfRange(splitInput, 2, splitInput.length));
-                            boolean result = git.commit(splitInput[1], message);
-                            if(result)
-                                terminal.println("Commit made successfully!\n");
-                            else 
-                                terminal.println("Commit failed...\n");
-                        }
-                        break;
-                    case PUSH:
-                        if(splitInput.length != 2)
-                            terminal.print(tip(splitInput[0]));
-                        else{
-                            terminal.println(git.push(splitInput[1]));
-                        }
-                        break;
-                    case PULL:
-                        if(splitInput.length != 2)
-                            terminal.print(tip(splitInput[0]));
-                        else{
-                            terminal.println(git.pull(splitInput[1]));
-                        }
-                        break;
-                    case STATUS:
-                        if(splitInput.length != 2)
-                            terminal.print(tip(splitInput[0]));
-                        else {
-                            terminal.println(git.status(splitInput[1]));
-                        }
-                        break;
-                    case HELP:
-                        terminal.print(help());
-                        break;
-                    case EXIT:
-                        terminal.dispose();
-                        textIO.dispose();
-                        System.exit(0);
-                    default:
-                        terminal.print("Command not found.\n");
-                        break;
+                if(input.split(" ")[0].equals(EXIT)){
+                    terminal.dispose();
+                    textIO.dispose();
+                    System.exit(0);
                 }
+                terminal.print(execute(git, input));
             }
         } catch (IOException e) {
             System.err.println("ERROR: Git protocol error...");
@@ -149,6 +95,120 @@ public class Main
         }
     }
 
+    /**
+     * Runs a command, the same commands are read from the terminal and from the clients of the daemon
+     * @param git the peer
+     * @param input the command followed by its arguments, separated by a space
+     * @return the output of the command
+     */
+    static String execute(GitProtocol git, String input){
+        String[] splitInput = input.split(" ");
+        //the first string is the command
+        switch(splitInput[0]){
+            case CREATE:
+                if(splitInput.length != 3 && splitInput.length != 2)
+                    return tip(splitInput[0]);
+                else {
+                    String path;
+                    //Use the current path to create a repo
+                    if(splitInput.length == 2)
+                        path = System.getProperty("user.dir");
+                    else
+                        path = splitInput[2];
+
+                    boolean result = git.createRepository(splitInput[1], new File(path));
+                    if(result) 
+                        return "Repository created successfully!\n\n";
+                    else 
+                        return "Repository not created...\n\n";
+                }
+            case ADD:
+                if(splitInput.length < 3)
+                    return tip(splitInput[0]);
+                else {
+                    List<File> files = new ArrayList<>();
+                    for(int i = 2; i < splitInput.length; i++)
+                        files.add(new File(splitInput[i]));
+                    
+                    boolean result = git.addFilesToRepository(splitInput[1], files);
+                    return result ? "Added files successfully!\n\n" : "";
+                }
+            case REMOVE:
+                if(splitInput.length < 3)
+                    return tip(splitInput[0]);
+                else {
+                    List<File> files = new ArrayList<>();
+                    for(int i = 2; i < splitInput.length; i++)
+                        files.add(new File(splitInput[i]));
+
+                    boolean result = git.removeFilesFromRepository(splitInput[1], files);
+                    return result ? "Removed files successfully!\n\n" : "";
+                }
+            case COMMIT:
+                if(splitInput.length < 3)
+                    return tip(splitInput[0]);
+                else {
+                    String message = String.join(" ", Arrays.copyOfRange(splitInput, 2, splitInput.length));
+                    boolean result = git.commit(splitInput[1], message);
+                    if(result)
+                        return "Commit made successfully!\n\n";
+                    else 
+                        return "Commit failed...\n\n";
+                }
+            case PUSH:
+                if(splitInput.length != 2)
+                    return tip(splitInput[0]);
+                return git.push(splitInput[1]) + "\n";
+            case PULL:
+                if(splitInput.length < 2)
+                    return tip(splitInput[0]);
+                else {
+                    int depth = 0;
+                    List<String> includes = null;
+                    List<String> excludes = null;
+                    try{
+                        for(int i = 2; i < splitInput.length; i++){
+                            switch(splitInput[i]){
+                                case DEPTH:
+                                    depth = Integer.parseInt(splitInput[++i]);
+                                    if(depth < 0)
+                                        return tip(splitInput[0]);
+                                    break;
+                                case INCLUDE:
+                                case EXCLUDE:
+                                    if(includes == null){
+                                        includes = new ArrayList<>();
+                                        excludes = new ArrayList<>();
+                                    }
+                                    if(splitInput[i].equals(INCLUDE))
+                                        includes.add(splitInput[++i]);
+                                    else
+                                        excludes.add(splitInput[++i]);
+                                    break;
+                                case NO_SPARSE:
+                                    includes = new ArrayList<>();
+                                    excludes = new ArrayList<>();
+                                    break;
+                                default:
+                                    return tip(splitInput[0]);
+                            }
+                        }
+                    } catch(NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                        return tip(splitInput[0]);
+                    }
+                    return git.pull(splitInput[1], depth, includes, excludes) + "\n";
+                }
+            case STATUS:
+                if(splitInput.length != 2)
+                    return tip(splitInput[0]);
+                return git.status(splitInput[1]) + "\n";
+            case HELP:
+                return help();
+            default:
+                return "Command not found.\n";
+        }
+    }
+
     /**
      * List of permitted commands
      * @return list of commands
@@ -166,7 +226,8 @@ public class Main
                 "\tpush\tallows you to push files to the remote repository.\n" +
                 "\t\tSyntax: git push {0}\n\t\targs: {0} repository name.\n\n" +
                 "\tpull\tallows you to obtain files from the remote repository and store them in the local repository.\n" +
-                "\t\tSyntax: git pull {0}\n\t\targs: {0} repository name.\n\n" +
+                "\t\tSyntax: git pull {0} [--depth {1}] [--include {2}]... [--exclude {3}]... [--no-sparse]\n\t\targs: {0} repository name, {1} number of commits to pull, 0 for the whole history,\n" +
+                "\t\t{2} glob of the files to pull, {3} glob of the files to leave out, the patterns are kept for the next pulls;\n\t\t--no-sparse pulls every file again.\n\n" +
                 "\tstatus\tallows you to check the status of the local repository, it shows the name of files that are staged,\n \t\tunstaged, tracked and untracked\n" +
                 "\t\tSyntax: git status {0}\n\t\targs: {0} repository name.\n\n" +
                 "\thelp\treprint commands list\n\n" +
@@ -193,7 +254,8 @@ public class Main
             case PUSH:
                 return "Syntax error: git push {0}\n\t\targs: {0} repository name.\n\n";
             case PULL:
-                return "Syntax error: git pull {0}\n\t\targs: {0} repository name.\n\n";
+                return "Syntax error: git pull {0} [--depth {1}] [--include {2}]... [--exclude {3}]... [--no-sparse]\n\t\targs: {0} repository name, {1} number of commits to pull, 0 for the whole history,\n" +
+                        "\t\t{2} glob of the files to pull, {3} glob of the files to leave out.\n\n";
             case STATUS:
                 return "Syntax error: git status {0}\n\t\targs: {0} repository name.\n\n";
             default:
@@ -50,6 +50,28 @@ public interface GitProtocol {
 	 */
 	public String pull(String _repo_name);
 
+	/**
+	 * Pull the files from the Network with only the last commits of the history. A new or
+	 * shallow repository keeps only the last commits, a later pull with a greater depth (or 0)
+	 * brings the older ones. A repository with the whole history always pulls the whole history.
+	 * @param _repo_name _repo_name a String, the name of the repository.
+	 * @param depth the number of commits to pull, 0 for the whole history.
+	 * @return a String, operation message.
+	 */
+	public String pull(String _repo_name, int depth);
+
+	/**
+	 * Pull from the Network only the files that match the patterns, see {@link com.unisa.git.repository.SparsePatterns}.
+	 * The patterns are kept with the local repository and used by the next pulls.
+	 * @param _repo_name _repo_name a String, the name of the repository.
+	 * @param depth the number of commits to pull, 0 for the whole history.
+	 * @param includes globs of the files to pull, empty for every file.
+	 * @param excludes globs of the files to leave out; both null to keep the patterns of the repository,
+	 * both empty to pull every file.
+	 * @return a String, operation message.
+	 */
+	public String pull(String _repo_name, int depth, List<String> includes, List<String> excludes);
+
 	/**
 	 * Shows the state of the local repository and the staging area. It shows
 	 * which changes have been staged, which haven't, and which files are tracked 
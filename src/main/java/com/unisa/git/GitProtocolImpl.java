@@ -2,30 +2,131 @@ package com.unisa.git;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
 
 import com.unisa.git.exceptions.RepositoryException;
+import com.unisa.git.repository.Ref;
 import com.unisa.git.repository.Repository;
-import com.unisa.git.storage.DHTStorage;
+import com.unisa.git.repository.SparsePatterns;
+import com.unisa.git.repository.WorkingTreeWatcher;
+import com.unisa.git.storage.AsyncStorage;
+import com.unisa.git.storage.RemoteStorage;
 import com.unisa.git.storage.GitStorage;
 
 public class GitProtocolImpl implements GitProtocol{
-    private DHTStorage remoteStorage;
-    private GitStorage localStorage;
+    private RemoteStorage remoteStorage;
+    private AsyncStorage localStorage;
+    //a push refused because of a concurrent push is tried again only if the repository is still up to date
+    private static final int PUSH_ATTEMPTS = 3;
+    //one lock for each repository
+    private final ConcurrentHashMap<String, ReentrantLock> locks = new ConcurrentHashMap<>();
+    //watchers of the working directories and where they keep their cookies, null if the peer doesn't watch
+    private final Path watch;
+    private final ConcurrentHashMap<String, WorkingTreeWatcher> watchers = new ConcurrentHashMap<>();
 
-    public GitProtocolImpl(DHTStorage storage) throws IOException{
+    /**
+     * Creates a peer whose local repositories are kept only in memory
+     * @param storage the remote storage, a {@link com.unisa.git.storage.DHTStorage}
+     */
+    public GitProtocolImpl(RemoteStorage storage) throws IOException{
+        this(storage, new GitStorage());
+    }
+
+    /**
+     * Creates a peer with its own local storage, for example a {@link com.unisa.git.storage.PackStorage} to keep
+     * the local repositories on disk. Every change to a local repository is stored in it.
+     * @param storage the remote storage
+     * @param localStorage the local storage
+     */
+    public GitProtocolImpl(RemoteStorage storage, AsyncStorage localStorage) throws IOException{
+        this(storage, localStorage, null);
+    }
+
+    /**
+     * Creates a peer that can watch the working directories of its repositories, for a process
+     * that runs many commands: the status reads only the files changed since the last one.
+     * @param storage the remote storage
+     * @param localStorage the local storage
+     * @param watch directory out of the working directories where the watchers create their cookie
+     * files, null to not watch the working directories
+     */
+    public GitProtocolImpl(RemoteStorage storage, AsyncStorage localStorage, Path watch) throws IOException{
         this.remoteStorage = storage;
-        this.localStorage = new GitStorage();
+        this.localStorage = localStorage;
+        this.watch = watch;
+    }
+
+    /**
+     * Takes the lock of the repository, operations on the same repository are done one at a time
+     * while different repositories are used in parallel.
+     * @param _repo_name name of the repository
+     * @return the lock, already taken
+     */
+    private ReentrantLock lock(String _repo_name){
+        ReentrantLock lock = locks.computeIfAbsent(_repo_name, name -> new ReentrantLock());
+        lock.lock();
+        return lock;
+    }
+
+    /**
+     * Reads the local repository and attaches the watcher of its directory, the watcher is
+     * started by the first read
+     * @param _repo_name name of the repository
+     * @return the repository, null if it doesn't exist
+     */
+    private Repository load(String _repo_name){
+        Repository repository = localStorage.get(_repo_name);
+        if(repository == null || watch == null)
+            return repository;
+        Path directory = Paths.get(repository.getPath());
+        WorkingTreeWatcher watcher = watchers.get(_repo_name);
+        if(watcher == null || !watcher.getDirectory().equals(directory)){
+            close(watchers.remove(_repo_name));
+            try{
+                watcher = new WorkingTreeWatcher(directory, watch);
+                watchers.put(_repo_name, watcher);
+            } catch(IOException e) {
+                //the status scans the directory
+                System.err.println(e.getMessage());
+                return repository;
+            }
+        }
+        repository.attach(watcher);
+        return repository;
+    }
+
+    private static void close(WorkingTreeWatcher watcher){
+        try{
+            if(watcher != null)
+                watcher.close();
+        } catch(IOException e) {
+            System.err.println(e.getMessage());
+        }
     }
 
     @Override
     public boolean createRepository(String _repo_name, File _directory) {
+        ReentrantLock lock = lock(_repo_name);
         try{
             if(_directory.isDirectory()){
                 Repository result = localStorage.get(_repo_name);
-                if(result == null){
+                //a repository whose directory was deleted can be created again
+                if(result == null || !new File(result.getPath()).isDirectory()){
                     //init new repository
                     Repository repo = new Repository(_repo_name, _directory);
+                    //what the old watcher knows is about the old repository
+                    close(watchers.remove(_repo_name));
                     localStorage.put(_repo_name, repo);
                     return true;
                 }
@@ -34,109 +135,219 @@ public class GitProtocolImpl implements GitProtocol{
         } catch(IOException e){
             e.printStackTrace();
             return false;
+        } finally {
+            lock.unlock();
         }
     }
 
     @Override
     public boolean addFilesToRepository(String _repo_name, List<File> files) {
+        ReentrantLock lock = lock(_repo_name);
         try {
-            Repository localRepo = localStorage.get(_repo_name);
-            if(localRepo != null)
-                return localRepo.addFile(files);
+            Repository localRepo = load(_repo_name);
+            if(localRepo != null){
+                try {
+                    return localRepo.addFile(files);
+                } finally {
+                    localStorage.put(_repo_name, localRepo);
+                }
+            }
             else 
                 return false;
         } catch (IOException | RepositoryException e) {
             System.err.println(e.getMessage());
             return false;
-        }        
+        } finally {
+            lock.unlock();
+        }
     }
 
     public boolean removeFilesFromRepository(String _repo_name, List<File> files){
+        ReentrantLock lock = lock(_repo_name);
         try {
-            Repository localRepo = localStorage.get(_repo_name);
-            if(localRepo != null)
-                return localRepo.removeFile(files);
+            Repository localRepo = load(_repo_name);
+            if(localRepo != null){
+                try {
+                    return localRepo.removeFile(files);
+                } finally {
+                    localStorage.put(_repo_name, localRepo);
+                }
+            }
             else 
                 return false;
         } catch (RepositoryException e) {
             System.err.println(e.getMessage());
             return false;
+        } finally {
+            lock.unlock();
         }
     }
 
     @Override
     public boolean commit(String _repo_name, String _message) {
+        ReentrantLock lock = lock(_repo_name);
         try{
-            Repository localRepo = localStorage.get(_repo_name);
-            if(localRepo != null)
-                return localRepo.addCommit(_repo_name, _message);
+            Repository localRepo = load(_repo_name);
+            if(localRepo != null){
+                boolean result = localRepo.addCommit(_repo_name, _message);
+                localStorage.put(_repo_name, localRepo);
+                return result;
+            }
             else
                 return false;
         } catch (IOException e) {
             e.printStackTrace();
             return false;
+        } finally {
+            lock.unlock();
         }
     }
 
+    /**
+     * Only the ref of the remote repository is needed to know if the push can be done.
+     * It's requested before looking up the local repository, so the round trip to the DHT
+     * overlaps the local work.
+     */
     @Override
     public String push(String _repo_name) {
+        ReentrantLock lock = lock(_repo_name);
         try {
-            Repository remoteRepo = remoteStorage.get(_repo_name);
-            Repository localRepo = localStorage.get(_repo_name);
+            CompletableFuture<Ref> remoteFuture = remoteStorage.getRefAsync(_repo_name);
+            Repository localRepo = load(_repo_name);
             //Can't push without a local repository...
-            if(localRepo != null){
-                //check if remote repository exists
-                if((remoteRepo != null)){
-                    //if true then we can push to remote
-                    if(localRepo.checkLastCommit(remoteRepo)){
-                        //Check if the are commits to push, otherwise local and remote are equals
-                        if(localRepo.checkBeforePush()){
-                            if(remoteStorage.put(localRepo.getName(), localRepo))
-                                return "Pushed all files successfully!\n";
-                            else
-                                return "Push to the remote repository failed...\n";
-                        }
-                        else return "Nothing to push...\n";
-                    }
-                    //Someone has pushed something, the repository must be updated with pull before pushing
-                    else return "The repository is out of date, do a pull before pushing...\n";
+            if(localRepo == null)
+                return "You should create a local repository first...\n";
+            for(int attempt = 0; attempt < PUSH_ATTEMPTS; attempt++){
+                Ref remoteRef = attempt == 0 ? remoteFuture.join() : remoteStorage.getRefAsync(_repo_name).join();
+                //the files out of the patterns are missing, the push would remove them
+                if(localRepo.isSparse())
+                    return "The repository is sparse, do a pull of every file before pushing...\n";
+                //the oldest commits are missing, the history pushed would lose them
+                if(localRepo.isShallow())
+                    return "The repository is shallow, do a pull with depth 0 before pushing...\n";
+                //Someone has pushed something, the repository must be updated with pull before pushing
+                if(remoteRef != null && !localRepo.checkLastCommit(remoteRef))
+                    return "The repository is out of date, do a pull before pushing...\n";
+                //Check if the are commits to push, otherwise local and remote are equals
+                if(!localRepo.checkBeforePush()){
+                    if(remoteRef != null)
+                        return "Nothing to push...\n";
+                    return "Creation of new remote repository and push failed...\n";
+                }
+                //The remote ref is replaced only if it's still the one just read
+                boolean pushed;
+                try{
+                    pushed = remoteStorage.pushAsync(_repo_name, localRepo, remoteRef).join();
+                } catch(CompletionException e) {
+                    //nothing was pushed, the commits are pushed by the next push
+                    localRepo.cancelPush();
+                    throw e;
                 }
-                //Just push and check if there are commits to push
-                else {
-                    if(localRepo.checkBeforePush() && remoteStorage.put(localRepo.getName(), localRepo))
-                        return "Created new remote repository, pushed all files successfully!\n";
-                    else
-                        return "Creation of new remote repository and push failed...\n";
+                if(pushed){
+                    localStorage.put(_repo_name, localRepo);
+                    if(remoteRef != null)
+                        return "Pushed all files successfully!\n";
+                    return "Created new remote repository, pushed all files successfully!\n";
                 }
+                //Refused, probably another peer pushed first: read the ref again, if it moved the pull is needed
+                localRepo.cancelPush();
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(ThreadLocalRandom.current().nextInt(10, 50)));
             }
-            else return "You should create a local repository first...\n";
+            return "Push to the remote repository failed...\n";
         } catch (IOException e) {
             e.printStackTrace();
             return "Something went wrong...\n";
+        } catch (CompletionException e) {
+            return unreachable(e);
+        } finally {
+            lock.unlock();
         }
     }
 
+    /**
+     * Message of a push or a pull that failed because the DHT couldn't be reached or
+     * answered with an error, the next command connects again.
+     */
+    private static String unreachable(CompletionException e){
+        Throwable cause = e.getCause() != null ? e.getCause() : e;
+        System.err.println(cause.getMessage());
+        return "The remote repositories can't be reached, try again later...\n";
+    }
+
+    /**
+     * The ref of the remote repository is read first, the remote repository is downloaded
+     * only if the local one is out of date, and only the files that differ from the local ones.
+     */
     @Override
     public String pull(String _repo_name) {
+        return pull(_repo_name, 0);
+    }
+
+    /**
+     * The ref of the remote repository is read first, then only the last pages of the remote history
+     * are downloaded, see {@link #pull(String)}. A shallow repository that is up to date is pulled
+     * again if the depth asks for more commits than it has. A repository with the whole history
+     * keeps it, the depth has no effect and the message says so.
+     */
+    @Override
+    public String pull(String _repo_name, int depth) {
+        return pull(_repo_name, depth, null, null);
+    }
+
+    /**
+     * Changes the patterns of the local repository and pulls, see {@link #pull(String, int)}: the
+     * files that match the new patterns are brought even if the repository is up to date, the files
+     * that don't match anymore are left in the working directory.
+     */
+    @Override
+    public String pull(String _repo_name, int depth, List<String> includes, List<String> excludes) {
+        ReentrantLock lock = lock(_repo_name);
         try {
-            Repository remoteRepo = remoteStorage.get(_repo_name);
-            Repository localRepo = localStorage.get(_repo_name);
+            CompletableFuture<Ref> remoteFuture = remoteStorage.getRefAsync(_repo_name);
+            Repository localRepo = load(_repo_name);
+            Ref remoteRef = remoteFuture.join();
             //check if remote and local repos exists, then check if are different
-            if(remoteRepo != null){ 
+            if(remoteRef != null){ 
                 if((localRepo != null)){
-                    if(!localRepo.checkLastCommit(remoteRepo)){
-                        switch(localRepo.update(remoteRepo)){
+                    boolean changed = false;
+                    if(includes != null || excludes != null){
+                        SparsePatterns sparse;
+                        try{
+                            sparse = SparsePatterns.of(includes == null ? Collections.<String>emptyList() : includes,
+                                    excludes == null ? Collections.<String>emptyList() : excludes);
+                        } catch(IllegalArgumentException e) {
+                            return "Wrong pattern: " + e.getMessage() + "\n";
+                        }
+                        changed = !Objects.equals(sparse, localRepo.getSparse());
+                        localRepo.setSparse(sparse);
+                    }
+                    //a repository with the whole history keeps it, only the commits it misses are read
+                    String note = "";
+                    if(!localRepo.isShallow() && localRepo.getDepth() > 0 && depth > 0){
+                        note = "The local repository has the whole history, --depth had no effect.\n";
+                        depth = 0;
+                    }
+                    boolean deepen = localRepo.isShallow() && (depth == 0 || depth > localRepo.getDepth());
+                    if(!localRepo.checkLastCommit(remoteRef) || deepen || changed){
+                        Repository remoteRepo = remoteStorage.syncAsync(_repo_name, localRepo, depth).join();
+                        if(remoteRepo == null)
+                            return "Remote repository missing...\n";
+                        int result = localRepo.update(remoteRepo);
+                        localStorage.put(_repo_name, localRepo);
+                        switch(result){
                             case 0:
-                                return "All up to date!\n";
+                                if(deepen)
+                                    return "History deepened, " + localRepo.getDepth() + " commits are present.\n";
+                                return note + "All up to date!\n";
                             case 1:
-                                return "Pulled, no conflicts are present!\n";
+                                return note + "Pulled, no conflicts are present!\n";
                             case 2:
-                                return "Pulled, but one or more conflicts are present.\n";
+                                return note + "Pulled, but one or more conflicts are present.\n";
                             default:
                                 return "Shouldn't happen...\n";
                         }
                     }
-                    else return "All up to date!\n";
+                    else return note + "All up to date!\n";
                 }
                 else return "Create a local repository first...\n";
             } 
@@ -144,6 +355,10 @@ public class GitProtocolImpl implements GitProtocol{
         } catch (IOException e) {
             e.printStackTrace();
             return "Something went wrong...\n";
+        } catch (CompletionException e) {
+            return unreachable(e);
+        } finally {
+            lock.unlock();
         }
     }
     
@@ -154,8 +369,9 @@ public class GitProtocolImpl implements GitProtocol{
      * @return a String object containing informations
      */
     public String status(String _repo_name){
+        ReentrantLock lock = lock(_repo_name);
         try{
-            Repository localRepo = localStorage.get(_repo_name);
+            Repository localRepo = load(_repo_name);
             if(localRepo != null){
                 List<String> stagedFilenames = localRepo.getStagedFiles();
                 List<String> unstagedFilenames = localRepo.getUnstagedFiles();
@@ -166,6 +382,9 @@ public class GitProtocolImpl implements GitProtocol{
                 result += "Changes not staged for commit:\n\n" + String.join(" ", unstagedFilenames) + "\n\n";
                 result += "Tracked files:\n\n" + String.join(" ", trackedFilenames) + "\n\n";
                 result += "Untracked files:\n\n" + String.join(" ", untrackedFilenames) + "\n";
+                //the index learned the metadata of the files read, keep it for the next status
+                if(localRepo.takeIndexChanges())
+                    localStorage.put(_repo_name, localRepo);
 
                 return result;
             }
@@ -174,30 +393,57 @@ public class GitProtocolImpl implements GitProtocol{
         } catch(IOException e) {
             e.printStackTrace();
             return "Something went wrong...";
+        } finally {
+            lock.unlock();
         }
     }
 
     public List<String> statusGetStagedFiles(String _repo_name){
-        Repository localRepo = localStorage.get(_repo_name);
+        ReentrantLock lock = lock(_repo_name);
+        try{
+            Repository localRepo = load(_repo_name);
 
-        return (localRepo != null) ? localRepo.getStagedFiles() : null;
+            return (localRepo != null) ? localRepo.getStagedFiles() : null;
+        } finally {
+            lock.unlock();
+        }
     }
 
     public List<String> statusGetUnstagedFiles(String _repo_name) throws IOException{
-        Repository localRepo = localStorage.get(_repo_name);
-        
-        return (localRepo != null) ? localRepo.getUnstagedFiles() : null;
+        ReentrantLock lock = lock(_repo_name);
+        try{
+            Repository localRepo = load(_repo_name);
+            if(localRepo == null)
+                return null;
+            List<String> unstaged = localRepo.getUnstagedFiles();
+            //the index learned the metadata of the files read, keep it for the next status
+            if(localRepo.takeIndexChanges())
+                localStorage.put(_repo_name, localRepo);
+            return unstaged;
+        } finally {
+            lock.unlock();
+        }
     }
 
     public List<String> statusGetTrackedFiles(String _repo_name) throws IOException{
-        Repository localRepo = localStorage.get(_repo_name);
+        ReentrantLock lock = lock(_repo_name);
+        try{
+            Repository localRepo = load(_repo_name);
         
-        return (localRepo != null) ? localRepo.getTrackedFiles() : null;
+            return (localRepo != null) ? localRepo.getTrackedFiles() : null;
+        } finally {
+            lock.unlock();
+        }
     }
 
     public List<String> statusGetUntrackedFiles(String _repo_name){
-        Repository localRepo = localStorage.get(_repo_name);
+        ReentrantLock lock = lock(_repo_name);
+        try{
+            Repository localRepo = load(_repo_name);
         
-        return (localRepo != null) ? localRepo.getUntrackedFiles() : null;
+            return (localRepo != null) ? localRepo.getUntrackedFiles() : null;
+        } finally {
+            lock.unlock();
+        }
     }
 }
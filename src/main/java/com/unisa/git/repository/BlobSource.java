@@ -0,0 +1,37 @@
+package com.unisa.git.repository;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Content of a crate kept out of the heap, for example in the pack of the local storage.
+ * The content is read only when it's needed and it's not kept by the crate.
+ */
+public interface BlobSource {
+
+    /**
+     * Size of the content
+     * @return the number of bytes of the content
+     */
+    public long size();
+
+    /**
+     * Reads the content, the buffer can be memory-mapped so it should be used and then dropped
+     * @return a buffer with the content between position and limit
+     * @throws IOException if the content can't be read
+     */
+    public ByteBuffer read() throws IOException;
+
+    /**
+     * Writes the content to a channel. A source kept in a file should copy it from file to
+     * channel, without reading it in memory.
+     * @param target the channel to write
+     * @throws IOException if the content can't be read or written
+     */
+    public default void transferTo(WritableByteChannel target) throws IOException {
+        ByteBuffer content = read();
+        while(content.hasRemaining())
+            target.write(content);
+    }
+}
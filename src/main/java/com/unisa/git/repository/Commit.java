@@ -1,17 +1,22 @@
 package com.unisa.git.repository;
 
-import java.io.Serializable;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.UUID;
 
-public class Commit implements Serializable{
+public class Commit {
     private String repositoryName;
     private String message;
     private String date;
     private String id;
     private boolean pushed;
     private ArrayList<String> name_files;
+    //ids of the commits this one comes from, more than one after a pull that merged two histories
+    private List<String> parents;
+    //1 for a commit without parents, otherwise 1 more than the highest generation of the parents
+    private int generation;
 
     /**
      * Create a new commit, a date and a unique id are created to indetify uniquely the commit
@@ -19,12 +24,47 @@ public class Commit implements Serializable{
      * @param message message written for the commit
      */
     public Commit(String repo, String message){
+        this(repo, message, Collections.<String>emptyList(), 1);
+    }
+
+    /**
+     * Create a new commit on top of its parents
+     * @param repo name of the repository
+     * @param message message written for the commit
+     * @param parents ids of the parent commits
+     * @param generation generation of the commit, see {@link #getGeneration()}
+     */
+    Commit(String repo, String message, List<String> parents, int generation){
         this.repositoryName = repo;
         this.message = message;
         this.date = LocalDate.now().toString();
         this.id = UUID.randomUUID().toString();
         this.pushed = false;
         this.name_files = new ArrayList<String>();
+        this.parents = parents;
+        this.generation = generation;
+    }
+
+    /**
+     * Rebuilds a commit read by the {@link RepositoryCodec} from a payload without parents
+     */
+    Commit(String repo, String message, String date, String id, boolean pushed, ArrayList<String> name_files){
+        this(repo, message, date, id, pushed, name_files, Collections.<String>emptyList(), 1);
+    }
+
+    /**
+     * Rebuilds a commit read by the {@link RepositoryCodec}
+     */
+    Commit(String repo, String message, String date, String id, boolean pushed, ArrayList<String> name_files,
+            List<String> parents, int generation){
+        this.repositoryName = repo;
+        this.message = message;
+        this.date = date;
+        this.id = id;
+        this.pushed = pushed;
+        this.name_files = name_files;
+        this.parents = parents;
+        this.generation = generation;
     }
 
     /**
@@ -80,6 +120,31 @@ public class Commit implements Serializable{
         return result;
     }
 
+    /**
+     * Returns the names of the files commited
+     * @return list of filenames
+     */
+    List<String> getFileNames(){
+        return name_files;
+    }
+
+    /**
+     * Returns the ids of the parents of the commit
+     * @return the ids, empty for the first commit
+     */
+    public List<String> getParents(){
+        return Collections.unmodifiableList(parents);
+    }
+
+    /**
+     * Returns the generation of the commit, the length of the longest path to a commit without
+     * parents. An ancestor always has a lower generation, so walks of the history can stop early.
+     * @return the generation, at least 1
+     */
+    public int getGeneration(){
+        return generation;
+    }
+
     /**
      * Returns the status of the commit
      * @return true if pushed, false otherwise
@@ -100,6 +165,13 @@ public class Commit implements Serializable{
         else return false;
     }
 
+    /**
+     * The push of the commit was refused, it must be pushed again
+     */
+    void resetStatus(){
+        pushed = false;
+    }
+
     @Override
     public boolean equals(Object object){
         if(object instanceof Commit){
@@ -0,0 +1,94 @@
+package com.unisa.git.repository;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.UUID;
+
+/**
+ * Computes the ids of the contents of the files: the SHA-256 of the content, as an hex string. <p>
+ * Files are read through a FileChannel in a direct buffer reused by each thread, so hashing a file
+ * doesn't need its whole content in memory and many files can be hashed at the same time.
+ * Ids written by older versions, MD5 as a UUID, are still recognized when a content is checked.
+ */
+public final class ContentHasher {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final ThreadLocal<ByteBuffer> BUFFERS = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BUFFER_SIZE));
+    private static final ThreadLocal<MessageDigest> DIGESTS = ThreadLocal.withInitial(ContentHasher::sha256);
+
+    private ContentHasher(){}
+
+    /**
+     * Hashes a file reading it a piece at a time
+     * @param path path of the file
+     * @return the id of the content
+     * @throws IOException if the file can't be read
+     */
+    public static String hash(Path path) throws IOException {
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)){
+            return hash(channel);
+        }
+    }
+
+    /**
+     * Hashes a content already in memory
+     * @param content the content
+     * @return the id of the content
+     */
+    public static String hash(byte[] content){
+        MessageDigest digest = DIGESTS.get();
+        digest.reset();
+        return toHex(digest.digest(content));
+    }
+
+    /**
+     * Checks that a content has the id, also if the id was written by an older version
+     * @param id the id of a crate
+     * @param content the content
+     * @return true if the content has the id
+     */
+    public static boolean matches(String id, byte[] content){
+        if(id.length() == 36 && id.charAt(8) == '-')
+            return UUID.nameUUIDFromBytes(content).toString().equals(id);
+        return hash(content).equals(id);
+    }
+
+    /**
+     * Reads the channel until its end, hashing what is read
+     * @param channel the channel of the file
+     * @return the id of the content
+     * @throws IOException if the file can't be read
+     */
+    private static String hash(FileChannel channel) throws IOException {
+        MessageDigest digest = DIGESTS.get();
+        digest.reset();
+        ByteBuffer buffer = BUFFERS.get();
+        buffer.clear();
+        while(channel.read(buffer) >= 0){
+            buffer.flip();
+            digest.update(buffer);
+            buffer.clear();
+        }
+        return toHex(digest.digest());
+    }
+
+    private static String toHex(byte[] bytes){
+        StringBuilder hex = new StringBuilder();
+        for(byte b : bytes)
+            hex.append(String.format("%02x", b));
+        return hex.toString();
+    }
+
+    private static MessageDigest sha256(){
+        try{
+            return MessageDigest.getInstance("SHA-256");
+        } catch(NoSuchAlgorithmException e) {
+            //every JVM must support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -2,25 +2,119 @@ package com.unisa.git.repository;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Files;
-import java.util.UUID;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 
 /**
- * This class is used to wrap a file, it contains the file's abstraction and a 128 bit id that
- * rappresents the current content of the file.
+ * This class is used to wrap a file, it contains the name of the file (its path from the directory
+ * of the repository) and an id that rappresents the current content of the file, its SHA-256
+ * computed by the {@link ContentHasher}. <p>
+ * The content can be left out when the crate is encoded, remotely it's stored apart as a blob
+ * addressed by the id, so the metadata of a repository only references the content of its files.
+ * A crate read from a file keeps only the path of the file, the content is read from the file
+ * when it's stored. Once the content is in the local storage the crate keeps only a {@link BlobSource}
+ * and reads the content when it's asked, so the heap doesn't grow with the size of the repository.
  */
-public class Crate implements Serializable{
+public class Crate {
     private String name;
-    private File file;
+    //content on the heap, only until the crate is stored locally
     private byte[] content;
     private String id;
+    private BlobSource source;
+    //version of the file this crate replaced, kept only in memory
+    private Crate previous;
 
+    /**
+     * Reads the file, the content is hashed while it's read
+     * @param file the file to wrap
+     * @throws IOException if the file can't be read
+     */
     public Crate(File file) throws IOException  {
-        this.name = file.getName();
-        this.file = file;
-        this.content = Files.readAllBytes(file.toPath());
-        this.id = UUID.nameUUIDFromBytes(this.content).toString();
+        this(file, file.getName());
+    }
+
+    /**
+     * Reads a file of a repository, the content is hashed a piece at a time and only the path
+     * of the file is kept, the content is read again from the file when it's stored
+     * @param file the file to wrap
+     * @param name path of the file from the directory of the repository
+     * @throws IOException if the file can't be read or it changed while being read
+     */
+    Crate(File file, String name) throws IOException  {
+        this.name = name;
+        FileSource source = new FileSource(file.toPath());
+        this.id = ContentHasher.hash(file.toPath());
+        //a file written while it was hashed could have a content that doesn't match the id
+        source.check();
+        this.source = source;
+    }
+
+    /**
+     * Content still in the file of the working directory. The size and the time of the last
+     * modification are the ones of the hashed content, a file changed since then can't be read
+     * because its content wouldn't match the id of the crate.
+     */
+    private static class FileSource implements BlobSource {
+        private final Path path;
+        private final long size;
+        private final long modified;
+
+        FileSource(Path path) throws IOException {
+            this.path = path;
+            this.size = Files.size(path);
+            this.modified = Files.getLastModifiedTime(path).toMillis();
+        }
+
+        void check() throws IOException {
+            if(Files.size(path) != size || Files.getLastModifiedTime(path).toMillis() != modified)
+                throw new IOException(path.getFileName() + " changed after it was added, add it again...");
+        }
+
+        @Override
+        public long size(){
+            return size;
+        }
+
+        @Override
+        public ByteBuffer read() throws IOException {
+            check();
+            if(size > Integer.MAX_VALUE)
+                throw new IOException(path.getFileName() + " is too large to be read in memory...");
+            try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)){
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+        }
+
+        @Override
+        public void transferTo(WritableByteChannel target) throws IOException {
+            check();
+            try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)){
+                long position = 0;
+                while(position < size){
+                    long transferred = channel.transferTo(position, size - position, target);
+                    if(transferred <= 0)
+                        throw new IOException(path.getFileName() + " changed after it was added, add it again...");
+                    position += transferred;
+                }
+            }
+        }
+    }
+
+    /**
+     * Rebuilds a crate read by the {@link RepositoryCodec}
+     * @param name name of the file
+     * @param id id of the content
+     * @param content content of the file, null if it was left out
+     */
+    Crate(String name, String id, byte[] content){
+        this.name = name;
+        this.id = id;
+        this.content = content;
     }
 
     public String getName(){
@@ -31,17 +125,121 @@ public class Crate implements Serializable{
         return id;
     }
 
+    /**
+     * Returns the content of the file, read from its source if it's not on the heap.
+     * The content read from the source is not kept by the crate.
+     * @return the content, null if the crate has no content
+     */
     public byte[] getContent(){
-        return content;
+        if(content != null || source == null)
+            return content;
+        ByteBuffer buffer = getContentBuffer();
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Returns the content of the file without copying it, if the crate has a source
+     * the buffer can be memory-mapped.
+     * @return a read only buffer with the content, null if the crate has no content
+     */
+    public ByteBuffer getContentBuffer(){
+        if(content != null)
+            return ByteBuffer.wrap(content).asReadOnlyBuffer();
+        if(source == null)
+            return null;
+        try{
+            return source.read().asReadOnlyBuffer();
+        } catch(IOException e) {
+            throw new UncheckedIOException("Content of " + name + " can't be read...", e);
+        }
+    }
+
+    /**
+     * Returns the size of the content
+     * @return the number of bytes, -1 if the crate has no content
+     */
+    public long getSize(){
+        if(content != null)
+            return content.length;
+        return source != null ? source.size() : -1;
+    }
+
+    /**
+     * Writes the content to a channel, if the crate has a source the content is copied by the
+     * source without passing through the heap.
+     * @param target the channel to write
+     * @throws IOException if the crate has no content or the content can't be written
+     */
+    public void writeTo(WritableByteChannel target) throws IOException {
+        if(content == null && source != null){
+            source.transferTo(target);
+            return;
+        }
+        if(content == null)
+            throw new IOException(name + " has no content...");
+        ByteBuffer buffer = ByteBuffer.wrap(content);
+        while(buffer.hasRemaining())
+            target.write(buffer);
+    }
+
+    /**
+     * Returns the version of the file that this crate replaced in the repository, remotely the
+     * crate can be stored as its differences from that version.
+     * @return the previous version, null if it's not known
+     */
+    public Crate getPrevious(){
+        return previous;
+    }
+
+    /**
+     * Records the version replaced by this crate, only its id and where its content is, so
+     * the versions before it are not kept.
+     */
+    void setPrevious(Crate crate){
+        Crate previous = new Crate(crate.name, crate.id, crate.content);
+        previous.source = crate.source;
+        this.previous = previous.content != null || previous.source != null ? previous : null;
+    }
+
+    //used to share the source between crates with the same content
+    BlobSource getSource(){
+        return source;
+    }
+
+    /**
+     * Reads the content from the source and keeps it on the heap, for a storage kept in memory.
+     * @throws UncheckedIOException if the content can't be read, for example because the file
+     * changed after it was added
+     */
+    public void loadContent(){
+        if(content == null && source != null){
+            content = getContent();
+            source = null;
+        }
+    }
+
+    /**
+     * Drops the content from the heap, from now on it's read from the source.
+     * @param source where the content is stored, it must hold the content with the id of the crate
+     */
+    public void attachSource(BlobSource source){
+        this.source = source;
+        this.content = null;
     }
 
     /**
-     * Checks if the file represented by the Crate object is still present in the File System
-     * of the local repository.
-     * @return true if present, false otherwise.
+     * Attaches the content of the file to a crate that was obtained without it, for example
+     * after downloading the metadata of a remote repository.
+     * @param content the content of the file
+     * @throws IOException if the content doesn't match the id of the crate
      */
-    public boolean checkIfExists() {
-        return this.file.exists();
+    public void attachContent(byte[] content) throws IOException {
+        if(!ContentHasher.matches(this.id, content))
+            throw new IOException("Content of " + name + " doesn't match its id...");
+        this.content = content;
+        this.source = null;
     }
 
     @Override
@@ -0,0 +1,181 @@
+package com.unisa.git.repository;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * The history of a repository split in pages, so a pull can read only the last commits. <p>
+ * The commits are split in order, every page has {@link #PAGE_SIZE} commits and it's stored by a
+ * remote storage under the hash of its content: a push appends commits at the end of the history,
+ * so the pages already stored don't change and they are never uploaded again. The commits after
+ * the last full page stay in the metadata of the repository. <p>
+ * A shallow pull reads the metadata and then the pages from the last one back, only until it has
+ * the requested number of commits. The repository remembers where its history was cut, a later
+ * pull with a greater depth brings the commits before that point.
+ */
+public final class History {
+    static final int PAGE_SIZE = 256;
+
+    //ids of the pages, from the oldest
+    private final List<String> ids = new ArrayList<>();
+    private final Map<String, byte[]> pages = new HashMap<>();
+    private final byte[] metadata;
+
+    /**
+     * Splits the history of the repository, the repository isn't read after this
+     * @param repository the repository to push
+     */
+    public History(Repository repository){
+        int paged = repository.commits.size() / PAGE_SIZE * PAGE_SIZE;
+        for(int i = 0; i < paged; i += PAGE_SIZE){
+            byte[] page = RepositoryCodec.encodePage(repository.commits.subList(i, i + PAGE_SIZE));
+            String id = ContentHasher.hash(page);
+            ids.add(id);
+            pages.put(id, page);
+        }
+        metadata = RepositoryCodec.encode(repository, false, false, paged);
+    }
+
+    /**
+     * The metadata of the repository without its files and without the commits of the pages
+     */
+    public byte[] getMetadata(){
+        return metadata;
+    }
+
+    /**
+     * The list of the pages, it's stored next to the metadata
+     */
+    public byte[] getPages(){
+        return RepositoryCodec.encodePages(ids);
+    }
+
+    /**
+     * Stores the pages that the remote storage doesn't hold yet, all of them at the same time
+     * @param contains tells if the page with the id is stored
+     * @param put stores the encoded page under the id
+     * @return a future completed when every page is stored
+     */
+    public CompletableFuture<Void> store(Function<String, CompletableFuture<Boolean>> contains, BiFunction<String, byte[], CompletableFuture<Void>> put){
+        List<CompletableFuture<Void>> uploads = new ArrayList<>();
+        for(String id : ids)
+            uploads.add(contains.apply(id).thenCompose(present -> present ? CompletableFuture.completedFuture((Void) null) : put.apply(id, pages.get(id))));
+        return CompletableFuture.allOf(uploads.toArray(new CompletableFuture<?>[0]));
+    }
+
+    /**
+     * Gives to a repository decoded from the metadata the commits of its pages, every page
+     * downloaded is checked against its id.
+     * @param repository the repository decoded from the metadata
+     * @param pages the list of the pages, null if the metadata has the whole history
+     * @param depth the number of commits wanted, 0 for the whole history: if the local repository has
+     * the whole history only the pages back to the newest commit it knows are read, it already has the older ones
+     * @param local the local repository, null if there's none: the pages are read at least until a
+     * commit of its history, so the commits brought are joined to it
+     * @param fetch downloads together the encoded pages with the ids, a missing page is left out of the result
+     * @return a future completed when the repository has the commits, it fails if a page is missing or wrong
+     */
+    public static CompletableFuture<Void> load(Repository repository, byte[] pages, int depth, Repository local,
+            Function<Collection<String>, CompletableFuture<Map<String, byte[]>>> fetch){
+        List<String> ids;
+        try{
+            ids = pages == null ? Collections.<String>emptyList() : RepositoryCodec.decodePages(pages);
+        } catch(IOException e) {
+            CompletableFuture<Void> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+        if(depth <= 0 && local != null && local.shallow == null && !local.commits.isEmpty()){
+            return loadBack(repository, ids, ids.size(), 0, local, fetch).thenAccept(left -> {
+                //the commits left out are in the local history, only this copy is cut
+                if(left > 0 && !repository.commits.isEmpty())
+                    repository.shallow = repository.commits.get(0).getId();
+            });
+        }
+        if(depth <= 0){
+            //every page in a single batch
+            return fetch.apply(ids).thenAccept(downloaded -> {
+                List<Commit> older = new ArrayList<>();
+                for(String id : ids)
+                    older.addAll(page(id, downloaded.get(id)));
+                repository.prependCommits(older);
+            });
+        }
+        return loadBack(repository, ids, ids.size(), depth, local, fetch).thenAccept(left -> {
+            if(left > 0 && !repository.commits.isEmpty())
+                repository.shallow = repository.commits.get(0).getId();
+            truncate(repository, depth, local);
+        });
+    }
+
+    /**
+     * Reads the pages from the last one back until the history is deep enough
+     * @return a future completed with the number of pages left out
+     */
+    private static CompletableFuture<Integer> loadBack(Repository repository, List<String> ids, int next, int depth,
+            Repository local, Function<Collection<String>, CompletableFuture<Map<String, byte[]>>> fetch){
+        if(next == 0 || (repository.commits.size() >= depth && newestKnown(repository, local) >= 0))
+            return CompletableFuture.completedFuture(next);
+        String id = ids.get(next - 1);
+        return fetch.apply(Collections.singletonList(id)).thenCompose(downloaded -> {
+            repository.prependCommits(page(id, downloaded.get(id)));
+            return loadBack(repository, ids, next - 1, depth, local, fetch);
+        });
+    }
+
+    /**
+     * Keeps only the last commits of the history of a repository read from a remote storage,
+     * the history becomes shallow
+     * @param repository the remote repository
+     * @param depth the number of commits to keep, 0 to keep the whole history
+     * @param local the local repository, null if there's none: the commits from the newest one
+     * of its history are kept anyway, so the commits brought are joined to it
+     */
+    public static void truncate(Repository repository, int depth, Repository local){
+        if(depth <= 0)
+            return;
+        int first = repository.commits.size() - depth;
+        int known = newestKnown(repository, local);
+        if(local != null && !local.commits.isEmpty())
+            first = Math.min(first, known);
+        repository.dropCommits(first);
+    }
+
+    /**
+     * Position of the newest commit of the remote history that is also in the local one
+     * @return the position, -1 if there's none, 0 if there's no local history to join
+     */
+    private static int newestKnown(Repository repository, Repository local){
+        if(local == null || local.commits.isEmpty())
+            return 0;
+        for(int i = repository.commits.size() - 1; i >= 0; i--){
+            if(local.getCommit(repository.commits.get(i).getId()) != null)
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Decodes a downloaded page after checking it against its id
+     */
+    private static List<Commit> page(String id, byte[] page){
+        try{
+            if(page == null)
+                throw new IOException("Page " + id + " is missing...");
+            if(!ContentHasher.matches(id, page))
+                throw new IOException("Page " + id + " doesn't match its hash...");
+            return RepositoryCodec.decodePage(page);
+        } catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,308 @@
+package com.unisa.git.repository;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Merkle tree over the tracked files of a repository, its root is the id of the repository. <p>
+ * The tree follows the directories of the working tree, like the tree objects of Git: every
+ * directory is a node whose hash covers the name, the kind and the hash of each of its entries in
+ * order of name, a file is a leaf whose hash is the one of the id of its crate. Files are named by
+ * their path from the directory of the repository, with / as separator. The shape depends only on
+ * the files and not on the order they were added, so two repositories with the same files have the
+ * same root, and two directories with the same files have the same hash wherever they are. <p>
+ * Each directory keeps its hash until something below it changes, so changing a file recomputes
+ * only the hashes of the directories on its path, and the directories whose hash didn't change can
+ * be skipped when two trees are compared. <p>
+ * Every directory can be listed as a tree object, see {@link TreeSync}: its entries with the id of
+ * each file and the hash of each directory, enough to compute the hash of the directory without the
+ * rest of the tree.
+ */
+final class MerkleTree {
+    static final char SEPARATOR = '/';
+
+    private static final int ROOT_BYTES = 16;
+
+    private static final byte FILE = 'F';
+    private static final byte DIRECTORY = 'D';
+
+    private final Node root = Node.directory();
+
+    /**
+     * A directory has its entries, a file has none. The hash of a directory is null when it
+     * must be computed again.
+     */
+    private static class Node {
+        final TreeMap<String, Node> entries;
+        //id of the content of a file
+        final String id;
+        //files below a directory
+        int size;
+        byte[] hash;
+
+        private Node(TreeMap<String, Node> entries, String id){
+            this.entries = entries;
+            this.id = id;
+        }
+
+        static Node directory(){
+            return new Node(new TreeMap<>(), null);
+        }
+
+        static Node file(String id){
+            Node file = new Node(null, id);
+            file.hash = sha256(id.getBytes(StandardCharsets.UTF_8));
+            return file;
+        }
+
+        boolean isDirectory(){
+            return entries != null;
+        }
+    }
+
+    /**
+     * An entry of a tree object, the id is the one of the content for a file
+     * and the hash of the whole directory, as hex, for a directory
+     */
+    static final class Entry {
+        final String name;
+        final boolean directory;
+        final String id;
+
+        Entry(String name, boolean directory, String id){
+            this.name = name;
+            this.directory = directory;
+            this.id = id;
+        }
+    }
+
+    /**
+     * Adds a file or changes its content, the directories on its path are created
+     * @param name path of the file
+     * @param id id of the content of the file
+     */
+    void put(String name, String id){
+        String[] segments = split(name);
+        //the directories on the path, from the root
+        List<Node> path = new ArrayList<>(segments.length);
+        Node node = root;
+        for(int i = 0; i < segments.length - 1; i++){
+            path.add(node);
+            Node child = node.entries.get(segments[i]);
+            if(child == null || !child.isDirectory()){
+                //a file becomes a directory
+                if(child != null){
+                    for(Node directory : path)
+                        directory.size--;
+                }
+                child = Node.directory();
+                node.entries.put(segments[i], child);
+            }
+            node = child;
+        }
+        path.add(node);
+        Node file = Node.file(id);
+        Node old = node.entries.put(segments[segments.length - 1], file);
+        if(old != null && !old.isDirectory() && MessageDigest.isEqual(old.hash, file.hash))
+            return;
+        int added = 1 - (old == null ? 0 : old.isDirectory() ? old.size : 1);
+        for(Node directory : path){
+            directory.size += added;
+            directory.hash = null;
+        }
+    }
+
+    /**
+     * Removes a file, nothing happens if the file isn't in the tree.
+     * The directories left empty are removed.
+     * @param name path of the file
+     */
+    void remove(String name){
+        String[] segments = split(name);
+        List<Node> path = new ArrayList<>(segments.length);
+        Node node = root;
+        for(int i = 0; i < segments.length - 1; i++){
+            path.add(node);
+            node = node.entries.get(segments[i]);
+            if(node == null || !node.isDirectory())
+                return;
+        }
+        path.add(node);
+        Node file = node.entries.get(segments[segments.length - 1]);
+        if(file == null || file.isDirectory())
+            return;
+        node.entries.remove(segments[segments.length - 1]);
+        for(int i = path.size() - 1; i >= 0; i--){
+            Node directory = path.get(i);
+            directory.size--;
+            directory.hash = null;
+            if(i > 0 && directory.size == 0)
+                path.get(i - 1).entries.remove(segments[i - 1]);
+        }
+    }
+
+    int size(){
+        return root.size;
+    }
+
+    /**
+     * Checks if a directory has tracked files below it
+     * @param name path of the directory, the empty string for the root
+     * @return true if the path is a directory of the tree
+     */
+    boolean isDirectory(String name){
+        Node node = find(name);
+        return node != null && node.isDirectory();
+    }
+
+    /**
+     * Lists the files below a directory, in order of path
+     * @param name path of the directory, the empty string for the root
+     * @return the paths of the files, empty if the directory isn't in the tree
+     */
+    List<String> files(String name){
+        List<String> files = new ArrayList<>();
+        Node node = find(name);
+        if(node != null && node.isDirectory())
+            collect(node, name.isEmpty() ? "" : name + SEPARATOR, files);
+        return files;
+    }
+
+    /**
+     * Returns the hash of the root, cut to 128 bits like the ids of the commits
+     * @return the hash as an hex string
+     */
+    String root(){
+        return toHex(hash(root)).substring(0, 2 * ROOT_BYTES);
+    }
+
+    /**
+     * Returns the whole hash of a directory
+     * @param name path of the directory, the empty string for the root
+     * @return the hash as an hex string, null if the directory isn't in the tree
+     */
+    String hash(String name){
+        Node node = find(name);
+        return node != null && node.isDirectory() ? toHex(hash(node)) : null;
+    }
+
+    /**
+     * Lists every directory of the tree as a tree object, two directories with the same
+     * files are listed once
+     * @return the entries of each directory, by the hex of its hash
+     */
+    Map<String, List<Entry>> directories(){
+        Map<String, List<Entry>> directories = new HashMap<>();
+        list(root, directories);
+        return directories;
+    }
+
+    /**
+     * Computes the hash of a directory from its tree object, it's the same hash the directory has
+     * in the tree, so a tree object can be checked against the hash it was requested with
+     * @param entries the entries of the directory, in order of name
+     * @return the hash as an hex string
+     */
+    static String hash(List<Entry> entries){
+        MessageDigest digest = digest();
+        for(Entry entry : entries)
+            update(digest, entry.name, entry.directory, entry.directory ? fromHex(entry.id) : sha256(entry.id.getBytes(StandardCharsets.UTF_8)));
+        return toHex(digest.digest());
+    }
+
+    private Node find(String name){
+        Node node = root;
+        if(name.isEmpty())
+            return node;
+        for(String segment : split(name)){
+            if(!node.isDirectory())
+                return null;
+            node = node.entries.get(segment);
+            if(node == null)
+                return null;
+        }
+        return node;
+    }
+
+    private static void collect(Node directory, String prefix, List<String> files){
+        for(Map.Entry<String, Node> entry : directory.entries.entrySet()){
+            if(entry.getValue().isDirectory())
+                collect(entry.getValue(), prefix + entry.getKey() + SEPARATOR, files);
+            else
+                files.add(prefix + entry.getKey());
+        }
+    }
+
+    private static String list(Node directory, Map<String, List<Entry>> directories){
+        List<Entry> entries = new ArrayList<>(directory.entries.size());
+        for(Map.Entry<String, Node> entry : directory.entries.entrySet()){
+            Node child = entry.getValue();
+            if(child.isDirectory())
+                entries.add(new Entry(entry.getKey(), true, list(child, directories)));
+            else
+                entries.add(new Entry(entry.getKey(), false, child.id));
+        }
+        String hash = toHex(hash(directory));
+        directories.put(hash, entries);
+        return hash;
+    }
+
+    /**
+     * Hash of a directory, every entry is its kind, its name prefixed by the length and its hash,
+     * so names and hashes can't be mixed up
+     */
+    private static byte[] hash(Node node){
+        if(node.hash != null)
+            return node.hash;
+        MessageDigest digest = digest();
+        for(Map.Entry<String, Node> entry : node.entries.entrySet())
+            update(digest, entry.getKey(), entry.getValue().isDirectory(), hash(entry.getValue()));
+        node.hash = digest.digest();
+        return node.hash;
+    }
+
+    private static void update(MessageDigest digest, String entry, boolean directory, byte[] hash){
+        byte[] name = entry.getBytes(StandardCharsets.UTF_8);
+        digest.update(directory ? DIRECTORY : FILE);
+        digest.update(new byte[]{(byte) (name.length >>> 24), (byte) (name.length >>> 16), (byte) (name.length >>> 8), (byte) name.length});
+        digest.update(name);
+        digest.update(hash);
+    }
+
+    private static String toHex(byte[] bytes){
+        StringBuilder hex = new StringBuilder();
+        for(byte b : bytes)
+            hex.append(String.format("%02x", b));
+        return hex.toString();
+    }
+
+    private static byte[] fromHex(String hex){
+        byte[] bytes = new byte[hex.length() / 2];
+        for(int i = 0; i < bytes.length; i++)
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        return bytes;
+    }
+
+    private static String[] split(String name){
+        return name.split(String.valueOf(SEPARATOR));
+    }
+
+    private static byte[] sha256(byte[] bytes){
+        return digest().digest(bytes);
+    }
+
+    private static MessageDigest digest(){
+        try{
+            return MessageDigest.getInstance("SHA-256");
+        } catch(NoSuchAlgorithmException e) {
+            //every JVM must support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
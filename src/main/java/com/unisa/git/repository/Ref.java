@@ -0,0 +1,55 @@
+package com.unisa.git.repository;
+
+import java.util.Objects;
+
+/**
+ * A small record that tells the state of a remote repository without its content: the id of the
+ * last commit pushed, the id of the repository and a sequence number increased by every push.
+ * It's enough to know if a local repository is up to date.
+ */
+public class Ref {
+    private final String head;
+    private final String repositoryId;
+    private final long sequence;
+
+    public Ref(String head, String repositoryId, long sequence){
+        this.head = head;
+        this.repositoryId = repositoryId;
+        this.sequence = sequence;
+    }
+
+    /**
+     * Returns the id of the last commit of the repository
+     * @return id of the commit
+     */
+    public String getHead(){
+        return head;
+    }
+
+    public String getRepositoryId(){
+        return repositoryId;
+    }
+
+    /**
+     * Returns the number of pushes made on the repository
+     * @return the sequence number
+     */
+    public long getSequence(){
+        return sequence;
+    }
+
+    @Override
+    public boolean equals(Object object){
+        if(object instanceof Ref){
+            Ref ref = (Ref) object;
+            if(this.head.equals(ref.head) && this.repositoryId.equals(ref.repositoryId) && this.sequence == ref.sequence)
+                return true;
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode(){
+        return Objects.hash(head, repositoryId, sequence);
+    }
+}
@@ -1,20 +1,36 @@
 package com.unisa.git.repository;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.Serializable;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.UUID;
+import java.util.PriorityQueue;
+import java.util.Set;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import com.unisa.git.exceptions.RepositoryException;
 
@@ -22,13 +38,35 @@ import com.unisa.git.exceptions.RepositoryException;
  * The repository of an user, the Repository class allows to manage, create and 
  * control the workflow of the repositories. 
  */
-public class Repository implements Serializable{
-    private String name;
-    private String path;
-    private HashMap<String, Crate> trackedFiles;
-    private HashMap<String, Crate> stagedFiles;
-    private ArrayList<Commit> commits;
-    private String id;
+public class Repository {
+    //fields are package-private to be read by the RepositoryCodec
+    String name;
+    String path;
+    HashMap<String, Crate> trackedFiles;
+    HashMap<String, Crate> stagedFiles;
+    ArrayList<Commit> commits;
+    //ids of remote heads brought by a pull and not yet joined by a commit
+    ArrayList<String> mergeHeads;
+    String id;
+    //oldest commit of a shallow history, the commits before it were left out by the pull, null if the history is whole
+    String shallow;
+    //files pulled by a sparse repository, null if every file is pulled
+    SparsePatterns sparse;
+    //commits by id, every commit in commits is here
+    private HashMap<String, Commit> commitIndex;
+    //commits marked by the last checkBeforePush
+    private int pushing;
+    //hashes of the tracked files, kept in step with trackedFiles by track and untrack
+    private MerkleTree tree;
+    //metadata of the files in the working directory, it's local and never pushed
+    StatIndex index;
+    //changes of the working directory while the process runs, it's never stored
+    private WorkingTreeWatcher watcher;
+
+    //reading and writing files is bounded by the disk, a thread for each core is enough to keep it busy
+    private static final ForkJoinPool WORKERS = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    //fewer files are read or written by the calling thread
+    private static final int PARALLEL_FILES = 4;
 
     public Repository(String name, File directory) throws IOException{
         this.name = name;
@@ -36,43 +74,178 @@ public class Repository implements Serializable{
         this.trackedFiles = new HashMap<>();
         this.stagedFiles = new HashMap<>();
         this.commits = new ArrayList<>();
+        this.mergeHeads = new ArrayList<>();
+        this.commitIndex = new HashMap<>();
         this.id = "null";
+        this.tree = new MerkleTree();
+        this.index = new StatIndex();
         Files.createDirectories(Paths.get(path));
     }
 
+    /**
+     * Rebuilds a repository read by the {@link RepositoryCodec}, the directory is not created
+     * because the repository could belong to another peer.
+     */
+    Repository(String name, String path, String id){
+        this.name = name;
+        this.path = path;
+        this.trackedFiles = new HashMap<>();
+        this.stagedFiles = new HashMap<>();
+        this.commits = new ArrayList<>();
+        this.mergeHeads = new ArrayList<>();
+        this.commitIndex = new HashMap<>();
+        this.id = id;
+        this.index = new StatIndex();
+    }
+
     public String getName(){
         return name;
     }
 
+    /**
+     * Tells if the history was cut by a shallow pull, a shallow repository can't be pushed
+     * @return true if the oldest commits are missing
+     */
+    public boolean isShallow(){
+        return shallow != null;
+    }
+
+    /**
+     * Tells if a pull brings only some of the files, a sparse repository can't be pushed
+     * @return true if the repository has sparse patterns
+     */
+    public boolean isSparse(){
+        return sparse != null;
+    }
+
+    public SparsePatterns getSparse(){
+        return sparse;
+    }
+
+    /**
+     * Restricts the files brought by the next pulls, the files already written are kept
+     * @param sparse the patterns of the files to pull, null to pull every file
+     */
+    public void setSparse(SparsePatterns sparse){
+        this.sparse = sparse;
+    }
+
+    /**
+     * Tells if the index learned the metadata of some files since the last call, for example while
+     * reading the status, so the repository should be saved to not read those files again
+     * @return true if the index changed
+     */
+    public boolean takeIndexChanges(){
+        return index.takeChanged();
+    }
+
+    /**
+     * Number of commits in the history of the repository
+     */
+    public int getDepth(){
+        return commits.size();
+    }
+
     public String getPath(){
         return path;
     }
 
     /**
-     * Returns the id of the repository. The id is generated every time this method is called.
+     * Attaches the watcher of the working directory, the status reads only the files it reports
+     * as changed. The watcher outlives the repository, it's attached again to every copy read
+     * from the storage.
+     * @param watcher the watcher of the directory of the repository
+     */
+    public void attach(WorkingTreeWatcher watcher){
+        this.watcher = watcher;
+    }
+
+    /**
+     * Returns the crates of the files tracked by Git, the content of each crate is what must be
+     * stored remotely to rebuild the repository.
+     * @return the tracked crates
+     */
+    public Collection<Crate> getCrates(){
+        return trackedFiles.values();
+    }
+
+    /**
+     * Returns the crates of the files staged for the next commit, files staged to be removed
+     * have no crate.
+     * @return the staged crates
+     */
+    public Collection<Crate> getStagedCrates(){
+        List<Crate> crates = new ArrayList<>();
+        for(Crate crate : stagedFiles.values()){
+            if(crate != null)
+                crates.add(crate);
+        }
+        return crates;
+    }
+
+    /**
+     * Returns the id of the repository, the root of the Merkle tree of the tracked files.
+     * Only the hashes on the paths of the files changed since the last call are computed again,
+     * the content of the files is not read. The tracked files deleted from the working directory
+     * stop being tracked: with a watcher only the names changed since the last id are looked for,
+     * without it, or if it lost events, every tracked file is.
      * @return String reppresenting the id
      * @throws IOException problems when reading from the file
      */
     public String generateId() throws IOException {
-        //Read all bytes
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-
-        //Use iterator, otherwise concurrentModificationException is raised!
-        Iterator<Entry<String, Crate>> it = this.trackedFiles.entrySet().iterator();
-        while(it.hasNext()) {
-            Entry<String, Crate> entry = it.next();
-            if(entry.getValue().checkIfExists())
-                outputStream.write(entry.getValue().getContent());
-            else 
-                it.remove();
-        }
-        //Gain all bytes read from the repository
-        byte[] dirBytes = outputStream.toByteArray();
-        //Generate the new id from the bytes of the directory
-        this.id = UUID.nameUUIDFromBytes(dirBytes).toString();
+        Set<String> missing = null;
+        if(watcher != null && watcher.missing != null){
+            //the names seen missing by the statuses and the ones changed after the last status
+            Set<String> pending = watcher.pending();
+            if(pending != null){
+                missing = new HashSet<>(watcher.missing);
+                missing.addAll(pending);
+            }
+        }
+        if(missing == null){
+            //Use iterator, otherwise concurrentModificationException is raised!
+            Iterator<Entry<String, Crate>> it = this.trackedFiles.entrySet().iterator();
+            while(it.hasNext()) {
+                Entry<String, Crate> entry = it.next();
+                if(!Paths.get(this.getPath(), entry.getKey()).toFile().exists()){
+                    it.remove();
+                    index.remove(entry.getKey());
+                    if(tree != null)
+                        tree.remove(entry.getKey());
+                }
+            }
+        }
+        else {
+            for(String name : missing){
+                //a directory stands for the files below it
+                List<String> names = tree().isDirectory(name) ? tree().files(name) : Collections.singletonList(name);
+                for(String filename : names){
+                    if(trackedFiles.containsKey(filename) && !resolve(filename).toFile().exists()){
+                        trackedFiles.remove(filename);
+                        index.remove(filename);
+                        tree().remove(filename);
+                    }
+                }
+            }
+        }
+        if(watcher != null)
+            watcher.missing = new HashSet<>();
+        this.id = tree().root();
         return id;
     }
 
+    /**
+     * The tree of a repository read by the codec is built the first time it's needed
+     */
+    MerkleTree tree(){
+        if(tree == null){
+            tree = new MerkleTree();
+            for(Map.Entry<String, Crate> entry : trackedFiles.entrySet())
+                tree.put(entry.getKey(), entry.getValue().getId());
+        }
+        return tree;
+    }
+
     /**
      * Check if the last commit of the remote repository is present in the local repository,
      * this way we can check if the local repository is up to date or not.
@@ -82,24 +255,151 @@ public class Repository implements Serializable{
         if(!this.commits.isEmpty()){
             Commit lastRemoteCommit = remoteRepository.commits.get(remoteRepository.commits.size() - 1);
         
-            return this.commits.contains(lastRemoteCommit);
+            return this.commitIndex.containsKey(lastRemoteCommit.getId());
         }
         else return false;
     }
 
+    /**
+     * Check if the head of the remote repository, read from its ref, is present in the local
+     * repository, this way the remote repository is not needed to know if the local one is up to date.
+     * @param remoteRef the ref of the remote repository
+     * @return true if up do date, false otherwise
+     */
+    public boolean checkLastCommit(Ref remoteRef){
+        return this.commitIndex.containsKey(remoteRef.getHead());
+    }
+
+    /**
+     * Returns the commit with the id
+     * @param id id of the commit
+     * @return the commit, null if it's not in the history
+     */
+    public Commit getCommit(String id){
+        return commitIndex.get(id);
+    }
+
+    /**
+     * Checks if a commit comes before another one in the history. Only the commits with a higher
+     * generation than the ancestor are visited, so the cost depends on the distance between the two.
+     * @param ancestor id of the commit that should come first
+     * @param descendant id of the commit that should come after
+     * @return true if the descendant is the ancestor or one of its parents leads to the ancestor
+     */
+    public boolean isAncestor(String ancestor, String descendant){
+        Commit target = commitIndex.get(ancestor);
+        Commit start = commitIndex.get(descendant);
+        if(target == null || start == null)
+            return false;
+        Deque<Commit> toVisit = new ArrayDeque<>();
+        Set<String> visited = new HashSet<>();
+        toVisit.push(start);
+        while(!toVisit.isEmpty()){
+            Commit commit = toVisit.pop();
+            if(commit.getId().equals(ancestor))
+                return true;
+            //parents have a lower generation, they can't lead to the ancestor
+            if(commit.getGeneration() <= target.getGeneration())
+                continue;
+            for(String parentId : commit.getParents()){
+                Commit parent = commitIndex.get(parentId);
+                if(parent != null && visited.add(parentId))
+                    toVisit.push(parent);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Finds the best common ancestor of two commits, the one with the highest generation.
+     * The two histories are walked together from the highest generation down, so only the commits
+     * made after the histories split are visited.
+     * @param first id of a commit
+     * @param second id of another commit
+     * @return the merge base, null if the commits have no common ancestor
+     */
+    public Commit mergeBase(String first, String second){
+        Commit a = commitIndex.get(first);
+        Commit b = commitIndex.get(second);
+        if(a == null || b == null)
+            return null;
+        //which of the two commits reached a commit: 1 the first, 2 the second, 3 both
+        Map<String, Integer> reached = new HashMap<>();
+        PriorityQueue<Commit> toVisit = new PriorityQueue<>((x, y) -> Integer.compare(y.getGeneration(), x.getGeneration()));
+        reached.put(a.getId(), 1);
+        reached.merge(b.getId(), 2, (x, y) -> x | y);
+        toVisit.add(a);
+        toVisit.add(b);
+        while(!toVisit.isEmpty()){
+            Commit commit = toVisit.poll();
+            int from = reached.get(commit.getId());
+            //children have higher generations, they were all visited before
+            if(from == 3)
+                return commit;
+            for(String parentId : commit.getParents()){
+                Commit parent = commitIndex.get(parentId);
+                if(parent == null)
+                    continue;
+                Integer old = reached.get(parentId);
+                int updated = (old == null ? 0 : old) | from;
+                if(old == null || old != updated){
+                    reached.put(parentId, updated);
+                    toVisit.add(parent);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the ref that describes the state of this repository
+     * @param sequence the sequence number of the ref
+     * @return the ref, null if there are no commits
+     */
+    public Ref getRef(long sequence){
+        if(this.commits.isEmpty())
+            return null;
+        return new Ref(this.commits.get(this.commits.size() - 1).getId(), this.id, sequence);
+    }
+
+    /**
+     * Stages files for the next commit, a directory stages all the files below it
+     * @param files files or directories of the repository, a relative path starts from the
+     * directory of the repository
+     * @return true if the files were staged
+     * @throws IOException if a file can't be read
+     * @throws RepositoryException if a file doesn't exist or it didn't change
+     */
     public boolean addFile(List<File> files) throws IOException, RepositoryException{
-        for(File file : files){
-            String filename = file.getName();
+        List<String> names = expand(files);
+        if(watcher != null){
+            refresh();
+            for(String filename : names){
+                //unchanged since it was committed, no need to read it
+                if(trackedFiles.containsKey(filename) && !stagedFiles.containsKey(filename)
+                        && !watcher.unstaged.contains(filename) && resolve(filename).toFile().exists())
+                    throw new RepositoryException(filename + " was already committed...");
+            }
+        }
+        for(String filename : names)
+            touch(filename);
+        //files are read and hashed all together, then staged one at a time
+        Crate[] crates = new Crate[names.size()];
+        BasicFileAttributes[] attributes = new BasicFileAttributes[names.size()];
+        readFiles(names, crates, attributes);
+
+        for(int i = 0; i < names.size(); i++){
+            String filename = names.get(i);
             Crate trackedCrate = this.trackedFiles.get(filename);
             Crate stagedCrate = this.stagedFiles.get(filename);
-            Path path_to_file = Paths.get(this.getPath(), filename);
 
             //Check if the file exists, otherwise error
-            if(!path_to_file.toFile().exists())
+            if(crates[i] == null)
                 throw new RepositoryException(filename + " doesn't exists...");
+            Crate newCrate = crates[i];
+            index.record(filename, attributes[i], newCrate.getId());
             //if the key is not present than we simple add a new entry
             if(stagedCrate == null){
-                Crate newCrate = new Crate(path_to_file.toFile());
                 //Check if the file we want to commited was already committed!
                 if((trackedCrate != null) && trackedCrate.equals(newCrate))
                     throw new RepositoryException(filename + " was already committed...");
@@ -109,7 +409,6 @@ public class Repository implements Serializable{
             //The key is already present that we check if the content of the file is the same,
             //if the content is different that we replace the value associated at the key, otherwise already added.
             else {
-                Crate newCrate = new Crate(path_to_file.toFile());
                 if(!stagedCrate.equals(newCrate)){
                     
                     this.stagedFiles.put(filename, newCrate);
@@ -120,13 +419,23 @@ public class Repository implements Serializable{
         return true;
     }
 
+    /**
+     * Stages the removal of tracked files, a directory removes all the tracked files below it
+     * @param files files or directories of the repository
+     * @return true if the removals were staged
+     * @throws RepositoryException if a file isn't tracked
+     */
     public boolean removeFile(List<File> files) throws RepositoryException{
         for(File file: files){
-            String filename = file.getName();
-            if(trackedFiles.get(filename) != null)
-                stagedFiles.put(filename, null);
-            else 
-                throw new RepositoryException(filename + " isn't tracked by Git...");
+            String name = nameOf(file);
+            List<String> names = tree().isDirectory(name) ? tree().files(name) : Collections.singletonList(name);
+            for(String filename : names){
+                touch(filename);
+                if(trackedFiles.get(filename) != null)
+                    stagedFiles.put(filename, null);
+                else 
+                    throw new RepositoryException(filename + " isn't tracked by Git...");
+            }
         }
         return true;
     }
@@ -139,18 +448,31 @@ public class Repository implements Serializable{
      */
     public boolean addCommit(String repo_name, String message) throws IOException {
         if(stagedFiles.size() > 0){
-            Commit commit = new Commit(repo_name, message);
+            //the commit comes after the head and after the remote heads brought by the last pull
+            List<String> parents = new ArrayList<>();
+            int generation = 1;
+            if(!commits.isEmpty())
+                parents.add(commits.get(commits.size() - 1).getId());
+            parents.addAll(mergeHeads);
+            for(String parentId : parents){
+                Commit parent = commitIndex.get(parentId);
+                if(parent != null)
+                    generation = Math.max(generation, parent.getGeneration() + 1);
+            }
+            Commit commit = new Commit(repo_name, message, parents, generation);
+            mergeHeads.clear();
             
-            commits.add(commit);
+            appendCommit(commit);
             for(Map.Entry<String, Crate> entry: stagedFiles.entrySet()){
                 String filename = entry.getKey();
                 Crate crate = entry.getValue();
+                touch(filename);
                 //value != null means add, value == null means remove!
                 if(crate != null)
-                    trackedFiles.put(filename, crate);
+                    track(filename, crate);
                 else {
-                    this.deleteFiles(Paths.get(this.getPath(), filename).toFile());
-                    trackedFiles.remove(filename);
+                    this.deleteFiles(resolve(filename).toFile());
+                    untrack(filename);
                 }
                 commit.addFile(filename);
             }
@@ -168,6 +490,7 @@ public class Repository implements Serializable{
      */
     public boolean checkBeforePush() throws IOException {
         List<Commit> commitsNotPushed = this.commitsNotPushed();
+        pushing = commitsNotPushed.size();
         if(!commitsNotPushed.isEmpty()){
             for(Commit commit : commitsNotPushed)
                 commit.updateStatus();
@@ -176,6 +499,16 @@ public class Repository implements Serializable{
         return false;
     }
 
+    /**
+     * Marks again as not pushed the commits marked by the last {@link #checkBeforePush()}, used when
+     * the remote repository refused the push.
+     */
+    public void cancelPush(){
+        for(int i = commits.size() - pushing; i < commits.size(); i++)
+            commits.get(i).resetStatus();
+        pushing = 0;
+    }
+
     /**
      * Donwload files in the current repository from the remote repository passed as argument.
      * This method doesn't fix conflicts, it just finds them and create the file with a different name,
@@ -189,33 +522,83 @@ public class Repository implements Serializable{
      */
     public int update(Repository remoteRepo) throws IOException{
         int result = 0;
+        //contents already in the local storage, the files with these contents are copied from there
+        Map<String, BlobSource> stored = storedContents();
+        //files brought by the pull, only these are written
+        Map<String, Crate> changed = new LinkedHashMap<>();
         for(Map.Entry<String, Crate> entry : remoteRepo.trackedFiles.entrySet()){
             String filename = entry.getKey();
+            //a sparse repository doesn't write the files out of its patterns
+            if(sparse != null && !sparse.matches(filename))
+                continue;
             Crate remoteCrate = entry.getValue();
             Crate localCrate = this.trackedFiles.get(filename);
+            BlobSource source = stored.get(remoteCrate.getId());
+            if(source != null)
+                remoteCrate.attachSource(source);
 
             if(this.trackedFiles.containsKey(filename)){
                 //also check if the content is different, if different the new file will not be tracked
                 //the developer should first resolve the conflict than track the file with git add.
                 if(!localCrate.equals(remoteCrate)){
-                    this.trackedFiles.put(generateNewFilename(filename), remoteCrate);
+                    String newFilename = generateNewFilename(filename);
+                    if(!remoteCrate.equals(trackedFiles.get(newFilename)))
+                        changed.put(newFilename, remoteCrate);
+                    track(newFilename, remoteCrate);
                     result = 2;
                 }
                 //else nothing
             }
             //else just add it in the repository
             else{
-                this.trackedFiles.put(filename, remoteCrate);
+                changed.put(filename, remoteCrate);
+                track(filename, remoteCrate);
                 if(result != 2)
                     result = 1;
             }
         }
-        materialize();
+        //only the files tracked or written by the pull changed their state
+        for(String filename : changed.keySet())
+            touch(filename);
+        for(String filename : materialize(changed))
+            touch(filename);
         this.id = generateId();
-        //update commits
+        //a deeper history of a shallow repository, the older commits go before the local ones
+        if(this.shallow != null && remoteRepo.commitIndex.containsKey(this.shallow)){
+            List<Commit> older = new ArrayList<>();
+            for(Commit commit : remoteRepo.commits){
+                if(commit.getId().equals(this.shallow))
+                    break;
+                older.add(commit);
+            }
+            prependCommits(older);
+            this.shallow = remoteRepo.shallow;
+        }
+        else if(this.commits.isEmpty())
+            this.shallow = remoteRepo.shallow;
+        //update commits, the missing ones keep the order they have in the remote history
+        List<Commit> missing = new ArrayList<>();
         for(Commit commit: remoteRepo.commits){
-            if(!this.commits.contains(commit))
-                this.commits.add(0, commit);
+            if(!this.commitIndex.containsKey(commit.getId()))
+                missing.add(commit);
+        }
+        if(!missing.isEmpty()){
+            String remoteHead = remoteRepo.commits.get(remoteRepo.commits.size() - 1).getId();
+            String localHead = this.commits.isEmpty() ? null : this.commits.get(this.commits.size() - 1).getId();
+            for(Commit commit : missing)
+                commitIndex.put(commit.getId(), commit);
+            if(localHead == null || isAncestor(localHead, remoteHead)){
+                //nothing new here, the remote head becomes the head
+                this.commits.addAll(missing);
+            }
+            else {
+                //both histories have new commits, the local head stays the head and the next commit joins them.
+                //The missing commits go right after the merge base, before the local ones not pushed: every
+                //commit still comes after its parents and the remote history stays a prefix of the local one
+                this.commits.addAll(forkPoint(localHead, remoteHead), missing);
+                if(!mergeHeads.contains(remoteHead))
+                    mergeHeads.add(remoteHead);
+            }
         }
         return result;
     }
@@ -238,6 +621,14 @@ public class Repository implements Serializable{
      * @throws IOException
      */
     public List<String> getUnstagedFiles() throws IOException{
+        if(watcher != null){
+            refresh();
+            return new ArrayList<>(watcher.unstaged);
+        }
+        return scanUnstagedFiles();
+    }
+
+    private List<String> scanUnstagedFiles() throws IOException{
         List<String> names = new ArrayList<String>();
 
         Iterator<Entry<String, Crate>> it = this.trackedFiles.entrySet().iterator();
@@ -245,20 +636,21 @@ public class Repository implements Serializable{
             Entry<String, Crate> entry = it.next();
             String filename = entry.getKey();
             Crate crateInTracked = entry.getValue();
-            Path path = Paths.get(this.getPath(), filename);
+            Path path = resolve(filename);
             File file = new File(path.toString());
 
             if(file.exists()){
-                byte[] contentFileInFS = Files.readAllBytes(path);
+                //only files whose metadata changed are read again
+                String idInFS = index.contentId(path, filename);
                 Crate crateInStaged = this.stagedFiles.get(filename);
                 //The first check is needed because a file staged can be also unstaged,
                 //for example add of a file, then the file is modified, the filename will appear
                 //in staged and unstaged lists.
                 if(crateInStaged != null){
-                    if(!Arrays.equals(crateInStaged.getContent(), contentFileInFS)){
+                    if(!crateInStaged.getId().equals(idInFS)){
                         names.add(filename);
                     }
-                } else if(!Arrays.equals(crateInTracked.getContent(), contentFileInFS)){
+                } else if(!crateInTracked.getId().equals(idInFS)){
                     names.add(filename);
                 }
             }
@@ -289,16 +681,226 @@ public class Repository implements Serializable{
      * @return list of type String with filenames
      */
     public List<String> getUntrackedFiles(){
+        if(watcher != null){
+            try{
+                refresh();
+                return new ArrayList<>(watcher.untracked);
+            } catch(IOException e) {
+                System.err.println(e.getMessage());
+            }
+        }
+        return scanUntrackedFiles();
+    }
+
+    private List<String> scanUntrackedFiles(){
         List<String> names = new ArrayList<String>();
-        File[] files = Paths.get(path).toFile().listFiles();
-        String filename = "";
+        try{
+            walkUntracked(Paths.get(path), stagedDirectories(), names);
+        } catch(IOException e) {
+            System.err.println(e.getMessage());
+        }
+        return names;
+    }
+
+    /**
+     * Walks the working tree looking for the files that are not tracked or staged. A directory
+     * without tracked or staged files below it is listed as a whole, with a / at the end, and
+     * it's not visited.
+     * @param start the directory where the walk starts
+     * @param stagedDirectories the directories of the staged files
+     * @param names where the untracked names are added
+     */
+    private void walkUntracked(Path start, Set<String> stagedDirectories, Collection<String> names) throws IOException {
+        Path root = Paths.get(path);
+        Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path directory, BasicFileAttributes attributes){
+                if(directory.equals(root))
+                    return FileVisitResult.CONTINUE;
+                String name = nameOf(root.relativize(directory));
+                if(tree().isDirectory(name) || stagedDirectories.contains(name))
+                    return FileVisitResult.CONTINUE;
+                names.add(name + MerkleTree.SEPARATOR);
+                return FileVisitResult.SKIP_SUBTREE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes){
+                String name = nameOf(root.relativize(file));
+                if((stagedFiles.get(name) == null) && (trackedFiles.get(name) == null))
+                    names.add(name);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e){
+                System.err.println(e.getMessage());
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
 
-        for(int i = 0; i < files.length; i++){
-            filename = files[i].getName();
-            if((stagedFiles.get(filename) == null) && (trackedFiles.get(filename) == null))
-                names.add(filename);
+    /**
+     * Collects the directories on the paths of the staged files
+     */
+    private Set<String> stagedDirectories(){
+        Set<String> directories = new HashSet<>();
+        for(String filename : stagedFiles.keySet()){
+            for(int i = filename.indexOf(MerkleTree.SEPARATOR); i > 0; i = filename.indexOf(MerkleTree.SEPARATOR, i + 1))
+                directories.add(filename.substring(0, i));
+        }
+        return directories;
+    }
+
+    /**
+     * Brings the unstaged and untracked files kept by the watcher up to date: only the names
+     * changed since the last status are looked at, the whole directory only if events were lost.
+     */
+    private void refresh() throws IOException {
+        Set<String> changes = watcher.changes();
+        try{
+            if(changes == null){
+                watcher.unstaged.clear();
+                watcher.unstaged.addAll(scanUnstagedFiles());
+                watcher.untracked.clear();
+                watcher.untracked.addAll(scanUntrackedFiles());
+                //the files deleted before aren't known, the next id looks for every tracked file
+                watcher.missing = null;
+                return;
+            }
+            Set<String> stagedDirectories = stagedDirectories();
+            for(String filename : changes){
+                //what was known about the name and what's below it is old
+                forget(watcher.unstaged, filename);
+                forget(watcher.untracked, filename);
+                //a directory listed as untracked that now has tracked or staged files is listed again
+                for(int i = filename.indexOf(MerkleTree.SEPARATOR); i > 0; i = filename.indexOf(MerkleTree.SEPARATOR, i + 1)){
+                    String directory = filename.substring(0, i);
+                    if(watcher.untracked.remove(directory + MerkleTree.SEPARATOR) && Files.isDirectory(resolve(directory)))
+                        walkUntracked(resolve(directory), stagedDirectories, watcher.untracked);
+                }
+                Path path = resolve(filename);
+                if(!Files.exists(path, LinkOption.NOFOLLOW_LINKS)){
+                    if(watcher.missing != null)
+                        watcher.missing.add(filename);
+                    continue;
+                }
+                String untrackedDirectory = untrackedDirectory(filename, stagedDirectories);
+                if(untrackedDirectory != null)
+                    watcher.untracked.add(untrackedDirectory);
+                else if(Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)){
+                    for(String tracked : tree().files(filename))
+                        classify(tracked);
+                    walkUntracked(path, stagedDirectories, watcher.untracked);
+                }
+                else
+                    classify(filename);
+            }
+        } catch(IOException e) {
+            //the sets are half updated
+            watcher.invalidate();
+            watcher.missing = null;
+            throw e;
         }
+    }
 
+    /**
+     * Adds the file to the unstaged or untracked files of the watcher, the same checks of a full scan
+     */
+    private void classify(String filename) throws IOException {
+        Path path = resolve(filename);
+        if(!path.toFile().exists())
+            return;
+        Crate crateInTracked = this.trackedFiles.get(filename);
+        Crate crateInStaged = this.stagedFiles.get(filename);
+        if(crateInTracked != null){
+            Crate expected = crateInStaged != null ? crateInStaged : crateInTracked;
+            if(!expected.getId().equals(index.contentId(path, filename)))
+                watcher.unstaged.add(filename);
+        }
+        else if(crateInStaged == null)
+            watcher.untracked.add(filename);
+    }
+
+    /**
+     * Removes the name and the names below it
+     */
+    private static void forget(Set<String> names, String name){
+        names.remove(name);
+        String prefix = name + MerkleTree.SEPARATOR;
+        names.removeIf(other -> other.startsWith(prefix));
+    }
+
+    /**
+     * Finds the outermost directory on the path of the name without tracked or staged files
+     * @return the directory with a / at the end, null if every directory on the path has tracked files
+     */
+    private String untrackedDirectory(String filename, Set<String> stagedDirectories){
+        for(int i = filename.indexOf(MerkleTree.SEPARATOR); i > 0; i = filename.indexOf(MerkleTree.SEPARATOR, i + 1)){
+            String directory = filename.substring(0, i);
+            if(!tree().isDirectory(directory) && !stagedDirectories.contains(directory))
+                return directory + MerkleTree.SEPARATOR;
+        }
+        return null;
+    }
+
+    /**
+     * Path of a file of the repository in the file system
+     */
+    private Path resolve(String filename){
+        return Paths.get(this.getPath(), filename);
+    }
+
+    /**
+     * Name of a file in the repository, its path from the directory of the repository.
+     * A relative path starts from the directory of the repository, a file outside of the
+     * repository is looked for by its name in the directory of the repository.
+     */
+    private String nameOf(File file){
+        Path root = Paths.get(this.getPath());
+        Path target = root.resolve(file.toPath()).normalize();
+        if(target.equals(root))
+            return "";
+        if(!target.startsWith(root))
+            return file.getName();
+        return nameOf(root.relativize(target));
+    }
+
+    /**
+     * Name of a relative path, with / between the directories on every system
+     */
+    private static String nameOf(Path relative){
+        StringBuilder name = new StringBuilder();
+        for(Path segment : relative){
+            if(name.length() > 0)
+                name.append(MerkleTree.SEPARATOR);
+            name.append(segment.toString());
+        }
+        return name.toString();
+    }
+
+    /**
+     * Names of the files to add, the directories are walked and replaced by the files below them
+     */
+    private List<String> expand(List<File> files) throws IOException {
+        List<String> names = new ArrayList<>();
+        Path root = Paths.get(this.getPath());
+        for(File file : files){
+            String name = nameOf(file);
+            Path path = resolve(name);
+            if(!Files.isDirectory(path)){
+                names.add(name);
+                continue;
+            }
+            Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attributes){
+                    if(attributes.isRegularFile())
+                        names.add(nameOf(root.relativize(file)));
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
         return names;
     }
 
@@ -313,26 +915,135 @@ public class Repository implements Serializable{
     }
 
     /**
-     * Creates a representation of the files of the repository in the file system 
-     * after a pull operation. <p>
+     * Reads the files of the repository, many files are read at the same time by the hashers.
+     * The metadata of each file is read before its content, if the file changes while it's read
+     * the index won't match it. Files that don't exist are left null.
+     */
+    private void readFiles(List<String> names, Crate[] crates, BasicFileAttributes[] attributes) throws IOException {
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for(int i = 0; i < names.size(); i++){
+            int position = i;
+            String filename = names.get(i);
+            Path path = resolve(filename);
+            if(path.toFile().isFile())
+                tasks.add(() -> {
+                    attributes[position] = Files.readAttributes(path, BasicFileAttributes.class);
+                    crates[position] = new Crate(path.toFile(), filename);
+                    return null;
+                });
+        }
+        runAll(tasks);
+    }
+
+    /**
+     * Runs tasks on files, on the workers if they are many
+     * @throws IOException the first error of a task
+     */
+    private static void runAll(List<Callable<Void>> tasks) throws IOException {
+        if(tasks.size() < PARALLEL_FILES){
+            for(Callable<Void> task : tasks){
+                try{
+                    task.call();
+                } catch(IOException e) {
+                    throw e;
+                } catch(Exception e) {
+                    throw new IOException(e);
+                }
+            }
+            return;
+        }
+        for(Future<Void> future : WORKERS.invokeAll(tasks)){
+            try{
+                future.get();
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while working on the files...", e);
+            } catch(ExecutionException e) {
+                if(e.getCause() instanceof IOException)
+                    throw (IOException) e.getCause();
+                throw new IOException(e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Tells the watcher that the state of the file in the repository changed
+     */
+    private void touch(String filename){
+        if(watcher != null)
+            watcher.markDirty(filename);
+    }
+
+    void track(String filename, Crate crate){
+        Crate previous = trackedFiles.put(filename, crate);
+        if(previous != null && !previous.getId().equals(crate.getId()))
+            crate.setPrevious(previous);
+        if(tree != null)
+            tree.put(filename, crate.getId());
+    }
+
+    private void untrack(String filename){
+        trackedFiles.remove(filename);
+        index.remove(filename);
+        if(tree != null)
+            tree.remove(filename);
+    }
+
+    /**
+     * Collects the sources of the tracked contents that are kept by the local storage
+     * @return map of the sources by id of the content
+     */
+    Map<String, BlobSource> storedContents(){
+        Map<String, BlobSource> stored = new HashMap<>();
+        for(Crate crate : this.trackedFiles.values()){
+            if(crate.getSource() != null)
+                stored.put(crate.getId(), crate.getSource());
+        }
+        return stored;
+    }
+
+    /**
+     * Creates in the file system the files brought by a pull, the other files are not touched. <p>
      * Conflicts with files that are not tracked by Git are managed creating the file
-     * with a different name.
+     * with a different name. Every file is written in a temporary file and then renamed, so a file
+     * is never seen half written, and many files are written at the same time.
+     * @param changed the files added or changed by the pull
+     * @return the names of the files written, with the names given to the conflicting ones
      * @throws IOException if something went wrong
      */
-    private void materialize() throws IOException{
-        for(Crate crate: this.trackedFiles.values()){
-            Path path = Paths.get(this.getPath(), crate.getName());
+    private Set<String> materialize(Map<String, Crate> changed) throws IOException{
+        List<Callable<Void>> tasks = new ArrayList<>();
+        Set<String> written = new LinkedHashSet<>();
+        for(Crate crate: changed.values()){
+            String filename = crate.getName();
+            Path path = resolve(filename);
+            //the index avoids reading the file if it's known
+            if(path.toFile().exists() && !index.contentId(path, filename).equals(crate.getId()))
+                filename = generateNewFilename(filename);
+            Path target = resolve(filename);
+            if(written.add(filename))
+                tasks.add(() -> {
+                    writeAtomically(target, crate);
+                    return null;
+                });
+        }
+        runAll(tasks);
+        return written;
+    }
 
-            if(this.stagedFiles.get(crate.getName()) != null){
-                if(path.toFile().exists() && !Arrays.equals(Files.readAllBytes(path), crate.getContent()))
-                    path = Paths.get(this.getPath(), generateNewFilename(crate.getName()));
-                Files.write(path, crate.getContent());
-            }
-            else {
-                if(path.toFile().exists() && !Arrays.equals(Files.readAllBytes(path), crate.getContent()))
-                    path = Paths.get(this.getPath(), generateNewFilename(crate.getName()));
-                Files.write(path, crate.getContent());
+    /**
+     * Writes the content of the crate in a temporary file next to the target, then renames it
+     */
+    private static void writeAtomically(Path target, Crate crate) throws IOException {
+        Files.createDirectories(target.getParent());
+        Path temporary = Files.createTempFile(target.getParent(), "." + target.getFileName(), ".tmp");
+        try{
+            try(FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)){
+                crate.writeTo(channel);
             }
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
         }
     }
 
@@ -343,7 +1054,8 @@ public class Repository implements Serializable{
      * @return a string that reppresent the new name of the file
      */
     private String generateNewFilename(String oldFilename){
-        int lastdotIndex = oldFilename.indexOf(".");
+        //only the name of the file changes, not its directory
+        int lastdotIndex = oldFilename.indexOf(".", oldFilename.lastIndexOf(MerkleTree.SEPARATOR) + 1);
         if(lastdotIndex > -1)
             return oldFilename.substring(0, lastdotIndex) + "_(1)" + oldFilename.substring(lastdotIndex);
         else
@@ -355,13 +1067,62 @@ public class Repository implements Serializable{
      * @return a sublist of commits 
      */
     private List<Commit> commitsNotPushed(){
-        int i = 0;
-        for(; i < commits.size(); i++){
-            if(!commits.get(i).getPushed()) break;
-        }
+        //commits not pushed are always the last ones, only they are visited
+        int i = commits.size();
+        while(i > 0 && !commits.get(i - 1).getPushed())
+            i--;
         return commits.subList(i, commits.size());
     }
 
+    /**
+     * Position where the commits of another head are inserted in the history: after the merge base
+     * of the two heads, if it's not in the history (a shallow one) before the commits not pushed
+     */
+    private int forkPoint(String localHead, String remoteHead){
+        Commit base = mergeBase(localHead, remoteHead);
+        if(base != null){
+            for(int i = commits.size() - 1; i >= 0; i--){
+                if(commits.get(i).getId().equals(base.getId()))
+                    return i + 1;
+            }
+        }
+        return commits.size() - commitsNotPushed().size();
+    }
+
+    /**
+     * Adds a commit at the end of the history, it becomes the head
+     */
+    void appendCommit(Commit commit){
+        commits.add(commit);
+        commitIndex.put(commit.getId(), commit);
+    }
+
+    /**
+     * Adds older commits at the start of the history, the ones already in the history are skipped
+     */
+    void prependCommits(List<Commit> older){
+        List<Commit> missing = new ArrayList<>(older.size());
+        for(Commit commit : older){
+            if(commitIndex.putIfAbsent(commit.getId(), commit) == null)
+                missing.add(commit);
+        }
+        commits.addAll(0, missing);
+    }
+
+    /**
+     * Cuts the oldest commits of the history, the history becomes shallow
+     * @param count number of commits to remove
+     */
+    void dropCommits(int count){
+        if(count <= 0 || count >= commits.size())
+            return;
+        List<Commit> dropped = commits.subList(0, count);
+        for(Commit commit : dropped)
+            commitIndex.remove(commit.getId());
+        dropped.clear();
+        shallow = commits.get(0).getId();
+    }
+
     /**
      * Recursion delete files and dirs
      * @param file
@@ -0,0 +1,644 @@
+package com.unisa.git.repository;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Compact binary format used to send repositories over the network, it replaces the Java
+ * serialization: no class descriptors, lengths are varints, ids are written as raw bytes
+ * and contents as length-prefixed blobs. <p>
+ * Layout of a payload: <br>
+ * {@code magic(4) version(1) name path id tracked staged commits} <br>
+ * where maps and lists start with their size, a crate is {@code name id content} and a commit is
+ * {@code repository message date id pushed files}. The version is checked when decoding, so the
+ * format can change without misreading payloads written by older peers. <p>
+ * Version 2 adds the commit graph: every commit ends with {@code parents generation} and the
+ * payload ends with the merge heads. A repository without parents is still written as version 1,
+ * so it's readable by peers that know only that version. Version 3 is version 2 followed by the id of
+ * the oldest commit of a shallow history, it's written only by a shallow repository. Version 4 adds to
+ * version 3 the patterns of a sparse repository, {@code includes excludes}, the id is none if the
+ * history is whole. <p>
+ * The history of a repository can be split in pages, see {@link History}: a page is
+ * {@code magic(4) version(1) commits} with the commits as in version 2, and the list of the pages
+ * is {@code magic(4) version(1) ids}. <p>
+ * A {@link Ref} has its own magic: {@code magic(4) version(1) head repository sequence}. <p>
+ * A tree object lists a directory of the {@link MerkleTree}: {@code magic(4) version(1) entries}
+ * where an entry is {@code kind name id}, the id being the one of the content of a file or the
+ * hash of a directory. <p>
+ * The index of the working directory is local to a peer and it's encoded apart:
+ * {@code magic(4) version(1) entries} where an entry is {@code name size modified fileKey id}.
+ */
+public final class RepositoryCodec {
+    static final byte[] MAGIC = {'G', 'I', 'T', 'P'};
+    static final byte[] REF_MAGIC = {'G', 'I', 'T', 'R'};
+    static final byte[] INDEX_MAGIC = {'G', 'I', 'T', 'I'};
+    static final byte[] TREE_MAGIC = {'G', 'I', 'T', 'T'};
+    static final byte[] PAGE_MAGIC = {'G', 'I', 'T', 'H'};
+    static final byte[] PAGES_MAGIC = {'G', 'I', 'T', 'L'};
+    static final int VERSION = 1;
+    //repositories whose commits have parents
+    static final int GRAPH_VERSION = 2;
+    //repositories with a shallow history
+    static final int SHALLOW_VERSION = 3;
+    //sparse repositories
+    static final int SPARSE_VERSION = 4;
+
+    //kinds of id
+    private static final int ID_NONE = 0;
+    private static final int ID_UUID = 1;
+    private static final int ID_HEX = 2;
+
+    //presence of a crate or of its content
+    private static final int ABSENT = 0;
+    private static final int PRESENT = 1;
+
+    //kinds of entry of a tree object
+    private static final int ENTRY_FILE = 0;
+    private static final int ENTRY_DIRECTORY = 1;
+
+    private RepositoryCodec(){}
+
+    /**
+     * Encodes a repository
+     * @param repository the repository to encode
+     * @param withContent true to write the content of the crates, false to write only the metadata
+     * @return the encoded repository
+     */
+    public static byte[] encode(Repository repository, boolean withContent){
+        return encode(repository, withContent, true);
+    }
+
+    /**
+     * Encodes a repository, optionally without its tracked files: a remote storage that keeps the
+     * tree objects of the repository rebuilds them from the tree, see {@link TreeSync}
+     * @param repository the repository to encode
+     * @param withContent true to write the content of the crates, false to write only the metadata
+     * @param withFiles false to leave out the tracked files, they are decoded as none
+     * @return the encoded repository
+     */
+    public static byte[] encode(Repository repository, boolean withContent, boolean withFiles){
+        return encode(repository, withContent, withFiles, 0);
+    }
+
+    /**
+     * Encodes a repository leaving out the first commits, they are stored apart in the pages of a {@link History}
+     * @param firstCommit position of the first commit written
+     */
+    static byte[] encode(Repository repository, boolean withContent, boolean withFiles, int firstCommit){
+        boolean sparse = repository.sparse != null;
+        boolean shallow = sparse || repository.shallow != null;
+        boolean graph = shallow || hasGraph(repository);
+        Writer out = new Writer();
+        out.bytes(MAGIC);
+        out.varint(sparse ? SPARSE_VERSION : shallow ? SHALLOW_VERSION : graph ? GRAPH_VERSION : VERSION);
+        out.string(repository.name);
+        out.string(repository.path);
+        out.id(repository.id);
+
+        out.varint(withFiles ? repository.trackedFiles.size() : 0);
+        for(Map.Entry<String, Crate> entry : withFiles ? repository.trackedFiles.entrySet() : Collections.<Map.Entry<String, Crate>>emptySet()){
+            out.string(entry.getKey());
+            writeCrate(out, entry.getValue(), withContent);
+        }
+        //a staged file without crate means it will be removed
+        out.varint(repository.stagedFiles.size());
+        for(Map.Entry<String, Crate> entry : repository.stagedFiles.entrySet()){
+            out.string(entry.getKey());
+            if(entry.getValue() != null){
+                out.varint(PRESENT);
+                writeCrate(out, entry.getValue(), withContent);
+            }
+            else out.varint(ABSENT);
+        }
+
+        List<Commit> commits = repository.commits.subList(firstCommit, repository.commits.size());
+        out.varint(commits.size());
+        for(Commit commit : commits)
+            writeCommit(out, commit, graph);
+        if(graph){
+            out.varint(repository.mergeHeads.size());
+            for(String head : repository.mergeHeads)
+                out.id(head);
+        }
+        if(shallow)
+            out.id(repository.shallow == null ? "null" : repository.shallow);
+        if(sparse){
+            out.varint(repository.sparse.getIncludes().size());
+            for(String pattern : repository.sparse.getIncludes())
+                out.string(pattern);
+            out.varint(repository.sparse.getExcludes().size());
+            for(String pattern : repository.sparse.getExcludes())
+                out.string(pattern);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes a repository, crates encoded without content have a null content.
+     * @param payload bytes written by {@link #encode(Repository, boolean)}
+     * @return the decoded repository
+     * @throws IOException if the payload is malformed or has an unknown version
+     */
+    public static Repository decode(byte[] payload) throws IOException {
+        try{
+            Reader in = new Reader(payload);
+            for(byte b : MAGIC){
+                if(in.buffer.get() != b)
+                    throw new IOException("Not a repository payload...");
+            }
+            int version = in.varint();
+            if(version < VERSION || version > SPARSE_VERSION)
+                throw new IOException("Unsupported repository payload version " + version + "...");
+            boolean graph = version != VERSION;
+
+            Repository repository = new Repository(in.string(), in.string(), in.id());
+
+            int tracked = in.varint();
+            for(int i = 0; i < tracked; i++)
+                repository.trackedFiles.put(in.string(), readCrate(in));
+            int staged = in.varint();
+            for(int i = 0; i < staged; i++){
+                String filename = in.string();
+                repository.stagedFiles.put(filename, in.varint() == PRESENT ? readCrate(in) : null);
+            }
+
+            int commits = in.varint();
+            for(int i = 0; i < commits; i++)
+                repository.appendCommit(readCommit(in, graph));
+            if(graph){
+                int heads = in.varint();
+                for(int i = 0; i < heads; i++)
+                    repository.mergeHeads.add(in.id());
+            }
+            if(version >= SHALLOW_VERSION){
+                String shallow = in.id();
+                repository.shallow = shallow.equals("null") ? null : shallow;
+            }
+            if(version == SPARSE_VERSION){
+                List<String> includes = new ArrayList<>();
+                int count = in.varint();
+                for(int i = 0; i < count; i++)
+                    includes.add(in.string());
+                List<String> excludes = new ArrayList<>();
+                count = in.varint();
+                for(int i = 0; i < count; i++)
+                    excludes.add(in.string());
+                repository.sparse = new SparsePatterns(includes, excludes);
+            }
+
+            if(in.buffer.hasRemaining())
+                throw new IOException("Trailing bytes in repository payload...");
+            return repository;
+        } catch(BufferUnderflowException | IllegalArgumentException | DateTimeParseException e) {
+            throw new IOException("Malformed repository payload...", e);
+        }
+    }
+
+    /**
+     * Encodes the ref of a repository
+     * @param ref the ref to encode
+     * @return the encoded ref, a few tens of bytes
+     */
+    public static byte[] encodeRef(Ref ref){
+        Writer out = new Writer();
+        out.bytes(REF_MAGIC);
+        out.varint(VERSION);
+        out.id(ref.getHead());
+        out.id(ref.getRepositoryId());
+        out.varint(ref.getSequence());
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes the ref of a repository
+     * @param payload bytes written by {@link #encodeRef(Ref)}
+     * @return the decoded ref
+     * @throws IOException if the payload is malformed or has an unknown version
+     */
+    public static Ref decodeRef(byte[] payload) throws IOException {
+        try{
+            Reader in = new Reader(payload);
+            for(byte b : REF_MAGIC){
+                if(in.buffer.get() != b)
+                    throw new IOException("Not a ref payload...");
+            }
+            int version = in.varint();
+            if(version != VERSION)
+                throw new IOException("Unsupported ref payload version " + version + "...");
+            Ref ref = new Ref(in.id(), in.id(), in.varlong());
+            if(in.buffer.hasRemaining())
+                throw new IOException("Trailing bytes in ref payload...");
+            return ref;
+        } catch(BufferUnderflowException e) {
+            throw new IOException("Malformed ref payload...", e);
+        }
+    }
+
+    /**
+     * Encodes the index of the working directory of a repository, it's never sent over the network
+     * @param repository the repository owning the index
+     * @return the encoded index
+     */
+    public static byte[] encodeIndex(Repository repository){
+        Writer out = new Writer();
+        out.bytes(INDEX_MAGIC);
+        out.varint(VERSION);
+        out.varint(repository.index.entries.size());
+        for(Map.Entry<String, StatIndex.Entry> entry : repository.index.entries.entrySet()){
+            out.string(entry.getKey());
+            out.varint(entry.getValue().size);
+            out.zigzag(entry.getValue().modified);
+            out.string(entry.getValue().fileKey);
+            out.id(entry.getValue().id);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes the index of the working directory and gives it to the repository
+     * @param repository the repository owning the index
+     * @param payload bytes written by {@link #encodeIndex(Repository)}
+     * @throws IOException if the payload is malformed or has an unknown version
+     */
+    public static void decodeIndex(Repository repository, byte[] payload) throws IOException {
+        try{
+            Reader in = new Reader(payload);
+            for(byte b : INDEX_MAGIC){
+                if(in.buffer.get() != b)
+                    throw new IOException("Not an index payload...");
+            }
+            int version = in.varint();
+            if(version != VERSION)
+                throw new IOException("Unsupported index payload version " + version + "...");
+            StatIndex index = new StatIndex();
+            int entries = in.varint();
+            for(int i = 0; i < entries; i++)
+                index.entries.put(in.string(), new StatIndex.Entry(in.varlong(), in.zigzag(), in.string(), in.id()));
+            if(in.buffer.hasRemaining())
+                throw new IOException("Trailing bytes in index payload...");
+            repository.index = index;
+        } catch(BufferUnderflowException e) {
+            throw new IOException("Malformed index payload...", e);
+        }
+    }
+
+    /**
+     * Encodes a page of the history of a repository
+     * @param commits the commits of the page, in order of history
+     * @return the encoded page
+     */
+    static byte[] encodePage(List<Commit> commits){
+        Writer out = new Writer();
+        out.bytes(PAGE_MAGIC);
+        out.varint(VERSION);
+        out.varint(commits.size());
+        for(Commit commit : commits)
+            writeCommit(out, commit, true);
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes a page of the history of a repository
+     * @param payload bytes written by {@link #encodePage(List)}
+     * @return the commits of the page
+     * @throws IOException if the payload is malformed or has an unknown version
+     */
+    static List<Commit> decodePage(byte[] payload) throws IOException {
+        try{
+            Reader in = new Reader(payload);
+            for(byte b : PAGE_MAGIC){
+                if(in.buffer.get() != b)
+                    throw new IOException("Not a page payload...");
+            }
+            int version = in.varint();
+            if(version != VERSION)
+                throw new IOException("Unsupported page payload version " + version + "...");
+            int count = in.varint();
+            List<Commit> commits = new ArrayList<>(Math.min(count, in.buffer.remaining()));
+            for(int i = 0; i < count; i++)
+                commits.add(readCommit(in, true));
+            if(in.buffer.hasRemaining())
+                throw new IOException("Trailing bytes in page payload...");
+            return commits;
+        } catch(BufferUnderflowException | IllegalArgumentException | DateTimeParseException e) {
+            throw new IOException("Malformed page payload...", e);
+        }
+    }
+
+    /**
+     * Encodes the list of the pages of a history
+     * @param ids the ids of the pages, from the oldest
+     * @return the encoded list
+     */
+    static byte[] encodePages(List<String> ids){
+        Writer out = new Writer();
+        out.bytes(PAGES_MAGIC);
+        out.varint(VERSION);
+        out.varint(ids.size());
+        for(String id : ids)
+            out.id(id);
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes the list of the pages of a history
+     * @param payload bytes written by {@link #encodePages(List)}
+     * @return the ids of the pages, from the oldest
+     * @throws IOException if the payload is malformed or has an unknown version
+     */
+    static List<String> decodePages(byte[] payload) throws IOException {
+        try{
+            Reader in = new Reader(payload);
+            for(byte b : PAGES_MAGIC){
+                if(in.buffer.get() != b)
+                    throw new IOException("Not a pages payload...");
+            }
+            int version = in.varint();
+            if(version != VERSION)
+                throw new IOException("Unsupported pages payload version " + version + "...");
+            int count = in.varint();
+            List<String> ids = new ArrayList<>(Math.min(count, in.buffer.remaining()));
+            for(int i = 0; i < count; i++)
+                ids.add(in.id());
+            if(in.buffer.hasRemaining())
+                throw new IOException("Trailing bytes in pages payload...");
+            return ids;
+        } catch(BufferUnderflowException e) {
+            throw new IOException("Malformed pages payload...", e);
+        }
+    }
+
+    /**
+     * Encodes a tree object
+     * @param entries the entries of the directory, in order of name
+     * @return the encoded tree object
+     */
+    static byte[] encodeTree(List<MerkleTree.Entry> entries){
+        Writer out = new Writer();
+        out.bytes(TREE_MAGIC);
+        out.varint(VERSION);
+        out.varint(entries.size());
+        for(MerkleTree.Entry entry : entries){
+            out.varint(entry.directory ? ENTRY_DIRECTORY : ENTRY_FILE);
+            out.string(entry.name);
+            out.id(entry.id);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes a tree object
+     * @param payload bytes written by {@link #encodeTree(List)}
+     * @return the entries of the directory
+     * @throws IOException if the payload is malformed or has an unknown version
+     */
+    static List<MerkleTree.Entry> decodeTree(byte[] payload) throws IOException {
+        try{
+            Reader in = new Reader(payload);
+            for(byte b : TREE_MAGIC){
+                if(in.buffer.get() != b)
+                    throw new IOException("Not a tree payload...");
+            }
+            int version = in.varint();
+            if(version != VERSION)
+                throw new IOException("Unsupported tree payload version " + version + "...");
+            int count = in.varint();
+            List<MerkleTree.Entry> entries = new ArrayList<>(Math.min(count, in.buffer.remaining()));
+            for(int i = 0; i < count; i++){
+                boolean directory = in.varint() == ENTRY_DIRECTORY;
+                String name = in.string();
+                String id = in.id();
+                if(name.isEmpty() || name.equals(".") || name.equals("..") || name.indexOf(MerkleTree.SEPARATOR) >= 0 || (directory ? id.length() != 64 || !isHex(id) : "null".equals(id)))
+                    throw new IOException("Malformed tree entry...");
+                entries.add(new MerkleTree.Entry(name, directory, id));
+            }
+            if(in.buffer.hasRemaining())
+                throw new IOException("Trailing bytes in tree payload...");
+            return entries;
+        } catch(BufferUnderflowException e) {
+            throw new IOException("Malformed tree payload...", e);
+        }
+    }
+
+    /**
+     * Version 1 is enough if no commit has parents
+     */
+    private static boolean hasGraph(Repository repository){
+        if(!repository.mergeHeads.isEmpty())
+            return true;
+        for(Commit commit : repository.commits){
+            if(!commit.getParents().isEmpty() || commit.getGeneration() != 1)
+                return true;
+        }
+        return false;
+    }
+
+    private static void writeCommit(Writer out, Commit commit, boolean graph){
+        out.string(commit.getRepositoryName());
+        out.string(commit.getMessage());
+        out.zigzag(LocalDate.parse(commit.getDate()).toEpochDay());
+        out.id(commit.getId());
+        out.varint(commit.getPushed() ? 1 : 0);
+        out.varint(commit.getFileNames().size());
+        for(String filename : commit.getFileNames())
+            out.string(filename);
+        if(graph){
+            out.varint(commit.getParents().size());
+            for(String parent : commit.getParents())
+                out.id(parent);
+            out.varint(commit.getGeneration());
+        }
+    }
+
+    private static Commit readCommit(Reader in, boolean graph) throws IOException {
+        String repo = in.string();
+        String message = in.string();
+        String date = LocalDate.ofEpochDay(in.zigzag()).toString();
+        String id = in.id();
+        boolean pushed = in.varint() == 1;
+        int files = in.varint();
+        ArrayList<String> names = new ArrayList<>(Math.min(files, in.buffer.remaining()));
+        for(int j = 0; j < files; j++)
+            names.add(in.string());
+        if(graph){
+            int count = in.varint();
+            List<String> parents = new ArrayList<>(Math.min(count, in.buffer.remaining()));
+            for(int j = 0; j < count; j++)
+                parents.add(in.id());
+            return new Commit(repo, message, date, id, pushed, names, parents, in.varint());
+        }
+        return new Commit(repo, message, date, id, pushed, names);
+    }
+
+    private static void writeCrate(Writer out, Crate crate, boolean withContent){
+        out.string(crate.getName());
+        out.id(crate.getId());
+        byte[] content = withContent ? crate.getContent() : null;
+        if(content != null){
+            out.varint(PRESENT);
+            out.varint(content.length);
+            out.bytes(content);
+        }
+        else out.varint(ABSENT);
+    }
+
+    private static Crate readCrate(Reader in) throws IOException {
+        String name = in.string();
+        String id = in.id();
+        byte[] content = in.varint() == PRESENT ? in.bytes(in.varint()) : null;
+        return new Crate(name, id, content);
+    }
+
+    /**
+     * Writes the primitive values of the format
+     */
+    static class Writer {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        void bytes(byte[] bytes){
+            out.write(bytes, 0, bytes.length);
+        }
+
+        /**
+         * Unsigned LEB128, 7 bits for each byte, the high bit tells if another byte follows
+         */
+        void varint(long value){
+            while((value & ~0x7FL) != 0){
+                out.write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            out.write((int) value);
+        }
+
+        /**
+         * Signed values are zigzag encoded so small negative numbers stay short
+         */
+        void zigzag(long value){
+            varint((value << 1) ^ (value >> 63));
+        }
+
+        void string(String value){
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            varint(bytes.length);
+            bytes(bytes);
+        }
+
+        /**
+         * Ids are UUIDs or hex digests, both are written as raw bytes (16 bytes for a UUID),
+         * anything else (like the "null" id of a new repository) as no id at all.
+         */
+        void id(String value){
+            if(isUuid(value)){
+                UUID uuid = UUID.fromString(value);
+                varint(ID_UUID);
+                ByteBuffer buffer = ByteBuffer.allocate(16);
+                buffer.putLong(uuid.getMostSignificantBits()).putLong(uuid.getLeastSignificantBits());
+                bytes(buffer.array());
+            }
+            else if(isHex(value)){
+                varint(ID_HEX);
+                varint(value.length() / 2);
+                for(int i = 0; i < value.length(); i += 2)
+                    out.write(Integer.parseInt(value.substring(i, i + 2), 16));
+            }
+            else varint(ID_NONE);
+        }
+
+        byte[] toByteArray(){
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * Reads the primitive values of the format, every length is checked against the bytes left.
+     */
+    static class Reader {
+        final ByteBuffer buffer;
+
+        Reader(byte[] payload){
+            this.buffer = ByteBuffer.wrap(payload);
+        }
+
+        long varlong() throws IOException {
+            long value = 0;
+            for(int shift = 0; shift < 64; shift += 7){
+                byte b = buffer.get();
+                value |= (long) (b & 0x7F) << shift;
+                if((b & 0x80) == 0)
+                    return value;
+            }
+            throw new IOException("Varint too long...");
+        }
+
+        int varint() throws IOException {
+            long value = varlong();
+            if(value < 0 || value > Integer.MAX_VALUE)
+                throw new IOException("Varint out of range...");
+            return (int) value;
+        }
+
+        long zigzag() throws IOException {
+            long value = varlong();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        byte[] bytes(int length) throws IOException {
+            if(length > buffer.remaining())
+                throw new IOException("Length exceeds the payload...");
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            return bytes;
+        }
+
+        String string() throws IOException {
+            return new String(bytes(varint()), StandardCharsets.UTF_8);
+        }
+
+        String id() throws IOException {
+            switch(varint()){
+                case ID_NONE:
+                    return "null";
+                case ID_UUID:
+                    return new UUID(buffer.getLong(), buffer.getLong()).toString();
+                case ID_HEX:
+                    StringBuilder hex = new StringBuilder();
+                    for(byte b : bytes(varint()))
+                        hex.append(String.format("%02x", b));
+                    return hex.toString();
+                default:
+                    throw new IOException("Unknown kind of id...");
+            }
+        }
+    }
+
+    private static boolean isUuid(String value){
+        if(value.length() != 36)
+            return false;
+        try{
+            //fromString is lenient, the round trip guarantees the same string is decoded
+            return UUID.fromString(value).toString().equals(value);
+        } catch(IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private static boolean isHex(String value){
+        if(value.isEmpty() || value.length() % 2 != 0)
+            return false;
+        for(char c : value.toCharArray()){
+            if(Character.digit(c, 16) < 0 || Character.isUpperCase(c))
+                return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,105 @@
+package com.unisa.git.repository;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The files of a sparse repository, the ones a pull downloads and writes. <p>
+ * Patterns are globs matched against the path of a file from the directory of the repository,
+ * {@code *} doesn't cross directories while {@code **} does, and a pattern ending with / stands for
+ * everything below the directory. A file is part of the repository if it matches an include pattern,
+ * or there are none, and it doesn't match any exclude pattern.
+ */
+public final class SparsePatterns {
+    private final List<String> includes;
+    private final List<String> excludes;
+    private final List<PathMatcher> includeMatchers = new ArrayList<>();
+    private final List<PathMatcher> excludeMatchers = new ArrayList<>();
+
+    /**
+     * @param includes patterns of the files to pull, empty for every file
+     * @param excludes patterns of the files to leave out
+     * @throws IllegalArgumentException if a pattern isn't a valid glob
+     */
+    public SparsePatterns(List<String> includes, List<String> excludes){
+        this.includes = Collections.unmodifiableList(new ArrayList<>(includes));
+        this.excludes = Collections.unmodifiableList(new ArrayList<>(excludes));
+        for(String pattern : includes)
+            includeMatchers.add(matcher(pattern));
+        for(String pattern : excludes)
+            excludeMatchers.add(matcher(pattern));
+    }
+
+    /**
+     * Builds the patterns of a sparse repository
+     * @return the patterns, null if there are none and the whole repository is pulled
+     * @throws IllegalArgumentException if a pattern isn't a valid glob
+     */
+    public static SparsePatterns of(List<String> includes, List<String> excludes){
+        if(includes.isEmpty() && excludes.isEmpty())
+            return null;
+        return new SparsePatterns(includes, excludes);
+    }
+
+    public List<String> getIncludes(){
+        return includes;
+    }
+
+    public List<String> getExcludes(){
+        return excludes;
+    }
+
+    /**
+     * Checks if a file is part of the sparse repository
+     * @param name path of the file from the directory of the repository
+     * @return true if the file is pulled
+     */
+    public boolean matches(String name){
+        Path path = Paths.get(name);
+        boolean included = includeMatchers.isEmpty();
+        for(PathMatcher matcher : includeMatchers){
+            if(matcher.matches(path)){
+                included = true;
+                break;
+            }
+        }
+        if(!included)
+            return false;
+        for(PathMatcher matcher : excludeMatchers){
+            if(matcher.matches(path))
+                return false;
+        }
+        return true;
+    }
+
+    private static PathMatcher matcher(String pattern){
+        if(pattern.isEmpty())
+            throw new IllegalArgumentException("Empty pattern...");
+        if(pattern.charAt(pattern.length() - 1) == MerkleTree.SEPARATOR)
+            pattern += "**";
+        return FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+    }
+
+    @Override
+    public boolean equals(Object object){
+        if(!(object instanceof SparsePatterns))
+            return false;
+        SparsePatterns other = (SparsePatterns) object;
+        return includes.equals(other.includes) && excludes.equals(other.excludes);
+    }
+
+    @Override
+    public int hashCode(){
+        return 31 * includes.hashCode() + excludes.hashCode();
+    }
+
+    @Override
+    public String toString(){
+        return "include " + includes + " exclude " + excludes;
+    }
+}
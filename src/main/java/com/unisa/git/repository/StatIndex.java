@@ -0,0 +1,107 @@
+package com.unisa.git.repository;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cache of the metadata of the files in the working directory, like the index of Git. <p>
+ * For each file it records size, last modified time and file key (the inode, where the file system
+ * has one) together with the id of the content read at that moment. While the metadata doesn't
+ * change the content is assumed unchanged, so the status of the repository reads only the files
+ * that were touched. A file modified less than {@link #RACY_WINDOW} before being recorded isn't
+ * cached: it could be modified again without changing its modified time.
+ */
+final class StatIndex {
+    static final long RACY_WINDOW = TimeUnit.SECONDS.toNanos(2);
+
+    //read by the RepositoryCodec
+    final HashMap<String, Entry> entries = new HashMap<>();
+    //true if an entry was recorded or removed since the last check, see {@link #takeChanged()}
+    private boolean changed;
+
+    /**
+     * Metadata of a file and id of its content
+     */
+    static class Entry {
+        final long size;
+        final long modified;
+        final String fileKey;
+        final String id;
+
+        Entry(long size, long modified, String fileKey, String id){
+            this.size = size;
+            this.modified = modified;
+            this.fileKey = fileKey;
+            this.id = id;
+        }
+
+        private boolean matches(BasicFileAttributes attributes){
+            return size == attributes.size() && modified == modifiedOf(attributes) && fileKey.equals(fileKeyOf(attributes));
+        }
+
+        private boolean sameAs(Entry other){
+            return other != null && size == other.size && modified == other.modified && fileKey.equals(other.fileKey) && id.equals(other.id);
+        }
+    }
+
+    /**
+     * Returns the id of the content of the file, the file is read only if its metadata changed
+     * since it was recorded.
+     * @param path path of the file
+     * @param filename name of the file in the repository
+     * @return the id of the content, the same id of a {@link Crate} with that content
+     * @throws IOException if the file can't be read
+     */
+    String contentId(Path path, String filename) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        Entry entry = entries.get(filename);
+        if(entry != null && entry.matches(attributes))
+            return entry.id;
+        String id = ContentHasher.hash(path);
+        record(filename, attributes, id);
+        return id;
+    }
+
+    /**
+     * Records the metadata of a file
+     * @param filename name of the file in the repository
+     * @param attributes metadata read before reading the content
+     * @param id id of the content
+     */
+    void record(String filename, BasicFileAttributes attributes, String id){
+        if(System.currentTimeMillis() * 1000000L - modifiedOf(attributes) < RACY_WINDOW){
+            remove(filename);
+            return;
+        }
+        Entry entry = new Entry(attributes.size(), modifiedOf(attributes), fileKeyOf(attributes), id);
+        if(!entry.sameAs(entries.put(filename, entry)))
+            changed = true;
+    }
+
+    void remove(String filename){
+        if(entries.remove(filename) != null)
+            changed = true;
+    }
+
+    /**
+     * Tells if entries were recorded or removed since the last call, so the index must be saved
+     */
+    boolean takeChanged(){
+        boolean result = changed;
+        changed = false;
+        return result;
+    }
+
+    private static long modifiedOf(BasicFileAttributes attributes){
+        return attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+    }
+
+    private static String fileKeyOf(BasicFileAttributes attributes){
+        Object fileKey = attributes.fileKey();
+        return fileKey == null ? "" : fileKey.toString();
+    }
+}
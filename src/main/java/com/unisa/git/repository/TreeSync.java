@@ -0,0 +1,194 @@
+package com.unisa.git.repository;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Synchronization of a repository with a remote storage through the directories of its
+ * {@link MerkleTree}. <p>
+ * A push stores a tree object for each directory under the first 128 bits of its hash, so the
+ * tree object of the root is stored under the id of the repository. The directories are checked
+ * from the root and the subdirectories are stored before their directory: a directory already
+ * stored has everything below it stored, so only the directories changed since the last push are
+ * uploaded. <p>
+ * A pull compares the remote tree with the local one from the root: a directory with the same hash
+ * is skipped with everything below it, the others are downloaded and their entries compared. So
+ * only the tree objects on the paths of the changed files are downloaded, the directories of each
+ * level together, and the files to download are known before any content is.
+ */
+public final class TreeSync {
+    //hex digits of the key of a tree object
+    private static final int KEY_LENGTH = 32;
+
+    private TreeSync(){}
+
+    /**
+     * The remote files that differ from the local ones
+     */
+    public static final class Difference {
+        private final List<Crate> crates;
+        private final List<Crate> missing;
+        private final int trees;
+
+        private Difference(List<Crate> crates, List<Crate> missing, int trees){
+            this.crates = crates;
+            this.missing = missing;
+            this.trees = trees;
+        }
+
+        /**
+         * Remote files that are not tracked locally with the same content, in order of name
+         * @return the crates of the files, without content
+         */
+        public List<Crate> getCrates(){
+            return crates;
+        }
+
+        /**
+         * The files among {@link #getCrates()} whose content isn't kept by the local storage,
+         * only these contents must be downloaded
+         * @return the crates of the files, without content
+         */
+        public List<Crate> getMissing(){
+            return missing;
+        }
+
+        /**
+         * Number of tree objects downloaded to find the difference
+         */
+        public int getTrees(){
+            return trees;
+        }
+    }
+
+    /**
+     * Stores the tree objects of the repository that the remote storage doesn't hold yet
+     * @param repository the repository to push
+     * @param contains tells if the tree object with the key is stored
+     * @param put stores the encoded tree object under the key
+     * @return a future completed when the tree object of the root is stored
+     */
+    public static CompletableFuture<Void> store(Repository repository, Function<String, CompletableFuture<Boolean>> contains,
+            BiFunction<String, byte[], CompletableFuture<Void>> put){
+        //listed now, the repository could change while the tree objects are uploaded
+        Map<String, List<MerkleTree.Entry>> directories = repository.tree().directories();
+        return store(repository.tree().hash(""), directories, contains, put, new ConcurrentHashMap<>());
+    }
+
+    private static CompletableFuture<Void> store(String hash, Map<String, List<MerkleTree.Entry>> directories,
+            Function<String, CompletableFuture<Boolean>> contains, BiFunction<String, byte[], CompletableFuture<Void>> put,
+            Map<String, CompletableFuture<Void>> visits){
+        //two directories with the same files are the same tree object
+        CompletableFuture<Void> visit = new CompletableFuture<>();
+        CompletableFuture<Void> previous = visits.putIfAbsent(hash, visit);
+        if(previous != null)
+            return previous;
+        String key = hash.substring(0, KEY_LENGTH);
+        contains.apply(key).thenCompose(present -> {
+            if(present)
+                return CompletableFuture.completedFuture((Void) null);
+            List<MerkleTree.Entry> entries = directories.get(hash);
+            List<CompletableFuture<Void>> children = new ArrayList<>();
+            for(MerkleTree.Entry entry : entries){
+                if(entry.directory)
+                    children.add(store(entry.id, directories, contains, put, visits));
+            }
+            return CompletableFuture.allOf(children.toArray(new CompletableFuture<?>[0]))
+                    .thenCompose(v -> put.apply(key, RepositoryCodec.encodeTree(entries)));
+        }).whenComplete((v, e) -> {
+            if(e != null)
+                visit.completeExceptionally(e);
+            else
+                visit.complete(null);
+        });
+        return visit;
+    }
+
+    /**
+     * Compares a remote tree with the tree of the local repository, every tree object downloaded
+     * is checked against the hash it was requested with.
+     * @param local the local repository, null to list every remote file; the files out of the
+     * patterns of a sparse repository are left out
+     * @param root id of the remote repository, the key of the tree object of its root
+     * @param fetch downloads the encoded tree object with the key, null if it's missing
+     * @return a future completed with the difference, it fails if a tree object is missing or wrong
+     */
+    public static CompletableFuture<Difference> diff(Repository local, String root, Function<String, CompletableFuture<byte[]>> fetch){
+        MerkleTree tree = local == null ? null : local.tree();
+        //computed now, the comparisons only read the local tree while the downloads complete
+        if(tree != null)
+            tree.hash("");
+        Map<String, Crate> tracked = local == null ? Collections.<String, Crate>emptyMap() : local.trackedFiles;
+        SparsePatterns sparse = local == null ? null : local.sparse;
+        Set<String> stored = local == null ? Collections.<String>emptySet() : local.storedContents().keySet();
+        Queue<Crate> crates = new ConcurrentLinkedQueue<>();
+        AtomicInteger trees = new AtomicInteger();
+        return compare("", root, tree, tracked, sparse, fetch, crates, trees).thenApply(v -> {
+            List<Crate> sorted = new ArrayList<>(crates);
+            sorted.sort(Comparator.comparing(Crate::getName));
+            List<Crate> missing = new ArrayList<>();
+            for(Crate crate : sorted){
+                if(!stored.contains(crate.getId()))
+                    missing.add(crate);
+            }
+            return new Difference(sorted, missing, trees.get());
+        });
+    }
+
+    private static CompletableFuture<Void> compare(String path, String hash, MerkleTree tree, Map<String, Crate> tracked,
+            SparsePatterns sparse, Function<String, CompletableFuture<byte[]>> fetch, Queue<Crate> crates, AtomicInteger trees){
+        String localHash = tree == null ? null : tree.hash(path);
+        if(localHash != null && localHash.startsWith(hash))
+            return CompletableFuture.completedFuture(null);
+        trees.incrementAndGet();
+        return fetch.apply(hash.substring(0, KEY_LENGTH)).thenCompose(payload -> {
+            List<MerkleTree.Entry> entries;
+            try{
+                if(payload == null)
+                    throw new IOException("Tree " + hash + " is missing...");
+                entries = RepositoryCodec.decodeTree(payload);
+                if(!MerkleTree.hash(entries).startsWith(hash))
+                    throw new IOException("Tree " + hash + " doesn't match its hash...");
+            } catch(IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            List<CompletableFuture<Void>> children = new ArrayList<>();
+            for(MerkleTree.Entry entry : entries){
+                String name = path.isEmpty() ? entry.name : path + MerkleTree.SEPARATOR + entry.name;
+                if(entry.directory)
+                    children.add(compare(name, entry.id, tree, tracked, sparse, fetch, crates, trees));
+                else {
+                    Crate crate = tracked.get(name);
+                    if((crate == null || !crate.getId().equals(entry.id)) && (sparse == null || sparse.matches(name)))
+                        crates.add(new Crate(name, entry.id, null));
+                }
+            }
+            return CompletableFuture.allOf(children.toArray(new CompletableFuture<?>[0]));
+        });
+    }
+
+    /**
+     * Gives the files found by {@link #diff(Repository, String, Function)} to a remote repository
+     * decoded without its tracked files
+     * @param repository the remote repository
+     * @param crates the crates of the files
+     */
+    public static void track(Repository repository, Collection<Crate> crates){
+        for(Crate crate : crates)
+            repository.track(crate.getName(), crate);
+    }
+}
@@ -0,0 +1,289 @@
+package com.unisa.git.repository;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the working tree of a repository while the process runs, like the fsmonitor of Git. <p>
+ * Every directory of the tree is watched, the new ones as soon as they are created. The events of
+ * the file system are collected in a set of the paths created, modified or deleted since the last
+ * status, a directory stands for everything below it, so the status reads only those files instead of every tracked file and
+ * the listing of the directory. The watcher also keeps the unstaged and untracked files found by
+ * the last status, updated one name at a time. <p>
+ * Events arrive some time after the change, so before the changes are read a cookie file is
+ * created and its event is awaited: every change made before it has been seen. The cookies are
+ * created in a directory of the watcher out of the working tree, watched by the same service.
+ * When events are lost (the queue overflowed, the cookie didn't arrive in time or the directory
+ * is gone) the next status scans the whole directory. <p>
+ * Where the file system has no native events the WatchService polls the directories, then the
+ * watcher doesn't watch and every status scans the directory without waiting for a cookie.
+ */
+public final class WorkingTreeWatcher implements Closeable {
+    private static final String COOKIE = "watch-cookie-";
+    private static final long SYNC_TIMEOUT = TimeUnit.SECONDS.toNanos(2);
+
+    final private Path directory;
+    //where the cookies are created, null if the watcher doesn't watch
+    final private Path cookieDirectory;
+    final private WatchService service;
+    //directory of each key, only the thread of the watcher uses it after the start
+    final private Map<WatchKey, Path> directories = new HashMap<>();
+    //names changed since the last status
+    private Set<String> dirty = new HashSet<>();
+    //cookies seen and not yet awaited
+    final private Set<String> cookies = new HashSet<>();
+    private boolean rescan = true;
+    private boolean watching = true;
+    private long cookie;
+
+    //found by the last status, read and updated by the repository
+    final Set<String> unstaged = new HashSet<>();
+    final Set<String> untracked = new HashSet<>();
+    //names found missing by the statuses since the id of the repository was computed, null if
+    //they aren't known and every tracked file must be looked for
+    Set<String> missing;
+
+    /**
+     * Starts watching the directory, the cookies are created in the temporary directory of the system
+     * @param directory the working directory of the repository
+     * @throws IOException if the directory can't be watched
+     */
+    public WorkingTreeWatcher(Path directory) throws IOException {
+        this(directory, null);
+    }
+
+    /**
+     * Starts watching the directory
+     * @param directory the working directory of the repository
+     * @param cookies directory out of the working tree where the watcher creates the directory of
+     * its cookies, null for the temporary directory of the system
+     * @throws IOException if the directory can't be watched
+     */
+    public WorkingTreeWatcher(Path directory, Path cookies) throws IOException {
+        this.directory = directory;
+        this.service = directory.getFileSystem().newWatchService();
+        //a polling service would find the changes only at its next poll, seconds later
+        if(service.getClass().getName().endsWith("PollingWatchService")){
+            service.close();
+            this.cookieDirectory = null;
+            this.watching = false;
+            return;
+        }
+        try{
+            this.cookieDirectory = cookies == null ? Files.createTempDirectory(COOKIE)
+                    : Files.createTempDirectory(Files.createDirectories(cookies), COOKIE);
+            directories.put(cookieDirectory.register(service, ENTRY_CREATE), cookieDirectory);
+            register(directory);
+        } catch(IOException e) {
+            close();
+            throw e;
+        }
+        Thread thread = new Thread(this::run, "watcher of " + directory.getFileName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @return true if the changes are collected from the events of the file system, false if
+     * every status scans the directory
+     */
+    public boolean isWatching(){
+        return cookieDirectory != null;
+    }
+
+    /**
+     * @return the watched directory
+     */
+    public Path getDirectory(){
+        return directory;
+    }
+
+    /**
+     * Stops watching, the thread of the watcher ends and the directory of the cookies is deleted
+     */
+    @Override
+    public void close() throws IOException {
+        service.close();
+        if(cookieDirectory != null)
+            Files.deleteIfExists(cookieDirectory);
+    }
+
+    /**
+     * Returns the names changed since the last call and forgets them, after waiting for the
+     * events of the changes already made.
+     * @return the changed names, null if the whole directory must be scanned
+     */
+    Set<String> changes(){
+        sync();
+        synchronized(this){
+            Set<String> changes = dirty;
+            dirty = new HashSet<>();
+            if(rescan){
+                rescan = false;
+                return null;
+            }
+            return changes;
+        }
+    }
+
+    /**
+     * Returns the names changed since the last call of {@link #changes()} without forgetting them,
+     * after waiting for the events of the changes already made.
+     * @return the changed names, null if the whole directory must be scanned
+     */
+    Set<String> pending(){
+        sync();
+        synchronized(this){
+            return rescan ? null : new HashSet<>(dirty);
+        }
+    }
+
+    /**
+     * Adds a name to the changes, for the changes of the repository that don't touch the file
+     * system, like staging a file
+     */
+    synchronized void markDirty(String filename){
+        dirty.add(filename);
+    }
+
+    /**
+     * The next status scans the whole directory
+     */
+    synchronized void invalidate(){
+        rescan = true;
+    }
+
+    /**
+     * Creates a cookie file and waits for its event, the events of the changes made before are
+     * delivered before it
+     */
+    private void sync(){
+        String name;
+        synchronized(this){
+            if(!watching){
+                rescan = true;
+                return;
+            }
+            name = COOKIE + cookie++;
+        }
+        Path path = cookieDirectory.resolve(name);
+        try{
+            Files.createFile(path);
+            long deadline = System.nanoTime() + SYNC_TIMEOUT;
+            synchronized(this){
+                while(!cookies.remove(name)){
+                    long remaining = deadline - System.nanoTime();
+                    if(remaining <= 0 || !watching){
+                        rescan = true;
+                        return;
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                }
+            }
+        } catch(IOException e) {
+            invalidate();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            invalidate();
+        } finally {
+            try{
+                Files.deleteIfExists(path);
+            } catch(IOException e) {
+                System.err.println(e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Watches the directory and the directories below it
+     */
+    private void register(Path start) throws IOException {
+        Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path directory, BasicFileAttributes attributes) throws IOException {
+                directories.put(directory.register(service, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), directory);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void run(){
+        try{
+            while(true){
+                WatchKey key = service.take();
+                Path parent = directories.get(key);
+                synchronized(this){
+                    for(WatchEvent<?> event : key.pollEvents()){
+                        if(event.kind() == OVERFLOW || parent == null){
+                            rescan = true;
+                            continue;
+                        }
+                        if(parent.equals(cookieDirectory)){
+                            if(event.kind() == ENTRY_CREATE)
+                                cookies.add(event.context().toString());
+                            continue;
+                        }
+                        Path path = parent.resolve((Path) event.context());
+                        String name = nameOf(directory.relativize(path));
+                        dirty.add(name);
+                        //the files created before the directory is watched are found by the status of the directory
+                        if(event.kind() == ENTRY_CREATE && Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)){
+                            try{
+                                register(path);
+                            } catch(IOException e) {
+                                rescan = true;
+                            }
+                        }
+                    }
+                    //the directory isn't watched anymore, a directory below the root was deleted or moved
+                    if(!key.reset()){
+                        directories.remove(key);
+                        if(directory.equals(parent) || cookieDirectory.equals(parent)){
+                            rescan = true;
+                            watching = false;
+                        }
+                    }
+                    notifyAll();
+                    if(!watching)
+                        return;
+                }
+            }
+        } catch(InterruptedException | ClosedWatchServiceException e) {
+            //closed
+        }
+        synchronized(this){
+            watching = false;
+            notifyAll();
+        }
+    }
+
+    private static String nameOf(Path relative){
+        StringBuilder name = new StringBuilder();
+        for(Path segment : relative){
+            if(name.length() > 0)
+                name.append(MerkleTree.SEPARATOR);
+            name.append(segment.toString());
+        }
+        return name.toString();
+    }
+}
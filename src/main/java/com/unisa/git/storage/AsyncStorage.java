@@ -0,0 +1,85 @@
+package com.unisa.git.storage;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import com.unisa.git.repository.Repository;
+
+/**
+ * Non-blocking variant of the {@link Storage}, operations return immediately with a future
+ * that is completed when the storage answers, so the caller can do other work in the meantime.
+ */
+public interface AsyncStorage extends Storage {
+
+    /**
+     * Put a repository in the storage with a key without waiting for the storage
+     * @param key key needed to locate the repository
+     * @param repository repository to store
+     * @return a future completed with true if the repository is added, false otherwise.
+     */
+    public CompletableFuture<Boolean> putAsync(String key, Repository repository);
+
+    /**
+     * Search a repository with the same key in the storage without waiting for the storage
+     * @param key key needed to locate the repository
+     * @return a future completed with the repository with the same key, null otherwise
+     */
+    public CompletableFuture<Repository> getAsync(String key);
+
+    /**
+     * Put many repositories in the storage, all the puts are started together
+     * @param repositories repositories to store by key
+     * @return a future completed with the result of the put of each repository by key
+     */
+    public default CompletableFuture<Map<String, Boolean>> putAllAsync(Map<String, Repository> repositories){
+        Map<String, CompletableFuture<Boolean>> puts = new HashMap<>();
+        for(Map.Entry<String, Repository> entry : repositories.entrySet())
+            puts.put(entry.getKey(), putAsync(entry.getKey(), entry.getValue()));
+        return CompletableFuture.allOf(puts.values().toArray(new CompletableFuture<?>[0])).thenApply(v -> {
+            Map<String, Boolean> results = new HashMap<>();
+            for(Map.Entry<String, CompletableFuture<Boolean>> put : puts.entrySet())
+                results.put(put.getKey(), put.getValue().join());
+            return results;
+        });
+    }
+
+    /**
+     * Search many repositories in the storage, all the searches are started together
+     * @param keys keys needed to locate the repositories
+     * @return a future completed with the repositories found by key, keys without repository are left out
+     */
+    public default CompletableFuture<Map<String, Repository>> getAllAsync(Collection<String> keys){
+        Map<String, CompletableFuture<Repository>> gets = new HashMap<>();
+        for(String key : keys){
+            //a key asked twice is searched once
+            if(!gets.containsKey(key))
+                gets.put(key, getAsync(key));
+        }
+        return CompletableFuture.allOf(gets.values().toArray(new CompletableFuture<?>[0])).thenApply(v -> {
+            Map<String, Repository> repositories = new HashMap<>();
+            for(Map.Entry<String, CompletableFuture<Repository>> get : gets.entrySet()){
+                if(get.getValue().join() != null)
+                    repositories.put(get.getKey(), get.getValue().join());
+            }
+            return repositories;
+        });
+    }
+
+    /**
+     * Waits for {@link #putAllAsync(Map)}, so the puts cost about the time of the slowest one
+     */
+    @Override
+    public default Map<String, Boolean> putAll(Map<String, Repository> repositories){
+        return putAllAsync(repositories).join();
+    }
+
+    /**
+     * Waits for {@link #getAllAsync(Collection)}, so the searches cost about the time of the slowest one
+     */
+    @Override
+    public default Map<String, Repository> getAll(Collection<String> keys){
+        return getAllAsync(keys).join();
+    }
+}
@@ -0,0 +1,124 @@
+package com.unisa.git.storage;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Content-defined chunking of the content of the files, based on FastCDC. <p>
+ * A gear rolling hash is computed over the bytes and a chunk ends where the hash matches a mask,
+ * so boundaries depend on the content around them and not on the offset: editing a few bytes
+ * changes only the chunks around the edit, all the others keep their hashes and are stored once.
+ * Before the average size a mask with more bits is used, after it one with less bits
+ * (normalized chunking), so most chunks are close to the average size.
+ */
+public final class Chunker {
+    static final int MIN_SIZE = 2 * 1024;
+    static final int AVERAGE_SIZE = 8 * 1024;
+    static final int MAX_SIZE = 64 * 1024;
+
+    //the hash shifts left, so the high bits depend on the last 64 bytes
+    private static final long MASK_SMALL = 0xFFFE000000000000L; //15 bits, harder to match
+    private static final long MASK_LARGE = 0xFFE0000000000000L; //11 bits, easier to match
+
+    private static final long[] GEAR = new long[256];
+    static {
+        //fixed seed, every peer must cut the same content in the same chunks
+        Random random = new Random(0x5EED_C0DEL);
+        for(int i = 0; i < GEAR.length; i++)
+            GEAR[i] = random.nextLong();
+    }
+
+    private Chunker(){}
+
+    /**
+     * A piece of the content of a file
+     */
+    public static class Chunk {
+        private final int offset;
+        private final int length;
+        private final String id;
+
+        Chunk(int offset, int length, String id){
+            this.offset = offset;
+            this.length = length;
+            this.id = id;
+        }
+
+        public int getOffset(){
+            return offset;
+        }
+
+        public int getLength(){
+            return length;
+        }
+
+        /**
+         * Returns the SHA-256 of the bytes of the chunk, as an hex string
+         * @return id of the chunk
+         */
+        public String getId(){
+            return id;
+        }
+    }
+
+    /**
+     * Splits the content in chunks
+     * @param content content of a file
+     * @return the chunks in order, an empty content has no chunks
+     */
+    public static List<Chunk> split(byte[] content){
+        List<Chunk> chunks = new ArrayList<>();
+        int offset = 0;
+        while(offset < content.length){
+            int length = nextBoundary(content, offset, content.length - offset);
+            chunks.add(new Chunk(offset, length, hash(content, offset, length)));
+            offset += length;
+        }
+        return chunks;
+    }
+
+    /**
+     * Finds where the chunk starting at the offset ends
+     * @return the length of the chunk
+     */
+    static int nextBoundary(byte[] content, int offset, int remaining){
+        if(remaining <= MIN_SIZE)
+            return remaining;
+        int end = Math.min(remaining, MAX_SIZE);
+        int normal = Math.min(end, AVERAGE_SIZE);
+        long fingerprint = 0;
+        int i = MIN_SIZE;
+        for(; i < normal; i++){
+            fingerprint = (fingerprint << 1) + GEAR[content[offset + i] & 0xFF];
+            if((fingerprint & MASK_SMALL) == 0)
+                return i + 1;
+        }
+        for(; i < end; i++){
+            fingerprint = (fingerprint << 1) + GEAR[content[offset + i] & 0xFF];
+            if((fingerprint & MASK_LARGE) == 0)
+                return i + 1;
+        }
+        return end;
+    }
+
+    /**
+     * SHA-256 of a range of bytes
+     * @return the hash as an hex string
+     */
+    static String hash(byte[] content, int offset, int length){
+        try{
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(content, offset, length);
+            StringBuilder hex = new StringBuilder();
+            for(byte b : digest.digest())
+                hex.append(String.format("%02x", b));
+            return hex.toString();
+        } catch(NoSuchAlgorithmException e) {
+            //every JVM must support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
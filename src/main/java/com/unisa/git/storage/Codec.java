@@ -0,0 +1,32 @@
+package com.unisa.git.storage;
+
+import java.io.IOException;
+
+/**
+ * A compression algorithm used by {@link Compression}. Every codec has an id, written in the
+ * header of the payloads it compressed, so a payload is decompressed with the codec that made it.
+ */
+public interface Codec {
+
+    /**
+     * Id of the codec, unique among the codecs registered in {@link Compression}
+     * @return a value between 0 and 255
+     */
+    public int id();
+
+    /**
+     * Compresses the payload
+     * @param payload the bytes to compress
+     * @return the compressed bytes
+     */
+    public byte[] compress(byte[] payload);
+
+    /**
+     * Decompresses a payload made by {@link #compress(byte[])}
+     * @param compressed the compressed bytes
+     * @param length the length of the original payload
+     * @return the original payload
+     * @throws IOException if the bytes are not a valid output of the codec
+     */
+    public byte[] decompress(byte[] compressed, int length) throws IOException;
+}
@@ -0,0 +1,237 @@
+package com.unisa.git.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compression of the objects stored in the DHT. <p>
+ * An encoded object starts with the id of the {@link Codec} that compressed it followed by the
+ * length of the original object as a varint, an object stored as it is has just the id of
+ * {@link #RAW}. The codec is chosen by the storage for each kind of object, but an object is
+ * compressed only if it's worth it: small objects and objects whose bytes look random (a sample
+ * with an entropy close to 8 bits per byte, like images or archives) are stored raw, and so are
+ * the objects that the codec doesn't make smaller.
+ * Other codecs can be added with {@link #register(Codec)}, decoding needs only the header.
+ */
+public final class Compression {
+    public static final Codec RAW = new RawCodec();
+    public static final Codec DEFLATE = new DeflateCodec(1, Deflater.DEFAULT_COMPRESSION);
+    public static final Codec FAST = new FastCodec();
+    //the best ratio among the available codecs, slower to compress
+    public static final Codec DEFLATE_BEST = new DeflateCodec(3, Deflater.BEST_COMPRESSION);
+
+    static final int MIN_SIZE = 64;
+    //bits per byte, above this the object is considered already compressed
+    static final double MAX_ENTROPY = 7.5;
+    private static final int SAMPLES = 4;
+    private static final int SAMPLE_SIZE = 1024;
+
+    private static final Codec[] CODECS = new Codec[256];
+    static {
+        register(RAW);
+        register(DEFLATE);
+        register(FAST);
+        register(DEFLATE_BEST);
+    }
+
+    private Compression(){}
+
+    /**
+     * Makes the codec available to decode objects
+     * @param codec the codec to add
+     * @throws IllegalArgumentException if another codec has the same id
+     */
+    public static synchronized void register(Codec codec){
+        int id = codec.id();
+        if(id < 0 || id > 255)
+            throw new IllegalArgumentException("Codec id must be between 0 and 255...");
+        if(CODECS[id] != null && CODECS[id] != codec)
+            throw new IllegalArgumentException("Codec id " + id + " already used...");
+        CODECS[id] = codec;
+    }
+
+    /**
+     * Encodes the object with the codec, or raw if compressing it isn't worth it
+     * @param payload the object
+     * @param codec the preferred codec
+     * @return the encoded object, with its header
+     */
+    public static byte[] encode(byte[] payload, Codec codec){
+        if(codec != RAW && payload.length >= MIN_SIZE && entropy(payload) <= MAX_ENTROPY){
+            byte[] compressed = codec.compress(payload);
+            int header = 1 + varintSize(payload.length);
+            if(header + compressed.length < payload.length){
+                ByteBuffer encoded = ByteBuffer.allocate(header + compressed.length);
+                encoded.put((byte) codec.id());
+                for(int value = payload.length; ; value >>>= 7){
+                    if((value & ~0x7F) == 0){
+                        encoded.put((byte) value);
+                        break;
+                    }
+                    encoded.put((byte) ((value & 0x7F) | 0x80));
+                }
+                return encoded.put(compressed).array();
+            }
+        }
+        byte[] raw = new byte[payload.length + 1];
+        raw[0] = (byte) RAW.id();
+        System.arraycopy(payload, 0, raw, 1, payload.length);
+        return raw;
+    }
+
+    /**
+     * Decodes an object made by {@link #encode(byte[], Codec)}
+     * @param encoded the encoded object
+     * @return the object
+     * @throws IOException if the codec is unknown or the object is corrupted
+     */
+    public static byte[] decode(byte[] encoded) throws IOException {
+        if(encoded.length == 0)
+            throw new IOException("Missing compression header...");
+        int id = encoded[0] & 0xFF;
+        if(id == RAW.id()){
+            byte[] payload = new byte[encoded.length - 1];
+            System.arraycopy(encoded, 1, payload, 0, payload.length);
+            return payload;
+        }
+        Codec codec;
+        synchronized(Compression.class){
+            codec = CODECS[id];
+        }
+        if(codec == null)
+            throw new IOException("Unknown codec " + id + "...");
+        int position = 1;
+        long length = 0;
+        for(int shift = 0; ; shift += 7){
+            if(position == encoded.length || shift > 28)
+                throw new IOException("Malformed compression header...");
+            byte b = encoded[position++];
+            length |= (long) (b & 0x7F) << shift;
+            if((b & 0x80) == 0)
+                break;
+        }
+        if(length > Integer.MAX_VALUE)
+            throw new IOException("Object too large...");
+        byte[] compressed = new byte[encoded.length - position];
+        System.arraycopy(encoded, position, compressed, 0, compressed.length);
+        return codec.decompress(compressed, (int) length);
+    }
+
+    /**
+     * Shannon entropy of a few samples of the object, spread over it
+     * @return bits per byte, between 0 and 8
+     */
+    static double entropy(byte[] payload){
+        int[] counts = new int[256];
+        int total = 0;
+        if(payload.length <= SAMPLES * SAMPLE_SIZE){
+            for(byte b : payload)
+                counts[b & 0xFF]++;
+            total = payload.length;
+        }
+        else {
+            long step = (payload.length - SAMPLE_SIZE) / (SAMPLES - 1);
+            for(int sample = 0; sample < SAMPLES; sample++){
+                int start = (int) (sample * step);
+                for(int i = start; i < start + SAMPLE_SIZE; i++)
+                    counts[payload[i] & 0xFF]++;
+            }
+            total = SAMPLES * SAMPLE_SIZE;
+        }
+        double entropy = 0;
+        for(int count : counts){
+            if(count > 0){
+                double p = (double) count / total;
+                entropy -= p * Math.log(p) / Math.log(2);
+            }
+        }
+        return entropy;
+    }
+
+    private static int varintSize(int value){
+        int size = 1;
+        while((value & ~0x7F) != 0){
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    private static final class RawCodec implements Codec {
+        @Override
+        public int id(){
+            return 0;
+        }
+
+        @Override
+        public byte[] compress(byte[] payload){
+            return payload;
+        }
+
+        @Override
+        public byte[] decompress(byte[] compressed, int length){
+            return compressed;
+        }
+    }
+
+    private static final class DeflateCodec implements Codec {
+        private final int id;
+        private final int level;
+
+        DeflateCodec(int id, int level){
+            this.id = id;
+            this.level = level;
+        }
+
+        @Override
+        public int id(){
+            return id;
+        }
+
+        @Override
+        public byte[] compress(byte[] payload){
+            Deflater deflater = new Deflater(level);
+            try{
+                deflater.setInput(payload);
+                deflater.finish();
+                byte[] buffer = new byte[payload.length / 2 + 64];
+                int size = 0;
+                while(!deflater.finished()){
+                    if(size == buffer.length)
+                        buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                    size += deflater.deflate(buffer, size, buffer.length - size);
+                }
+                return Arrays.copyOf(buffer, size);
+            } finally {
+                deflater.end();
+            }
+        }
+
+        @Override
+        public byte[] decompress(byte[] compressed, int length) throws IOException {
+            Inflater inflater = new Inflater();
+            try{
+                inflater.setInput(compressed);
+                byte[] payload = new byte[length];
+                int size = 0;
+                while(size < length && !inflater.finished()){
+                    int inflated = inflater.inflate(payload, size, length - size);
+                    if(inflated == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                        break;
+                    size += inflated;
+                }
+                if(size != length)
+                    throw new IOException("Payload truncated...");
+                return payload;
+            } catch(DataFormatException e) {
+                throw new IOException("Corrupted payload...", e);
+            } finally {
+                inflater.end();
+            }
+        }
+    }
+}
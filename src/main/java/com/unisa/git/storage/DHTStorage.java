@@ -1,53 +1,873 @@
 package com.unisa.git.storage;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
+import com.unisa.git.repository.ContentHasher;
+import com.unisa.git.repository.Crate;
+import com.unisa.git.repository.History;
+import com.unisa.git.repository.Ref;
 import com.unisa.git.repository.Repository;
+import com.unisa.git.repository.RepositoryCodec;
+import com.unisa.git.repository.TreeSync;
 
+import net.tomp2p.dht.FutureDigest;
 import net.tomp2p.dht.FutureGet;
+import net.tomp2p.dht.FuturePut;
 import net.tomp2p.dht.PeerBuilderDHT;
 import net.tomp2p.dht.PeerDHT;
+import net.tomp2p.futures.BaseFuture;
+import net.tomp2p.futures.BaseFutureAdapter;
 import net.tomp2p.futures.FutureBootstrap;
 import net.tomp2p.p2p.PeerBuilder;
 import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.Number640;
+import net.tomp2p.peers.PeerAddress;
 import net.tomp2p.storage.Data;
+import net.tomp2p.storage.StorageLayer.PutStatus;
 
-public class DHTStorage implements Storage{
-    final private PeerDHT dht;
+/**
+ * Remote storage of the repositories. The content of the files is stored in the DHT as blobs,
+ * each blob is addressed by the id of its crate (the hash of the content), while the repository
+ * stored under its name holds only the metadata, so the same content is never uploaded twice.
+ * A blob is a manifest of the chunks made by the {@link Chunker}, every chunk is stored under
+ * its own hash so versions of a file share the chunks they have in common.
+ * Every directory of a repository is stored as a tree object, see {@link TreeSync}, and the metadata of
+ * a repository leaves out its files, they are listed by the tree: a pull downloads only the tree objects
+ * and the blobs of what changed, see {@link #syncAsync(String, Repository, int)}. The history is split in the
+ * pages of a {@link History}, stored once each, so a shallow pull reads only the last pages.
+ * Repositories are encoded with the {@link RepositoryCodec}. Next to each repository there's its
+ * {@link Ref}, updated by every push, so checking the state of a repository costs a few bytes.
+ * The ref is written with the versioned puts of TomP2P, it moves only from the version a push
+ * started from, so of two concurrent pushes only one succeeds. <p>
+ * Every operation is asynchronous, the blocking methods of {@link Storage} just wait for the futures,
+ * and the batches of {@link AsyncStorage#getAllAsync(java.util.Collection)} start all their requests together,
+ * as the pulls do for the pages of a history and for the blobs of the files that changed.
+ * The peer is started and joins the network with the first request, see {@link #DHTStorage(int, List, Path, Codec, Codec)}.
+ */
+public class DHTStorage implements RemoteStorage{
+    final private int id;
     final private int MASTER_PORT = 4000;
+    final private List<String> bootstrapPeers;
+    final private Path peerMap;
+    //started by the first request, kept for the next ones only if the peer joined the network
+    private CompletableFuture<PeerDHT> connection;
+    private PeerDHT peer;
+    //ids of the blobs that are known to be in the DHT, avoids to ask the DHT every time
+    final private Set<String> knownBlobs;
+    final private Set<String> knownChunks;
+    final private Set<String> knownTrees;
+    final private Set<String> knownPages;
+    final private Codec contentCodec;
+    final private Codec metadataCodec;
+    //raw hash and length of a chunk
+    private static final int MANIFEST_ENTRY = 36;
+    private static final byte[] DELTA_MAGIC = {'G', 'I', 'T', 'D'};
+    //a content is rebuilt applying at most this number of deltas
+    private static final int MAX_DELTA_DEPTH = 16;
+    //peers saved in the peer map, the first ones known
+    private static final int MAX_SAVED_PEERS = 32;
 
-    public DHTStorage(int id, String master_peer) throws IOException{
-        dht = new PeerBuilderDHT(new PeerBuilder(Number160.createHash(id)).ports(MASTER_PORT + id).start()).start();     
-        
-        FutureBootstrap fb = dht.peer().bootstrap().inetAddress(InetAddress.getByName(master_peer)).ports(MASTER_PORT).start();
-		fb.awaitUninterruptibly();
-		if(fb.isSuccess()) {
-			dht.peer().discover().peerAddress(fb.bootstrapTo().iterator().next()).start().awaitUninterruptibly();
+    public DHTStorage(int id, String master_peer){
+        this(id, master_peer, Compression.FAST, Compression.DEFLATE_BEST);
+    }
+
+    /**
+     * Creates the peer with the codecs used to compress the objects stored in the DHT
+     * @param contentCodec codec of the content of the files, chunks and deltas
+     * @param metadataCodec codec of the metadata of the repositories, stored once and read by every pull
+     */
+    public DHTStorage(int id, String master_peer, Codec contentCodec, Codec metadataCodec){
+        this(id, Collections.singletonList(master_peer), null, contentCodec, metadataCodec);
+    }
+
+    /**
+     * Creates the peer, it joins the network through the first peer that answers
+     * @param bootstrap_peers addresses of the peers used to join the network
+     * @param peerMap file where the peers known after joining are saved, null to not save them
+     */
+    public DHTStorage(int id, List<String> bootstrap_peers, Path peerMap){
+        this(id, bootstrap_peers, peerMap, Compression.FAST, Compression.DEFLATE_BEST);
+    }
+
+    /**
+     * Creates the peer without connecting it: the peer is started and it joins the network with the
+     * first request, so the commands that don't use the DHT don't wait for it. The bootstrap peers and
+     * the peers saved in the peer map by the last connection are contacted at the same time, the
+     * first one that answers is used, so a slow or missing master doesn't slow down the others.
+     * @param bootstrap_peers addresses of the peers used to join the network
+     * @param peerMap file where the peers known after joining are saved, null to not save them
+     * @param contentCodec codec of the content of the files, chunks and deltas
+     * @param metadataCodec codec of the metadata of the repositories, stored once and read by every pull
+     */
+    public DHTStorage(int id, List<String> bootstrap_peers, Path peerMap, Codec contentCodec, Codec metadataCodec){
+        this.id = id;
+        this.bootstrapPeers = new ArrayList<>(bootstrap_peers);
+        this.peerMap = peerMap;
+        this.contentCodec = contentCodec;
+        this.metadataCodec = metadataCodec;
+        knownBlobs = Collections.synchronizedSet(new HashSet<String>());
+        knownChunks = Collections.synchronizedSet(new HashSet<String>());
+        knownTrees = Collections.synchronizedSet(new HashSet<String>());
+        knownPages = Collections.synchronizedSet(new HashSet<String>());
+    }
+
+    /**
+     * Starts the peer and joins the network. The connection is kept only once the peer joined:
+     * if the peer can't be started, the bootstrap fails or no peer answers, the next request
+     * tries again, so a command given when the network is down doesn't leave the peer alone.
+     * @return a future completed with the peer, it fails if the peer can't be started
+     */
+    private synchronized CompletableFuture<PeerDHT> connect(){
+        if(connection != null)
+            return connection;
+        if(peer == null){
+            try{
+                peer = new PeerBuilderDHT(new PeerBuilder(Number160.createHash(id)).ports(MASTER_PORT + id).start()).start();
+            } catch(IOException e) {
+                CompletableFuture<PeerDHT> failed = new CompletableFuture<>();
+                failed.completeExceptionally(e);
+                return failed;
+            }
         }
+        PeerDHT dht = peer;
+        CompletableFuture<Boolean> joined = bootstrap(dht);
+        CompletableFuture<PeerDHT> current = joined.thenApply(j -> dht);
+        connection = current;
+        joined.whenComplete((j, e) -> {
+            if(e != null || !j){
+                System.err.println("No peer answered, the next command will try to join the network again...");
+                forget(current);
+            }
+        });
+        return current;
     }
 
-    public boolean put(String key, Repository repository){
+    private synchronized void forget(CompletableFuture<PeerDHT> failed){
+        if(connection == failed)
+            connection = null;
+    }
+
+    /**
+     * Contacts the bootstrap peers and the saved ones at the same time, the first that answers is
+     * used to discover the network and the peers known then are saved.
+     * @return a future completed with true if the peer joined the network, false if no peer answered
+     */
+    private CompletableFuture<Boolean> bootstrap(PeerDHT dht){
+        List<InetSocketAddress> candidates = new ArrayList<>();
+        for(String peer : bootstrapPeers)
+            candidates.add(InetSocketAddress.createUnresolved(peer, MASTER_PORT));
+        candidates.addAll(loadPeerMap());
+
+        CompletableFuture<PeerAddress> first = new CompletableFuture<>();
+        AtomicInteger failed = new AtomicInteger();
+        for(InetSocketAddress candidate : candidates){
+            //the name is resolved by the request, a slow name server doesn't delay the other peers
+            CompletableFuture.supplyAsync(() -> {
+                try{
+                    return dht.peer().bootstrap().inetAddress(InetAddress.getByName(candidate.getHostString())).ports(candidate.getPort()).start();
+                } catch(IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }).thenCompose(DHTStorage::toCompletableFuture).whenComplete((FutureBootstrap fb, Throwable e) -> {
+                if(e == null && fb.isSuccess() && !fb.bootstrapTo().isEmpty())
+                    first.complete(fb.bootstrapTo().iterator().next());
+                else if(failed.incrementAndGet() == candidates.size())
+                    first.complete(null);
+            });
+        }
+        if(candidates.isEmpty())
+            first.complete(null);
+
+        return first.thenCompose(master -> {
+            if(master == null)
+                return CompletableFuture.completedFuture(false);
+            return toCompletableFuture(dht.peer().discover().peerAddress(master).start()).thenApply(discovered -> {
+                savePeerMap(dht.peer().peerBean().peerMap().all());
+                return true;
+            });
+        });
+    }
+
+    /**
+     * Reads the peers saved by the last connection, a missing or unreadable peer map is empty
+     */
+    private List<InetSocketAddress> loadPeerMap(){
+        List<InetSocketAddress> peers = new ArrayList<>();
+        if(peerMap == null || !Files.exists(peerMap))
+            return peers;
         try{
-            dht.put(Number160.createHash(key)).data(new Data(repository)).start().awaitUninterruptibly();
-            return true;
+            for(String line : Files.readAllLines(peerMap, StandardCharsets.UTF_8)){
+                String[] fields = line.split(" ");
+                if(fields.length == 2)
+                    peers.add(InetSocketAddress.createUnresolved(fields[0], Integer.parseInt(fields[1])));
+            }
+        } catch(IOException | NumberFormatException e) {
+            System.err.println("Peer map not readable: " + e.getMessage());
+        }
+        return peers;
+    }
+
+    /**
+     * Saves address and port of the known peers, one for each line, replacing the peer map at once
+     */
+    private void savePeerMap(List<PeerAddress> peers){
+        if(peerMap == null || peers.isEmpty())
+            return;
+        StringBuilder lines = new StringBuilder();
+        for(PeerAddress peer : peers.subList(0, Math.min(peers.size(), MAX_SAVED_PEERS)))
+            lines.append(peer.inetAddress().getHostAddress()).append(' ').append(peer.tcpPort()).append('\n');
+        try{
+            Path temporary = peerMap.resolveSibling(peerMap.getFileName() + ".tmp");
+            Files.write(temporary, lines.toString().getBytes(StandardCharsets.UTF_8));
+            Files.move(temporary, peerMap, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
         } catch(IOException e) {
-            e.printStackTrace();
-            return false;
+            System.err.println("Peer map not saved: " + e.getMessage());
         }
     }
 
+    /**
+     * Sends a request to the DHT once the peer is connected
+     */
+    private <F extends BaseFuture> CompletableFuture<F> request(Function<PeerDHT, F> request){
+        return connect().thenCompose(dht -> toCompletableFuture(request.apply(dht)));
+    }
+
+    @Override
+    public boolean put(String key, Repository repository){
+        return putAsync(key, repository).join();
+    }
+
+    @Override
     public Repository get(String key) {
-        try{
-            FutureGet futureGet = dht.get(Number160.createHash(key)).start();
-            futureGet.awaitUninterruptibly();
-            if(futureGet.isSuccess() && !futureGet.dataMap().values().isEmpty()){
-                return (Repository) futureGet.dataMap().values().iterator().next().object();
-            }
-            else return null;
-        } catch(IOException | ClassNotFoundException e) {
-            e.printStackTrace();
+        return getAsync(key).join();
+    }
+
+    /**
+     * Stores the repository over the ref currently stored, see {@link #pushAsync(String, Repository, Ref)}.
+     */
+    @Override
+    public CompletableFuture<Boolean> putAsync(String key, Repository repository){
+        return getRefAsync(key).thenCompose(current -> pushAsync(key, repository, current));
+    }
+
+    /**
+     * Stores the repository, only the blobs that the DHT doesn't hold yet are uploaded,
+     * all of them at the same time together with the tree objects of the directories that changed,
+     * and the pages of the history, then the metadata of the repository without its files and with
+     * the list of the pages are stored under the head commit, so they never overwrite the metadata of another push, and at last the ref is
+     * moved to the new head with a versioned put: the new version is based on the expected one
+     * and it's first stored as prepared, if the DHT reports a fork another peer has pushed and
+     * the prepared version is removed, otherwise it's confirmed. If any put fails the ref isn't moved
+     * and the push fails, the objects already stored are only reused by the next push.
+     */
+    @Override
+    public CompletableFuture<Boolean> pushAsync(String key, Repository repository, Ref expected){
+        Ref ref = repository.getRef(expected == null ? 1 : expected.getSequence() + 1);
+        if(ref == null)
+            return CompletableFuture.completedFuture(false);
+        //encode now, the repository could change while blobs are uploaded
+        History history = new History(repository);
+        Data metadata = new Data(Compression.encode(history.getMetadata(), metadataCodec));
+        Data pages = new Data(Compression.encode(history.getPages(), metadataCodec));
+
+        List<CompletableFuture<Void>> blobs = new ArrayList<>();
+        Set<String> ids = new HashSet<>();
+        for(Crate crate : repository.getCrates()){
+            if(ids.add(crate.getId()))
+                blobs.add(containsBlob(crate.getId())
+                        .thenCompose(present -> present ? CompletableFuture.completedFuture(null) : putBlob(crate)));
+        }
+        //a tree object is read only through a ref, so it can be stored together with the blobs
+        blobs.add(TreeSync.store(repository, this::containsTree, this::putTree));
+        blobs.add(history.store(this::containsPage, this::putPage));
+        //any put that failed fails the push before the ref is moved
+        return CompletableFuture.allOf(blobs.toArray(new CompletableFuture<?>[0]))
+                .thenCompose(v -> store(pagesKey(key, ref.getHead()), pages, null, null))
+                .thenCompose(v -> store(snapshotKey(key, ref.getHead()), metadata, null, null))
+                .thenCompose(v -> compareAndSetRef(key, expected, ref))
+                .exceptionally(e -> {
+                    e.printStackTrace();
+                    return false;
+                });
+    }
+
+    /**
+     * Replaces the expected ref with the new one, with the prepare and confirm of the versioned puts
+     * @return a future completed with true if the ref was replaced, false if another peer changed it
+     */
+    private CompletableFuture<Boolean> compareAndSetRef(String key, Ref expected, Ref ref){
+        Number160 version = versionKey(ref);
+        Data data = new Data(RepositoryCodec.encodeRef(ref)).prepareFlag();
+        if(expected != null)
+            data.addBasedOn(versionKey(expected));
+        return request(dht -> dht.put(refKey(key)).data(Number160.ZERO, data).versionKey(version).start())
+                .thenCompose(prepared -> {
+                    if(prepared.isSuccess() && hasStatus(prepared, PutStatus.OK_PREPARED))
+                        return request(dht -> dht.put(refKey(key)).versionKey(version).putConfirm().data(new Data()).start())
+                                .thenApply(confirmed -> confirmed.isSuccess());
+                    //the ref isn't the expected one anymore, the prepared version must not stay around
+                    return request(dht -> dht.remove(refKey(key)).versionKey(version).start())
+                            .thenApply(removed -> false);
+                });
+    }
+
+    /**
+     * Returns the repository stored under the key, the metadata is the one of the head of its ref,
+     * the files are listed by its tree objects and the content of every tracked file is downloaded
+     * from the blob it refers to, all blobs are requested at the same time.
+     */
+    @Override
+    public CompletableFuture<Repository> getAsync(String key) {
+        return syncAsync(key, null, 0);
+    }
+
+    /**
+     * Returns the repository stored under the key with only the files that differ from the local
+     * repository: the tree of the remote repository is compared with the local one from the root,
+     * see {@link TreeSync}, then only the blobs of the files that changed are downloaded, except the
+     * ones the local storage already keeps. The cost of a pull depends on what changed, not on the
+     * size of the repository. With a depth only the last pages of the history are downloaded, see {@link History}.
+     * The files out of the patterns of a sparse local repository are not downloaded.
+     * @param local the local repository, null to download every file
+     * @param depth the number of commits to download, 0 for the whole history
+     */
+    @Override
+    public CompletableFuture<Repository> syncAsync(String key, Repository local, int depth){
+        return getRefAsync(key).thenCompose(ref -> getSnapshot(key, ref).thenCombine(getPages(key, ref), (metadata, pages) -> {
+            if(metadata == null)
+                return CompletableFuture.completedFuture((Repository) null);
+
+            Repository repository;
+            try{
+                repository = RepositoryCodec.decode(metadata);
+            } catch(IOException e) {
+                e.printStackTrace();
+                return CompletableFuture.completedFuture((Repository) null);
+            }
+            CompletableFuture<Void> history = History.load(repository, pages, depth, local, this::getPageBatch);
+            //metadata written with its files by an older peer
+            if(!repository.getCrates().isEmpty()){
+                List<Crate> crates = new ArrayList<>();
+                for(Crate crate : repository.getCrates()){
+                    if(local == null || !local.isSparse() || local.getSparse().matches(crate.getName()))
+                        crates.add(crate);
+                }
+                return history.thenCombine(getBlobs(crates), (v, w) -> repository);
+            }
+            return history.thenCombine(TreeSync.diff(local, ref.getRepositoryId(), this::getTree).thenCompose(difference -> {
+                TreeSync.track(repository, difference.getCrates());
+                return getBlobs(difference.getMissing());
+            }), (v, w) -> repository);
+        }).thenCompose(repository -> repository)).exceptionally(e -> {
+            System.err.println(e.getMessage());
             return null;
+        });
+    }
+
+    /**
+     * Downloads the content of the crates, all blobs are requested at the same time
+     * @return a future completed when every crate has its content, it fails if a blob is missing
+     */
+    private CompletableFuture<Void> getBlobs(Collection<Crate> crates){
+        Map<Number160, String> keys = new HashMap<>();
+        for(Crate crate : crates)
+            keys.put(blobKey(crate.getId()), crate.getId());
+        //the records of every blob in a single batch, then the chunks or the bases of the deltas
+        return getObjects(keys.keySet()).thenCompose(records -> {
+            Map<String, CompletableFuture<byte[]>> contents = new HashMap<>();
+            for(Map.Entry<Number160, String> key : keys.entrySet())
+                contents.put(key.getValue(), readBlob(key.getValue(), records.get(key.getKey()), 0));
+            List<CompletableFuture<Void>> blobs = new ArrayList<>();
+            for(Crate crate : crates){
+                blobs.add(contents.get(crate.getId()).thenAccept(content -> {
+                    try{
+                        if(content == null)
+                            throw new IOException("Blob of " + crate.getName() + " is missing...");
+                        crate.attachContent(content);
+                    } catch(IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }));
+            }
+            return CompletableFuture.allOf(blobs.toArray(new CompletableFuture<?>[0]));
+        });
+    }
+
+    /**
+     * Downloads the metadata of the head of the ref
+     * @return a future completed with the encoded metadata, null if there's no ref or no metadata
+     */
+    private CompletableFuture<byte[]> getSnapshot(String key, Ref ref){
+        if(ref == null)
+            return CompletableFuture.completedFuture(null);
+        return getObject(snapshotKey(key, ref.getHead()));
+    }
+
+    /**
+     * Downloads the list of the pages of the history of the head of the ref
+     * @return a future completed with the encoded list, null if there's no ref or the metadata has the whole history
+     */
+    private CompletableFuture<byte[]> getPages(String key, Ref ref){
+        if(ref == null)
+            return CompletableFuture.completedFuture(null);
+        return getObject(pagesKey(key, ref.getHead()));
+    }
+
+    /**
+     * Returns the ref of the repository stored under the key, only the latest confirmed version
+     * of the ref is downloaded. If the replicas don't agree the ref with the highest sequence wins.
+     */
+    @Override
+    public CompletableFuture<Ref> getRefAsync(String key){
+        return request(dht -> dht.get(refKey(key)).getLatest().start()).thenApply((FutureGet futureGet) -> {
+            Ref latest = null;
+            if(!futureGet.isSuccess())
+                return latest;
+            try{
+                for(Data data : futureGet.dataMap().values()){
+                    Ref ref = RepositoryCodec.decodeRef(data.toBytes());
+                    if(latest == null || ref.getSequence() > latest.getSequence())
+                        latest = ref;
+                }
+                return latest;
+            } catch(IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * Checks if an object is already stored in the DHT, only the digest of the key is requested
+     * so the content isn't downloaded.
+     * @param key key of the object
+     * @param known ids of the objects of the same kind known to be stored
+     * @param id id of the object
+     * @return a future completed with true if present, false otherwise
+     */
+    private CompletableFuture<Boolean> contains(Number160 key, Set<String> known, String id){
+        if(known.contains(id))
+            return CompletableFuture.completedFuture(true);
+        return request(dht -> dht.digest(key).start()).thenApply((FutureDigest futureDigest) -> {
+            if(futureDigest.isSuccess() && !futureDigest.digest().keyDigest().isEmpty()){
+                known.add(id);
+                return true;
+            }
+            return false;
+        });
+    }
+
+    /**
+     * Stores an object in the DHT, its id is added to the known ones only once the put succeeded
+     * @param known ids of the objects of the same kind known to be stored, null to not remember it
+     * @return a future completed when the object is stored, it fails if the put failed
+     */
+    private CompletableFuture<Void> store(Number160 key, Data data, Set<String> known, String id){
+        return request(dht -> dht.put(key).data(data).start()).thenAccept((FuturePut futurePut) -> {
+            if(!futurePut.isSuccess())
+                throw new UncheckedIOException(new IOException("Put of " + (id != null ? id : key) + " failed: " + futurePut.failedReason()));
+            if(known != null)
+                known.add(id);
+        });
+    }
+
+    private CompletableFuture<Boolean> containsBlob(String id){
+        return contains(blobKey(id), knownBlobs, id);
+    }
+
+    private CompletableFuture<Boolean> containsTree(String id){
+        return contains(treeKey(id), knownTrees, id);
+    }
+
+    private CompletableFuture<Void> putTree(String id, byte[] tree){
+        return store(treeKey(id), new Data(Compression.encode(tree, metadataCodec)), knownTrees, id);
+    }
+
+    private CompletableFuture<Boolean> containsPage(String id){
+        return contains(pageKey(id), knownPages, id);
+    }
+
+    private CompletableFuture<Void> putPage(String id, byte[] page){
+        return store(pageKey(id), new Data(Compression.encode(page, metadataCodec)), knownPages, id);
+    }
+
+    /**
+     * Downloads pages of a history in a single batch, they are checked by {@link History}
+     * @return a future completed with the pages found by id
+     */
+    private CompletableFuture<Map<String, byte[]>> getPageBatch(Collection<String> ids){
+        Map<Number160, String> keys = new HashMap<>();
+        for(String id : ids)
+            keys.put(pageKey(id), id);
+        return getObjects(keys.keySet()).thenApply(objects -> {
+            Map<String, byte[]> pages = new HashMap<>();
+            for(Map.Entry<Number160, byte[]> object : objects.entrySet())
+                pages.put(keys.get(object.getKey()), object.getValue());
+            return pages;
+        });
+    }
+
+    /**
+     * Downloads a tree object, it's checked by {@link TreeSync}
+     */
+    private CompletableFuture<byte[]> getTree(String id){
+        return getObject(treeKey(id)).thenApply(tree -> {
+            if(tree != null)
+                knownTrees.add(id);
+            return tree;
+        });
+    }
+
+    /**
+     * Stores the content of the crate split in chunks, only the chunks that the DHT doesn't hold
+     * are uploaded, then the manifest listing the chunks is stored under the key of the blob.
+     * If the previous version of the file is in the DHT and the delta from it is smaller than
+     * the chunks to upload, only the delta is stored under the key of the blob.
+     */
+    private CompletableFuture<Void> putBlob(Crate crate){
+        byte[] content = crate.getContent();
+        List<Chunker.Chunk> chunks = Chunker.split(content);
+        CompletableFuture<byte[]> delta = deltaOf(crate, content);
+        List<CompletableFuture<Chunker.Chunk>> checks = new ArrayList<>();
+        Set<String> ids = new HashSet<>();
+        for(Chunker.Chunk chunk : chunks){
+            if(ids.add(chunk.getId()))
+                checks.add(contains(chunkKey(chunk.getId()), knownChunks, chunk.getId())
+                        .thenApply(present -> present ? null : chunk));
+        }
+        return CompletableFuture.allOf(checks.toArray(new CompletableFuture<?>[0])).thenCombine(delta, (v, record) -> {
+            List<Chunker.Chunk> missing = new ArrayList<>();
+            long size = chunks.size() * MANIFEST_ENTRY;
+            for(CompletableFuture<Chunker.Chunk> check : checks){
+                Chunker.Chunk chunk = check.join();
+                if(chunk != null){
+                    missing.add(chunk);
+                    size += chunk.getLength();
+                }
+            }
+            if(record != null && record.length < size)
+                return store(blobKey(crate.getId()), new Data(Compression.encode(record, contentCodec)), knownBlobs, crate.getId());
+            return putChunks(crate.getId(), content, chunks, missing);
+        }).thenCompose(upload -> upload);
+    }
+
+    /**
+     * Uploads the chunks missing from the DHT and then the manifest of the blob
+     */
+    private CompletableFuture<Void> putChunks(String id, byte[] content, List<Chunker.Chunk> chunks, List<Chunker.Chunk> missing){
+        List<CompletableFuture<Void>> uploads = new ArrayList<>();
+        for(Chunker.Chunk chunk : missing){
+            byte[] bytes = Arrays.copyOfRange(content, chunk.getOffset(), chunk.getOffset() + chunk.getLength());
+            uploads.add(store(chunkKey(chunk.getId()), new Data(Compression.encode(bytes, contentCodec)), knownChunks, chunk.getId()));
+        }
+        //the manifest is stored only if every chunk is
+        return CompletableFuture.allOf(uploads.toArray(new CompletableFuture<?>[0]))
+                .thenCompose(v -> store(blobKey(id), new Data(Compression.encode(encodeManifest(chunks), metadataCodec)), knownBlobs, id));
+    }
+
+    /**
+     * Encodes the content as a delta of the previous version of the file. Only the blob of the
+     * previous version is downloaded, to know that it's in the DHT and how many deltas must be
+     * applied to rebuild it, its content is read locally.
+     * @return a future completed with the record of the delta, null if there's no usable previous version
+     */
+    private CompletableFuture<byte[]> deltaOf(Crate crate, byte[] content){
+        Crate previous = crate.getPrevious();
+        if(previous == null)
+            return CompletableFuture.completedFuture(null);
+        return getObject(blobKey(previous.getId())).thenApply(baseRecord -> {
+            if(baseRecord == null)
+                return null;
+            int depth = isDelta(baseRecord) ? baseRecord[DELTA_MAGIC.length] + 1 : 1;
+            if(depth > MAX_DELTA_DEPTH)
+                return null;
+            byte[] base;
+            try{
+                base = previous.getContent();
+            } catch(UncheckedIOException e) {
+                return null;
+            }
+            return encodeDelta(depth, previous.getId(), Delta.encode(base, content));
+        }).exceptionally(e -> null);
+    }
+
+    /**
+     * Downloads the blob, from its chunks or from the blob of the previous version and the delta.
+     * @param id id of the blob
+     * @param depth how many deltas were already followed to reach it
+     * @return a future completed with the content, null if something is missing
+     */
+    private CompletableFuture<byte[]> getBlob(String id, int depth){
+        return getObject(blobKey(id)).thenCompose(record -> readBlob(id, record, depth));
+    }
+
+    /**
+     * Rebuilds the content of a blob from its record, downloading its chunks or the base of its delta
+     * @return a future completed with the content, null if the record or something it needs is missing
+     */
+    private CompletableFuture<byte[]> readBlob(String id, byte[] record, int depth){
+        if(record == null)
+            return CompletableFuture.completedFuture((byte[]) null);
+        knownBlobs.add(id);
+        if(isDelta(record))
+            return depth < MAX_DELTA_DEPTH ? getDelta(id, record, depth) : CompletableFuture.completedFuture((byte[]) null);
+        return getChunks(record);
+    }
+
+    /**
+     * Downloads the chunks listed by the manifest of a blob, a chunk that appears more than once
+     * is downloaded only once.
+     * @return a future completed with the content, null if something is missing
+     */
+    private CompletableFuture<byte[]> getChunks(byte[] manifest){
+        ByteBuffer entries = ByteBuffer.wrap(manifest);
+        List<String> order = new ArrayList<>();
+        Map<String, CompletableFuture<byte[]>> downloads = new HashMap<>();
+        int size = 0;
+        while(entries.hasRemaining()){
+            byte[] hash = new byte[32];
+            entries.get(hash);
+            size += entries.getInt();
+            String chunkId = toHex(hash);
+            order.add(chunkId);
+            if(!downloads.containsKey(chunkId))
+                downloads.put(chunkId, getChunk(chunkId));
+        }
+
+        int length = size;
+        return CompletableFuture.allOf(downloads.values().toArray(new CompletableFuture<?>[0])).thenApply(v -> {
+            ByteBuffer content = ByteBuffer.allocate(length);
+            for(String chunkId : order){
+                byte[] chunk = downloads.get(chunkId).join();
+                if(chunk == null || chunk.length > content.remaining())
+                    return null;
+                content.put(chunk);
+            }
+            return content.hasRemaining() ? null : content.array();
+        });
+    }
+
+    /**
+     * Downloads the previous version and applies the delta to it, the result must match the id
+     * @return a future completed with the content, null if the base is missing or the result is wrong
+     */
+    private CompletableFuture<byte[]> getDelta(String id, byte[] record, int depth){
+        ByteBuffer in = ByteBuffer.wrap(record);
+        in.position(DELTA_MAGIC.length + 1);
+        byte[] baseId = new byte[in.get() & 0xFF];
+        in.get(baseId);
+        return getBlob(new String(baseId, StandardCharsets.UTF_8), depth + 1).thenApply(base -> {
+            if(base == null)
+                return null;
+            try{
+                byte[] content = Delta.decode(base, in);
+                return ContentHasher.matches(id, content) ? content : null;
+            } catch(IOException e) {
+                System.err.println(e.getMessage());
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Downloads a chunk and checks that its content matches the id
+     */
+    private CompletableFuture<byte[]> getChunk(String id){
+        return getObject(chunkKey(id)).thenApply(chunk -> {
+            if(chunk == null || !Chunker.hash(chunk, 0, chunk.length).equals(id))
+                return null;
+            knownChunks.add(id);
+            return chunk;
+        });
+    }
+
+    /**
+     * Downloads an object and decodes it, see {@link Compression}
+     * @return a future completed with the object, null if it's missing or it can't be decoded
+     */
+    /**
+     * Downloads many objects, all the requests are started together so the batch costs about
+     * one round trip, like {@link AsyncStorage#getAllAsync(Collection)} for the repositories
+     * @return a future completed with the objects found by key, missing ones are left out
+     */
+    private CompletableFuture<Map<Number160, byte[]>> getObjects(Collection<Number160> keys){
+        Map<Number160, CompletableFuture<byte[]>> gets = new HashMap<>();
+        for(Number160 key : keys){
+            if(!gets.containsKey(key))
+                gets.put(key, getObject(key));
         }
+        return CompletableFuture.allOf(gets.values().toArray(new CompletableFuture<?>[0])).thenApply(v -> {
+            Map<Number160, byte[]> objects = new HashMap<>();
+            for(Map.Entry<Number160, CompletableFuture<byte[]>> get : gets.entrySet()){
+                if(get.getValue().join() != null)
+                    objects.put(get.getKey(), get.getValue().join());
+            }
+            return objects;
+        });
+    }
+
+    private CompletableFuture<byte[]> getObject(Number160 key){
+        return request(dht -> dht.get(key).start()).thenApply((FutureGet futureGet) -> {
+            if(!futureGet.isSuccess() || futureGet.dataMap().values().isEmpty())
+                return null;
+            try{
+                return Compression.decode(futureGet.dataMap().values().iterator().next().toBytes());
+            } catch(IOException e) {
+                System.err.println(e.getMessage());
+                return null;
+            }
+        });
+    }
+
+    /**
+     * The manifest of a blob lists its chunks in order, each one as the raw SHA-256 of the
+     * chunk followed by its length.
+     */
+    private static byte[] encodeManifest(List<Chunker.Chunk> chunks){
+        ByteBuffer manifest = ByteBuffer.allocate(chunks.size() * MANIFEST_ENTRY);
+        for(Chunker.Chunk chunk : chunks){
+            for(int i = 0; i < 64; i += 2)
+                manifest.put((byte) Integer.parseInt(chunk.getId().substring(i, i + 2), 16));
+            manifest.putInt(chunk.getLength());
+        }
+        return manifest.array();
+    }
+
+    /**
+     * The record of a delta is the magic, the number of deltas to apply to get the content, the
+     * id of the previous version and the delta. Its length is never a multiple of the size of the
+     * entries of a manifest, so it can't be mistaken for a manifest.
+     */
+    private static byte[] encodeDelta(int depth, String baseId, byte[] delta){
+        byte[] id = baseId.getBytes(StandardCharsets.UTF_8);
+        int length = DELTA_MAGIC.length + 2 + id.length + delta.length;
+        //bytes after the end of the delta are ignored
+        ByteBuffer record = ByteBuffer.allocate(length % MANIFEST_ENTRY == 0 ? length + 1 : length);
+        record.put(DELTA_MAGIC).put((byte) depth).put((byte) id.length).put(id).put(delta);
+        return record.array();
+    }
+
+    private static boolean isDelta(byte[] record){
+        if(record.length % MANIFEST_ENTRY == 0 || record.length < DELTA_MAGIC.length + 2)
+            return false;
+        for(int i = 0; i < DELTA_MAGIC.length; i++){
+            if(record[i] != DELTA_MAGIC[i])
+                return false;
+        }
+        return true;
+    }
+
+    private static String toHex(byte[] bytes){
+        StringBuilder hex = new StringBuilder();
+        for(byte b : bytes)
+            hex.append(String.format("%02x", b));
+        return hex.toString();
+    }
+
+    /**
+     * Key of a blob in the DHT, the prefix keeps blobs apart from repositories' names.
+     */
+    private static Number160 blobKey(String id){
+        return Number160.createHash("blob:" + id);
+    }
+
+    /**
+     * Key of the metadata of a repository in the DHT, every head has its own metadata
+     */
+    private static Number160 snapshotKey(String key, String head){
+        return Number160.createHash("repository:" + key + ":" + head);
+    }
+
+    /**
+     * Version of a ref, the sequence is the timestamp of the version so the latest version
+     * is the one of the last push.
+     */
+    private static Number160 versionKey(Ref ref){
+        return new Number160(ref.getSequence(), Number160.createHash(ref.getHead()));
+    }
+
+    /**
+     * Checks that every peer that answered the put stored the data with the status
+     */
+    private static boolean hasStatus(FuturePut futurePut, PutStatus status){
+        Map<PeerAddress, Map<Number640, Byte>> result = futurePut.rawResult();
+        if(result == null || result.isEmpty())
+            return false;
+        for(Map<Number640, Byte> statuses : result.values()){
+            for(Byte value : statuses.values()){
+                if(value == null || value != status.ordinal())
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Key of the ref of a repository in the DHT
+     */
+    private static Number160 refKey(String key){
+        return Number160.createHash("ref:" + key);
+    }
+
+    /**
+     * Key of the list of the pages of the history of a repository, every head has its own list
+     */
+    private static Number160 pagesKey(String key, String head){
+        return Number160.createHash("pages:" + key + ":" + head);
+    }
+
+    private static Number160 pageKey(String id){
+        return Number160.createHash("page:" + id);
+    }
+
+    /**
+     * Key of a tree object in the DHT, the id is the first 128 bits of the hash of its directory
+     */
+    private static Number160 treeKey(String id){
+        return Number160.createHash("tree:" + id);
+    }
+
+    private static Number160 chunkKey(String id){
+        return Number160.createHash("chunk:" + id);
+    }
+
+    /**
+     * Adapts a TomP2P future to a CompletableFuture, completed when the operation ends.
+     * @param future the TomP2P future
+     * @return a CompletableFuture completed with the TomP2P future itself
+     */
+    private static <F extends BaseFuture> CompletableFuture<F> toCompletableFuture(F future){
+        CompletableFuture<F> result = new CompletableFuture<>();
+        future.addListener(new BaseFutureAdapter<F>() {
+            @Override
+            public void operationComplete(F completed) {
+                result.complete(completed);
+            }
+
+            @Override
+            public void exceptionCaught(Throwable t) {
+                result.completeExceptionally(t);
+            }
+        });
+        return result;
     }
 }
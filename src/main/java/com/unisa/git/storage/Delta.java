@@ -0,0 +1,219 @@
+package com.unisa.git.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Binary delta of a content against a previous version of it, in the copy/insert encoding of
+ * xdelta. <p>
+ * The base is indexed by the rolling hash of its blocks of {@link #BLOCK} bytes, then a window
+ * of the same size slides over the new content: where the hash of the window matches a block of
+ * the base the match is extended in both directions and becomes a copy from the base, the bytes
+ * between two copies are inserted as they are. Copies shorter than {@link #MIN_COPY} are skipped,
+ * in text they are usually pieces repeated everywhere and the right copy starts a few bytes later.
+ * A file that changed by a few lines becomes a few copies and the inserted lines.
+ */
+public final class Delta {
+    static final int BLOCK = 16;
+    //shortest copy worth breaking the bytes to insert
+    static final int MIN_COPY = 2 * BLOCK;
+    //blocks with the same hash compared with the window
+    private static final int CANDIDATES = 8;
+
+    private static final int END = 0;
+    private static final int INSERT = 1;
+    private static final int COPY = 2;
+
+    private static final int PRIME = 0x01000193;
+    //PRIME to the power of BLOCK - 1, to remove the first byte of the window
+    private static final int POWER;
+    static {
+        int power = 1;
+        for(int i = 1; i < BLOCK; i++)
+            power *= PRIME;
+        POWER = power;
+    }
+
+    private Delta(){}
+
+    /**
+     * Encodes the content as a delta of the base
+     * @param base the previous version
+     * @param content the new version
+     * @return the delta, it starts with the lengths of base and content and it ends with an end operation
+     */
+    public static byte[] encode(byte[] base, byte[] content){
+        ByteArrayOutputStream out = new ByteArrayOutputStream(content.length / 8 + 16);
+        writeVarint(out, base.length);
+        writeVarint(out, content.length);
+
+        //offsets of the blocks of the base by their hash, in order
+        HashMap<Integer, List<Integer>> blocks = new HashMap<>();
+        for(int offset = 0; offset + BLOCK <= base.length; offset += BLOCK)
+            blocks.computeIfAbsent(hash(base, offset), hash -> new ArrayList<>(1)).add(offset);
+
+        int inserted = 0; //start of the bytes not covered by a copy
+        int copied = 0; //end in the base of the last copy
+        int position = 0;
+        int window = content.length >= BLOCK ? hash(content, 0) : 0;
+        while(position + BLOCK <= content.length){
+            int offset = longestMatch(blocks.get(window), copied, base, content, position);
+            if(offset >= 0){
+                int start = offset;
+                int target = position;
+                //extend back over the bytes that would be inserted
+                while(start > 0 && target > inserted && base[start - 1] == content[target - 1]){
+                    start--;
+                    target--;
+                }
+                int end = offset + matchLength(base, offset, content, position);
+                int targetEnd = position + end - offset;
+                //a short copy is usually a piece of text repeated in the base, the right copy starts later
+                if(targetEnd - target >= MIN_COPY || targetEnd == content.length){
+                    writeInsert(out, content, inserted, target - inserted);
+                    out.write(COPY);
+                    writeVarint(out, start);
+                    writeVarint(out, end - start);
+                    inserted = targetEnd;
+                    copied = end;
+                    position = targetEnd;
+                    if(position + BLOCK <= content.length)
+                        window = hash(content, position);
+                    continue;
+                }
+            }
+            if(position + BLOCK < content.length)
+                window = (window - content[position] * POWER) * PRIME + content[position + BLOCK];
+            position++;
+        }
+        writeInsert(out, content, inserted, content.length - inserted);
+        out.write(END);
+        return out.toByteArray();
+    }
+
+    /**
+     * Rebuilds the content from the base and the delta
+     * @param base the previous version, the same used to encode the delta
+     * @param delta the delta, bytes after its end operation are ignored
+     * @return the new version
+     * @throws IOException if the delta is malformed or it was made from another base
+     */
+    public static byte[] decode(byte[] base, byte[] delta) throws IOException {
+        return decode(base, ByteBuffer.wrap(delta));
+    }
+
+    static byte[] decode(byte[] base, ByteBuffer delta) throws IOException {
+        try{
+            if(readVarint(delta) != base.length)
+                throw new IOException("Delta made from another base...");
+            long length = readVarint(delta);
+            if(length > Integer.MAX_VALUE)
+                throw new IOException("Delta too large...");
+            ByteBuffer content = ByteBuffer.allocate((int) length);
+            int operation;
+            while((operation = delta.get()) != END){
+                if(operation == INSERT){
+                    int count = checkedLength(readVarint(delta), content.remaining());
+                    byte[] bytes = new byte[count];
+                    delta.get(bytes);
+                    content.put(bytes);
+                }
+                else if(operation == COPY){
+                    long offset = readVarint(delta);
+                    int count = checkedLength(readVarint(delta), content.remaining());
+                    if(offset + count > base.length)
+                        throw new IOException("Copy out of the base...");
+                    content.put(base, (int) offset, count);
+                }
+                else
+                    throw new IOException("Unknown delta operation " + operation + "...");
+            }
+            if(content.hasRemaining())
+                throw new IOException("Delta truncated...");
+            return content.array();
+        } catch(BufferUnderflowException e) {
+            throw new IOException("Delta truncated...", e);
+        }
+    }
+
+    /**
+     * Chooses among the blocks with the same hash of the window the one that matches more bytes.
+     * Only the blocks around the end of the last copy are compared, an edit usually leaves the
+     * rest of the file in the same order.
+     * @return the offset of the block, -1 if no block matches the window
+     */
+    private static int longestMatch(List<Integer> offsets, int copied, byte[] base, byte[] content, int position){
+        if(offsets == null)
+            return -1;
+        int index = Collections.binarySearch(offsets, copied);
+        if(index < 0)
+            index = -index - 1;
+        int best = -1;
+        int bestLength = BLOCK - 1;
+        for(int i = Math.max(0, index - CANDIDATES / 2); i < Math.min(offsets.size(), index + CANDIDATES / 2); i++){
+            int length = matchLength(base, offsets.get(i), content, position);
+            if(length > bestLength){
+                best = offsets.get(i);
+                bestLength = length;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Number of equal bytes from the offset in the base and the position in the content
+     */
+    private static int matchLength(byte[] base, int offset, byte[] content, int position){
+        int length = 0;
+        while(offset + length < base.length && position + length < content.length
+                && base[offset + length] == content[position + length])
+            length++;
+        return length;
+    }
+
+    private static int checkedLength(long count, int remaining) throws IOException {
+        if(count > remaining)
+            throw new IOException("Delta longer than its content...");
+        return (int) count;
+    }
+
+    private static void writeInsert(ByteArrayOutputStream out, byte[] content, int offset, int length){
+        if(length == 0)
+            return;
+        out.write(INSERT);
+        writeVarint(out, length);
+        out.write(content, offset, length);
+    }
+
+    private static int hash(byte[] bytes, int offset){
+        int hash = 0;
+        for(int i = offset; i < offset + BLOCK; i++)
+            hash = hash * PRIME + bytes[i];
+        return hash;
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value){
+        while((value & ~0x7FL) != 0){
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarint(ByteBuffer in) throws IOException {
+        long value = 0;
+        for(int shift = 0; shift < 64; shift += 7){
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if((b & 0x80) == 0)
+                return value;
+        }
+        throw new IOException("Malformed varint...");
+    }
+}
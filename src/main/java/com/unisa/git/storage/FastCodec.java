@@ -0,0 +1,140 @@
+package com.unisa.git.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Fast compression in the block format of LZ4. <p>
+ * The payload is a list of sequences, each one is a token, the literals and a match: the high
+ * half of the token is the number of literals and the low half the length of the match minus 4,
+ * both followed by bytes of 255 when they don't fit, the match is the offset back in the output
+ * (2 bytes, little endian). Matches are found with a single hash table of the last position of
+ * each 4 bytes, so compressing costs little more than copying; the ratio is lower than Deflate.
+ */
+final class FastCodec implements Codec {
+    static final int ID = 2;
+
+    private static final int MIN_MATCH = 4;
+    private static final int MAX_OFFSET = 65535;
+    //the last literals are never part of a match, as in LZ4
+    private static final int LAST_LITERALS = 5;
+    private static final int MATCH_LIMIT = 12;
+    private static final int HASH_BITS = 14;
+
+    @Override
+    public int id(){
+        return ID;
+    }
+
+    @Override
+    public byte[] compress(byte[] payload){
+        ByteArrayOutputStream out = new ByteArrayOutputStream(payload.length / 2 + 16);
+        //last position + 1 of each hash, 0 if none
+        int[] table = new int[1 << HASH_BITS];
+        int anchor = 0;
+        int position = 0;
+        while(position < payload.length - MATCH_LIMIT){
+            int hash = hash(readInt(payload, position));
+            int candidate = table[hash] - 1;
+            table[hash] = position + 1;
+            if(candidate >= 0 && position - candidate <= MAX_OFFSET && readInt(payload, candidate) == readInt(payload, position)){
+                int length = MIN_MATCH;
+                while(position + length < payload.length - LAST_LITERALS && payload[candidate + length] == payload[position + length])
+                    length++;
+                writeSequence(out, payload, anchor, position - anchor, position - candidate, length);
+                position += length;
+                anchor = position;
+            }
+            else
+                position++;
+        }
+        writeSequence(out, payload, anchor, payload.length - anchor, 0, 0);
+        return out.toByteArray();
+    }
+
+    @Override
+    public byte[] decompress(byte[] compressed, int length) throws IOException {
+        byte[] out = new byte[length];
+        int in = 0;
+        int position = 0;
+        try{
+            while(in < compressed.length){
+                int token = compressed[in++] & 0xFF;
+                int literals = token >>> 4;
+                if(literals == 15){
+                    int b;
+                    do{
+                        b = compressed[in++] & 0xFF;
+                        literals += b;
+                    } while(b == 255);
+                }
+                if(literals > compressed.length - in || literals > length - position)
+                    throw new IOException("Literals out of the payload...");
+                System.arraycopy(compressed, in, out, position, literals);
+                in += literals;
+                position += literals;
+                //the last sequence has no match
+                if(in == compressed.length)
+                    break;
+
+                int offset = (compressed[in++] & 0xFF) | (compressed[in++] & 0xFF) << 8;
+                if(offset == 0 || offset > position)
+                    throw new IOException("Match out of the payload...");
+                int match = token & 0x0F;
+                if(match == 15){
+                    int b;
+                    do{
+                        b = compressed[in++] & 0xFF;
+                        match += b;
+                    } while(b == 255);
+                }
+                match += MIN_MATCH;
+                if(match > length - position)
+                    throw new IOException("Match out of the payload...");
+                //byte by byte, the match can overlap the bytes it writes
+                for(int i = 0; i < match; i++)
+                    out[position + i] = out[position - offset + i];
+                position += match;
+            }
+        } catch(ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Payload truncated...", e);
+        }
+        if(position != length)
+            throw new IOException("Payload truncated...");
+        return out;
+    }
+
+    /**
+     * Writes the literals followed by a match, without match if its length is 0
+     */
+    private static void writeSequence(ByteArrayOutputStream out, byte[] payload, int start, int literals, int offset, int match){
+        int extra = match == 0 ? 0 : match - MIN_MATCH;
+        out.write(Math.min(literals, 15) << 4 | Math.min(extra, 15));
+        if(literals >= 15)
+            writeLength(out, literals - 15);
+        out.write(payload, start, literals);
+        if(match == 0)
+            return;
+        out.write(offset & 0xFF);
+        out.write(offset >>> 8);
+        if(extra >= 15)
+            writeLength(out, extra - 15);
+    }
+
+    private static void writeLength(ByteArrayOutputStream out, int length){
+        while(length >= 255){
+            out.write(255);
+            length -= 255;
+        }
+        out.write(length);
+    }
+
+    private static int readInt(byte[] bytes, int offset){
+        return (bytes[offset] & 0xFF) | (bytes[offset + 1] & 0xFF) << 8
+                | (bytes[offset + 2] & 0xFF) << 16 | (bytes[offset + 3] & 0xFF) << 24;
+    }
+
+    private static int hash(int value){
+        return (value * -1640531535) >>> (32 - HASH_BITS);
+    }
+}
@@ -1,18 +1,38 @@
 package com.unisa.git.storage;
 
+import java.io.UncheckedIOException;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 
+import com.unisa.git.repository.Crate;
 import com.unisa.git.repository.Repository;
 
-public class GitStorage implements Storage{
-    HashMap<String, Repository> localStorage;
+/**
+ * Local storage kept in memory. It can be used by many threads, a put is atomic.
+ * The content of the files is kept on the heap, a crate still read from its file is loaded when
+ * the repository is stored.
+ */
+public class GitStorage implements AsyncStorage{
+    ConcurrentHashMap<String, Repository> localStorage;
 
     public GitStorage(){
-        localStorage = new HashMap<>();
+        localStorage = new ConcurrentHashMap<>();
     }
 
     @Override
-    public boolean put(String key, Repository repository) {
+    public synchronized boolean put(String key, Repository repository) {
+        try{
+            for(Crate crate : repository.getCrates())
+                crate.loadContent();
+            for(Crate crate : repository.getStagedCrates())
+                crate.loadContent();
+        } catch(UncheckedIOException e) {
+            System.err.println(e.getMessage());
+            return false;
+        }
         if(localStorage.containsKey(key)){
             Repository oldRepo = localStorage.get(key);
             if(!repository.equals(oldRepo)){
@@ -33,5 +53,56 @@ public class GitStorage implements Storage{
     @Override
     public Repository get(String key) {
         return localStorage.get(key);
-    }   
-}
\ No newline at end of file
+    }
+
+    /**
+     * The local storage is in memory, the future is already completed when returned.
+     */
+    @Override
+    public CompletableFuture<Boolean> putAsync(String key, Repository repository) {
+        return CompletableFuture.completedFuture(put(key, repository));
+    }
+
+    /**
+     * The local storage is in memory, the future is already completed when returned.
+     */
+    @Override
+    public CompletableFuture<Repository> getAsync(String key) {
+        return CompletableFuture.completedFuture(get(key));
+    }
+
+    /**
+     * The local storage is in memory, the repositories are stored in a single pass.
+     */
+    @Override
+    public Map<String, Boolean> putAll(Map<String, Repository> repositories) {
+        Map<String, Boolean> results = new HashMap<>();
+        for(Map.Entry<String, Repository> entry : repositories.entrySet())
+            results.put(entry.getKey(), put(entry.getKey(), entry.getValue()));
+        return results;
+    }
+
+    /**
+     * The local storage is in memory, the repositories are searched in a single pass.
+     */
+    @Override
+    public Map<String, Repository> getAll(Collection<String> keys) {
+        Map<String, Repository> repositories = new HashMap<>();
+        for(String key : keys){
+            Repository repository = localStorage.get(key);
+            if(repository != null)
+                repositories.put(key, repository);
+        }
+        return repositories;
+    }
+
+    @Override
+    public CompletableFuture<Map<String, Boolean>> putAllAsync(Map<String, Repository> repositories) {
+        return CompletableFuture.completedFuture(putAll(repositories));
+    }
+
+    @Override
+    public CompletableFuture<Map<String, Repository>> getAllAsync(Collection<String> keys) {
+        return CompletableFuture.completedFuture(getAll(keys));
+    }
+}
@@ -0,0 +1,694 @@
+package com.unisa.git.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import com.unisa.git.repository.BlobSource;
+import com.unisa.git.repository.Crate;
+import com.unisa.git.repository.Repository;
+import com.unisa.git.repository.RepositoryCodec;
+
+/**
+ * Local storage kept on disk, so repositories survive the end of the process. <p>
+ * Objects are appended to a pack file: the metadata of a repository,
+ * encoded with the {@link RepositoryCodec} and stored under its name with the index of its
+ * working directory, and the content of the crates, stored under their ids so the same content
+ * is written once. Crates read from the pack don't hold their content, it's mapped from the
+ * pack only when it's needed. A memory-mapped index (an open addressing hash table) maps the
+ * hash of a key to the last record written for it, so opening the storage doesn't read the pack. If the process stops after appending a record
+ * but before indexing it, the record is indexed the next time the storage is opened. <p>
+ * A new record of a key makes the old one dead, when the dead records are more than half of the
+ * pack the live ones are copied in a new pack that replaces the old one. The names of the repositories
+ * are kept in a record of their own, so the compaction also drops the blobs that no stored repository
+ * references anymore, like the old versions of a file changed and committed.
+ */
+public class PackStorage implements AsyncStorage, Closeable {
+    private static final String PACK = "objects.pack";
+    private static final String INDEX = "objects.idx";
+
+    //record: marker, hash of the key, length of the payload, payload
+    private static final byte RECORD = 'O';
+    private static final int RECORD_HEADER = 1 + 32 + 4;
+
+    //index header: magic, version, slots, used slots, bytes of the pack already indexed, bytes of dead records
+    private static final int INDEX_MAGIC = 0x50494458;
+    private static final int INDEX_VERSION = 1;
+    private static final int INDEX_HEADER = 32;
+    //slot: hash of the key, offset of the record, length of the payload, occupied flag
+    private static final int SLOT = 48;
+    private static final int INITIAL_SLOTS = 1024;
+    //the pack is compacted only when its dead records are at least this many bytes
+    static final long COMPACT_MIN = 64 * 1024;
+    //repositories kept decoded, the least recently used ones are read again from the pack
+    private static final int MAX_CACHED = 16;
+    //key of the record with the names of the stored repositories
+    private static final byte[] NAMES = hash("repositories");
+
+    private final Path directory;
+    private FileChannel pack;
+    private MappedByteBuffer index;
+    private int slots;
+    private int used;
+    //blobs being copied from the pack, the pack isn't compacted under them
+    private int transfers;
+    //repositories already read from the pack, in access order
+    private final LinkedHashMap<String, Repository> repositories;
+    //names of the repositories stored in the pack
+    private final Set<String> names = new LinkedHashSet<>();
+
+    public PackStorage(Path directory) throws IOException {
+        this.directory = directory;
+        this.repositories = new LinkedHashMap<String, Repository>(16, 0.75f, true){
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Repository> eldest){
+                return size() > MAX_CACHED;
+            }
+        };
+        Files.createDirectories(directory);
+        this.pack = openPack();
+        openIndex();
+        recover();
+        byte[] stored = read(NAMES);
+        if(stored != null && stored.length > 0)
+            names.addAll(Arrays.asList(new String(stored, StandardCharsets.UTF_8).split("\n")));
+    }
+
+    /**
+     * Stores the content of the crates that aren't in the pack yet, then the metadata of the
+     * repository and the index of its working directory. Nothing is written if metadata and
+     * index didn't change.
+     */
+    @Override
+    public synchronized boolean put(String key, Repository repository) {
+        try{
+            boolean written = write(key, repository);
+            if(written){
+                pack.force(false);
+                compactIfNeeded();
+            }
+            return written;
+        } catch(IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Stores the repositories like {@link #put(String, Repository)}, the pack is forced to disk
+     * once for all of them.
+     */
+    @Override
+    public synchronized Map<String, Boolean> putAll(Map<String, Repository> repositories) {
+        Map<String, Boolean> results = new HashMap<>();
+        boolean written = false;
+        for(Map.Entry<String, Repository> entry : repositories.entrySet()){
+            try{
+                boolean result = write(entry.getKey(), entry.getValue());
+                results.put(entry.getKey(), result);
+                written |= result;
+            } catch(IOException e) {
+                e.printStackTrace();
+                results.put(entry.getKey(), false);
+            }
+        }
+        if(written){
+            try{
+                pack.force(false);
+                compactIfNeeded();
+            } catch(IOException e) {
+                e.printStackTrace();
+                for(String key : repositories.keySet())
+                    results.put(key, false);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Appends the records of the repository to the pack, without forcing them to disk
+     * @return true if something was written
+     */
+    private boolean write(String key, Repository repository) throws IOException {
+        boolean written = false;
+        List<Crate> crates = new ArrayList<>(repository.getCrates());
+        crates.addAll(repository.getStagedCrates());
+        for(Crate crate : crates){
+            byte[] blobKey = hash("blob:" + crate.getId());
+            int slot = find(blobKey);
+            if(slot < 0){
+                //without its content the repository couldn't be read back
+                if(crate.getSize() < 0)
+                    throw new IOException("Content of " + crate.getName() + " is missing, it can't be stored...");
+                append(blobKey, crate);
+                written = true;
+                slot = find(blobKey);
+            }
+            //the content is in the pack now, the crate doesn't need to keep it on the heap
+            crate.attachSource(blob(blobKey, slot));
+        }
+
+        repositories.put(key, repository);
+        if(names.add(key)){
+            try{
+                append(NAMES, String.join("\n", names).getBytes(StandardCharsets.UTF_8));
+            } catch(IOException e) {
+                names.remove(key);
+                throw e;
+            }
+            written = true;
+        }
+        byte[] repositoryKey = hash("repository:" + key);
+        byte[] metadata = RepositoryCodec.encode(repository, false);
+        //nothing is written if the repository is equal to the stored one
+        byte[] stored = read(repositoryKey);
+        if(!Arrays.equals(metadata, stored)){
+            if(stored != null)
+                index.putLong(24, index.getLong(24) + unreferenced(stored, crates));
+            append(repositoryKey, metadata);
+            written = true;
+        }
+        byte[] indexKey = hash("index:" + key);
+        byte[] index = RepositoryCodec.encodeIndex(repository);
+        if(!Arrays.equals(index, read(indexKey))){
+            append(indexKey, index);
+            written = true;
+        }
+        return written;
+    }
+
+    /**
+     * Returns the repository, it's read from the pack only the first time. The content of the
+     * crates is left in the pack and mapped in memory when it's needed.
+     */
+    @Override
+    public synchronized Repository get(String key) {
+        Repository repository = repositories.get(key);
+        if(repository != null)
+            return repository;
+        try{
+            byte[] metadata = read(hash("repository:" + key));
+            if(metadata == null)
+                return null;
+            repository = RepositoryCodec.decode(metadata);
+            List<Crate> crates = new ArrayList<>(repository.getCrates());
+            crates.addAll(repository.getStagedCrates());
+            for(Crate crate : crates){
+                byte[] blobKey = hash("blob:" + crate.getId());
+                int slot = find(blobKey);
+                if(slot < 0)
+                    throw new IOException("Content of " + crate.getName() + " is missing from the pack...");
+                crate.attachSource(blob(blobKey, slot));
+            }
+            byte[] index = read(hash("index:" + key));
+            if(index != null){
+                try{
+                    RepositoryCodec.decodeIndex(repository, index);
+                } catch(IOException e) {
+                    //the index is only a cache, the files will be read again
+                    System.err.println(e.getMessage());
+                }
+            }
+            repositories.put(key, repository);
+            return repository;
+        } catch(IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Disk operations are short, the future is completed before being returned.
+     */
+    @Override
+    public CompletableFuture<Boolean> putAsync(String key, Repository repository) {
+        return CompletableFuture.completedFuture(put(key, repository));
+    }
+
+    /**
+     * Disk operations are short, the future is completed before being returned.
+     */
+    @Override
+    public CompletableFuture<Repository> getAsync(String key) {
+        return CompletableFuture.completedFuture(get(key));
+    }
+
+    @Override
+    public CompletableFuture<Map<String, Boolean>> putAllAsync(Map<String, Repository> repositories) {
+        return CompletableFuture.completedFuture(putAll(repositories));
+    }
+
+    /**
+     * Searches the repositories one after the other, reading from disk is short
+     */
+    @Override
+    public synchronized Map<String, Repository> getAll(Collection<String> keys) {
+        Map<String, Repository> repositories = new HashMap<>();
+        for(String key : keys){
+            Repository repository = get(key);
+            if(repository != null)
+                repositories.put(key, repository);
+        }
+        return repositories;
+    }
+
+    @Override
+    public CompletableFuture<Map<String, Repository>> getAllAsync(Collection<String> keys) {
+        return CompletableFuture.completedFuture(getAll(keys));
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        index.force();
+        pack.close();
+    }
+
+    /**
+     * Appends a record to the pack and indexes it
+     * @param key hash of the key
+     * @param payload content of the record
+     */
+    private void append(byte[] key, byte[] payload) throws IOException {
+        long offset = pack.size();
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER + payload.length);
+        record.put(RECORD).put(key).putInt(payload.length).put(payload);
+        record.flip();
+        while(record.hasRemaining())
+            pack.write(record, offset + record.position());
+        insert(key, offset, payload.length);
+        index.putLong(16, offset + RECORD_HEADER + payload.length);
+    }
+
+    /**
+     * Appends the content of a crate to the pack and indexes it, the content is copied from
+     * where the crate keeps it, the working directory or the heap
+     * @param key hash of the key
+     * @param crate the crate with the content
+     */
+    private void append(byte[] key, Crate crate) throws IOException {
+        long offset = pack.size();
+        long length = crate.getSize();
+        if(length > Integer.MAX_VALUE - RECORD_HEADER)
+            throw new IOException(crate.getName() + " is too large...");
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER);
+        header.put(RECORD).put(key).putInt((int) length);
+        header.flip();
+        while(header.hasRemaining())
+            pack.write(header, offset + header.position());
+        pack.position(offset + RECORD_HEADER);
+        try{
+            crate.writeTo(pack);
+            if(pack.size() != offset + RECORD_HEADER + length)
+                throw new IOException("Content of " + crate.getName() + " changed while being stored...");
+        } catch(IOException e) {
+            //the record isn't indexed, it's cut away
+            pack.truncate(offset);
+            throw e;
+        }
+        insert(key, offset, (int) length);
+        index.putLong(16, offset + RECORD_HEADER + length);
+    }
+
+    /**
+     * Content of a blob in the pack, the record is looked up by its key at every read because
+     * a compaction moves it. A region already mapped stays valid after the compaction.
+     */
+    private class PackedBlob implements BlobSource {
+        private final byte[] key;
+        private final int length;
+
+        PackedBlob(byte[] key, int length){
+            this.key = key;
+            this.length = length;
+        }
+
+        @Override
+        public long size(){
+            return length;
+        }
+
+        @Override
+        public ByteBuffer read() throws IOException {
+            synchronized(PackStorage.this){
+                return pack.map(FileChannel.MapMode.READ_ONLY, offset() + RECORD_HEADER, length);
+            }
+        }
+
+        @Override
+        public void transferTo(WritableByteChannel target) throws IOException {
+            FileChannel channel;
+            long position;
+            //the pack isn't replaced while the transfer goes on, see compactIfNeeded()
+            synchronized(PackStorage.this){
+                channel = pack;
+                position = offset() + RECORD_HEADER;
+                transfers++;
+            }
+            try{
+                //the kernel copies from the pack to the target, the content doesn't pass through the heap
+                long end = position + length;
+                while(position < end){
+                    long sent = channel.transferTo(position, end - position, target);
+                    if(sent <= 0)
+                        throw new IOException("Pack truncated...");
+                    position += sent;
+                }
+            } finally {
+                synchronized(PackStorage.this){
+                    transfers--;
+                }
+            }
+        }
+
+        private long offset() throws IOException {
+            int slot = find(key);
+            if(slot < 0)
+                throw new IOException("Blob missing from the pack...");
+            return index.getLong(INDEX_HEADER + slot * SLOT + 32);
+        }
+    }
+
+    private BlobSource blob(byte[] key, int slot){
+        return new PackedBlob(key, index.getInt(INDEX_HEADER + slot * SLOT + 40));
+    }
+
+    /**
+     * Reads the payload of the last record written with the key
+     * @param key hash of the key
+     * @return the payload, null if no record has the key
+     */
+    private byte[] read(byte[] key) throws IOException {
+        int slot = find(key);
+        if(slot < 0)
+            return null;
+        int position = INDEX_HEADER + slot * SLOT;
+        long offset = index.getLong(position + 32);
+        ByteBuffer payload = ByteBuffer.allocate(index.getInt(position + 40));
+        while(payload.hasRemaining()){
+            if(pack.read(payload, offset + RECORD_HEADER + payload.position()) < 0)
+                throw new IOException("Pack truncated...");
+        }
+        return payload.array();
+    }
+
+    /**
+     * Looks for the slot of the key
+     * @return the slot, -1 if the key isn't indexed
+     */
+    private int find(byte[] key){
+        int slot = firstSlot(key, slots);
+        while(index.getInt(INDEX_HEADER + slot * SLOT + 44) != 0){
+            if(sameKey(index, INDEX_HEADER + slot * SLOT, key))
+                return slot;
+            slot = (slot + 1) % slots;
+        }
+        return -1;
+    }
+
+    /**
+     * Indexes a record, the slot of the key is overwritten if the key is already indexed,
+     * so the index always points to the last record.
+     */
+    private void insert(byte[] key, long offset, int length) throws IOException {
+        if((used + 1) * 10 > slots * 7)
+            resize(slots * 2);
+        int slot = firstSlot(key, slots);
+        while(index.getInt(INDEX_HEADER + slot * SLOT + 44) != 0 && !sameKey(index, INDEX_HEADER + slot * SLOT, key))
+            slot = (slot + 1) % slots;
+        int position = INDEX_HEADER + slot * SLOT;
+        if(index.getInt(position + 44) == 0){
+            used++;
+            index.putInt(12, used);
+        }
+        //the record replaced is dead
+        else index.putLong(24, index.getLong(24) + RECORD_HEADER + index.getInt(position + 40));
+        for(int i = 0; i < 32; i++)
+            index.put(position + i, key[i]);
+        index.putLong(position + 32, offset);
+        index.putInt(position + 40, length);
+        index.putInt(position + 44, 1);
+    }
+
+    /**
+     * Opens the index, a missing or unreadable index is created again from the pack
+     */
+    private void openIndex() throws IOException {
+        Path path = directory.resolve(INDEX);
+        if(Files.exists(path)){
+            try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)){
+                if(channel.size() >= INDEX_HEADER){
+                    MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, INDEX_HEADER);
+                    int count = header.getInt(8);
+                    if(header.getInt(0) == INDEX_MAGIC && header.getInt(4) == INDEX_VERSION && count > 0
+                            && channel.size() == INDEX_HEADER + (long) count * SLOT && header.getLong(16) <= pack.size()){
+                        index = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+                        slots = count;
+                        used = index.getInt(12);
+                        return;
+                    }
+                }
+            }
+        }
+        index = createIndex(path, INITIAL_SLOTS);
+        slots = INITIAL_SLOTS;
+        used = 0;
+    }
+
+    private static MappedByteBuffer createIndex(Path path, int slots) throws IOException {
+        Files.deleteIfExists(path);
+        try(FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)){
+            MappedByteBuffer index = channel.map(FileChannel.MapMode.READ_WRITE, 0, INDEX_HEADER + (long) slots * SLOT);
+            index.putInt(0, INDEX_MAGIC);
+            index.putInt(4, INDEX_VERSION);
+            index.putInt(8, slots);
+            index.putInt(12, 0);
+            index.putLong(16, 0);
+            index.putLong(24, 0);
+            return index;
+        }
+    }
+
+    /**
+     * Moves the slots in a bigger index, the new index replaces the old one only when complete
+     */
+    private void resize(int newSlots) throws IOException {
+        Path temporary = directory.resolve(INDEX + ".tmp");
+        MappedByteBuffer bigger = createIndex(temporary, newSlots);
+        for(int slot = 0; slot < slots; slot++){
+            int position = INDEX_HEADER + slot * SLOT;
+            if(index.getInt(position + 44) == 0)
+                continue;
+            byte[] key = new byte[32];
+            for(int i = 0; i < 32; i++)
+                key[i] = index.get(position + i);
+            int target = firstSlot(key, newSlots);
+            while(bigger.getInt(INDEX_HEADER + target * SLOT + 44) != 0)
+                target = (target + 1) % newSlots;
+            for(int i = 0; i < SLOT; i++)
+                bigger.put(INDEX_HEADER + target * SLOT + i, index.get(position + i));
+        }
+        bigger.putInt(12, used);
+        bigger.putLong(16, index.getLong(16));
+        bigger.putLong(24, index.getLong(24));
+        bigger.force();
+        Files.move(temporary, directory.resolve(INDEX), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        index = bigger;
+        slots = newSlots;
+    }
+
+    /**
+     * Bytes of the blobs that the stored version of a repository references and the new one doesn't,
+     * they are counted as dead even if another repository still references them, the compaction
+     * finds out which ones are really dead
+     * @param stored metadata of the stored version
+     * @param crates crates of the new version
+     */
+    private long unreferenced(byte[] stored, List<Crate> crates){
+        Repository old;
+        try{
+            old = RepositoryCodec.decode(stored);
+        } catch(IOException e) {
+            return 0;
+        }
+        Set<String> ids = new HashSet<>();
+        for(Crate crate : crates)
+            ids.add(crate.getId());
+        List<Crate> oldCrates = new ArrayList<>(old.getCrates());
+        oldCrates.addAll(old.getStagedCrates());
+        long bytes = 0;
+        for(Crate crate : oldCrates){
+            int slot = ids.add(crate.getId()) ? find(hash("blob:" + crate.getId())) : -1;
+            if(slot >= 0)
+                bytes += RECORD_HEADER + index.getInt(INDEX_HEADER + slot * SLOT + 40);
+        }
+        return bytes;
+    }
+
+    /**
+     * Keys of the records the stored repositories need: the names, metadata and index of each
+     * repository and the blobs of its crates. These are all the kinds of record of the pack.
+     * @return the hashes of the keys, null if a repository can't be read and every record must be kept
+     */
+    private Set<ByteBuffer> liveKeys() throws IOException {
+        if(read(NAMES) == null)
+            return null;
+        Set<ByteBuffer> live = new HashSet<>();
+        live.add(ByteBuffer.wrap(NAMES));
+        for(String name : names){
+            byte[] repositoryKey = hash("repository:" + name);
+            live.add(ByteBuffer.wrap(repositoryKey));
+            live.add(ByteBuffer.wrap(hash("index:" + name)));
+            byte[] metadata = read(repositoryKey);
+            if(metadata == null)
+                continue;
+            Repository repository;
+            try{
+                repository = RepositoryCodec.decode(metadata);
+            } catch(IOException e) {
+                System.err.println(e.getMessage());
+                return null;
+            }
+            List<Crate> crates = new ArrayList<>(repository.getCrates());
+            crates.addAll(repository.getStagedCrates());
+            for(Crate crate : crates)
+                live.add(ByteBuffer.wrap(hash("blob:" + crate.getId())));
+        }
+        return live;
+    }
+
+    /**
+     * Compacts the pack if the dead records are more than half of it and no blob is being
+     * copied from it, otherwise the next write tries again. The records written are safe
+     * even if the compaction fails.
+     */
+    private void compactIfNeeded(){
+        long dead = index.getLong(24);
+        try{
+            if(dead >= COMPACT_MIN && dead * 2 > pack.size() && transfers == 0)
+                compact();
+        } catch(IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Copies the live records in a new pack that replaces the old one, the blobs that no repository
+     * references are left out. The index is removed
+     * before the pack is replaced and it's created again from the new pack, so if the process stops
+     * in between the pack, new or old, is indexed again when the storage is opened.
+     */
+    private void compact() throws IOException {
+        Set<ByteBuffer> live = liveKeys();
+        Path temporary = directory.resolve(PACK + ".tmp");
+        Files.deleteIfExists(temporary);
+        try(FileChannel compacted = FileChannel.open(temporary, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)){
+            byte[] key = new byte[32];
+            for(int slot = 0; slot < slots; slot++){
+                int position = INDEX_HEADER + slot * SLOT;
+                if(index.getInt(position + 44) == 0)
+                    continue;
+                for(int i = 0; i < 32; i++)
+                    key[i] = index.get(position + i);
+                if(live != null && !live.contains(ByteBuffer.wrap(key)))
+                    continue;
+                long offset = index.getLong(position + 32);
+                long end = offset + RECORD_HEADER + index.getInt(position + 40);
+                while(offset < end){
+                    long sent = pack.transferTo(offset, end - offset, compacted);
+                    if(sent <= 0)
+                        throw new IOException("Pack truncated...");
+                    offset += sent;
+                }
+            }
+            compacted.force(true);
+        }
+        Files.delete(directory.resolve(INDEX));
+        pack.close();
+        try{
+            Files.move(temporary, directory.resolve(PACK), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            //the new pack, or the old one if it wasn't replaced
+            pack = openPack();
+            index = createIndex(directory.resolve(INDEX), slots);
+            used = 0;
+            recover();
+            index.force();
+        }
+    }
+
+    private FileChannel openPack() throws IOException {
+        return FileChannel.open(directory.resolve(PACK),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Indexes the records appended after the last indexed one, a record written only in part
+     * is cut away.
+     */
+    private void recover() throws IOException {
+        long offset = index.getLong(16);
+        long size = pack.size();
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER);
+        while(offset < size){
+            header.clear();
+            while(header.hasRemaining() && pack.read(header, offset + header.position()) >= 0);
+            header.flip();
+            if(header.remaining() < RECORD_HEADER || header.get() != RECORD)
+                break;
+            byte[] key = new byte[32];
+            header.get(key);
+            int length = header.getInt();
+            if(length < 0 || offset + RECORD_HEADER + length > size)
+                break;
+            insert(key, offset, length);
+            offset += RECORD_HEADER + length;
+            index.putLong(16, offset);
+        }
+        if(offset < size)
+            pack.truncate(offset);
+        index.putLong(16, offset);
+    }
+
+    private static int firstSlot(byte[] key, int slots){
+        int value = ((key[0] & 0xFF) << 24) | ((key[1] & 0xFF) << 16) | ((key[2] & 0xFF) << 8) | (key[3] & 0xFF);
+        return (value & 0x7FFFFFFF) % slots;
+    }
+
+    private static boolean sameKey(ByteBuffer index, int position, byte[] key){
+        for(int i = 0; i < 32; i++){
+            if(index.get(position + i) != key[i])
+                return false;
+        }
+        return true;
+    }
+
+    private static byte[] hash(String key){
+        try{
+            return MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+        } catch(NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.unisa.git.storage;
+
+import java.util.concurrent.CompletableFuture;
+
+import com.unisa.git.repository.History;
+import com.unisa.git.repository.Ref;
+import com.unisa.git.repository.Repository;
+
+/**
+ * A storage shared by the peers. Besides the repositories it keeps the {@link Ref} of each one,
+ * a small record that can be read without downloading the repository. Since many peers write
+ * the same repository, a push replaces the ref only if it didn't change in the meantime.
+ */
+public interface RemoteStorage extends AsyncStorage {
+
+    /**
+     * Search the ref of the repository with the key
+     * @param key key needed to locate the repository
+     * @return a future completed with the ref of the repository, null if it's not stored
+     */
+    public CompletableFuture<Ref> getRefAsync(String key);
+
+    /**
+     * Stores the repository only if its ref is still the expected one, so a push never
+     * overwrites the push of another peer.
+     * @param key key needed to locate the repository
+     * @param repository the repository to store
+     * @param expected the ref read before pushing, null if the repository is not stored yet
+     * @return a future completed with true if stored, false if the ref changed or the put failed
+     */
+    public CompletableFuture<Boolean> pushAsync(String key, Repository repository, Ref expected);
+
+    /**
+     * Reads the repository to update the local one, a storage that can compare the two
+     * repositories returns only the files that differ from the local ones, which is enough
+     * for {@link Repository#update(Repository)}. By default the whole repository is read.
+     * @param key key needed to locate the repository
+     * @param local the local repository
+     * @return a future completed with the repository, null if it's not stored
+     */
+    public default CompletableFuture<Repository> syncAsync(String key, Repository local){
+        return syncAsync(key, local, 0);
+    }
+
+    /**
+     * Reads the repository to update the local one with only the last commits of its history,
+     * see {@link #syncAsync(String, Repository)}. By default the whole repository is read and
+     * its history is cut with {@link History#truncate(Repository, int, Repository)}.
+     * @param key key needed to locate the repository
+     * @param local the local repository
+     * @param depth the number of commits to read, 0 for the whole history
+     * @return a future completed with the repository, null if it's not stored
+     */
+    public default CompletableFuture<Repository> syncAsync(String key, Repository local, int depth){
+        return getAsync(key).thenApply(repository -> {
+            if(repository != null)
+                History.truncate(repository, depth, local);
+            return repository;
+        });
+    }
+}
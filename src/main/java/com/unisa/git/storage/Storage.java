@@ -1,5 +1,9 @@
 package com.unisa.git.storage;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
 import com.unisa.git.repository.Repository;
 
 /**
@@ -23,4 +27,31 @@ public interface Storage {
      * @return the repository with the same key, null otherwise
      */
     public Repository get(String key);
+
+    /**
+     * Put many repositories in the storage, by default one after the other
+     * @param repositories repositories to store by key
+     * @return the result of the put of each repository by key
+     */
+    public default Map<String, Boolean> putAll(Map<String, Repository> repositories){
+        Map<String, Boolean> results = new HashMap<>();
+        for(Map.Entry<String, Repository> entry : repositories.entrySet())
+            results.put(entry.getKey(), put(entry.getKey(), entry.getValue()));
+        return results;
+    }
+
+    /**
+     * Search many repositories in the storage, by default one after the other
+     * @param keys keys needed to locate the repositories
+     * @return the repositories found by key, keys without repository are left out
+     */
+    public default Map<String, Repository> getAll(Collection<String> keys){
+        Map<String, Repository> repositories = new HashMap<>();
+        for(String key : keys){
+            Repository repository = get(key);
+            if(repository != null)
+                repositories.put(key, repository);
+        }
+        return repositories;
+    }
 }
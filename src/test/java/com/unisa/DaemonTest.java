@@ -0,0 +1,121 @@
+package com.unisa;
+
+import org.junit.jupiter.api.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.unisa.git.GitProtocolImpl;
+import com.unisa.git.storage.DHTStorage;
+
+/**
+ * This test class is made to test a daemon serving the commands of many clients, two repositories
+ * are created, committed and pushed at the same time through the same peer.
+ */
+public class DaemonTest {
+    private static final int REPOSITORIES = 2;
+    private static Daemon daemon;
+    private static Thread server;
+
+    @BeforeAll
+    static void start() throws IOException{
+        daemon = new Daemon(new GitProtocolImpl(new DHTStorage(40, "127.0.0.1")), 0, 4);
+        server = new Thread(daemon::serve);
+        server.start();
+    }
+
+    @AfterAll
+    static void stop() throws Exception{
+        daemon.close();
+        server.join();
+    }
+
+    @AfterEach
+    void cleanse(){
+        for(int i = 0; i < REPOSITORIES; i++)
+            deleteFiles(pathOf(i).toFile());
+    }
+
+    @Test
+    void testCaseRepositoriesServedTogether() throws Exception{
+        ExecutorService clients = Executors.newFixedThreadPool(REPOSITORIES);
+        try{
+            List<Future<List<String>>> outputs = new ArrayList<>();
+            for(int i = 0; i < REPOSITORIES; i++){
+                int client = i;
+                outputs.add(clients.submit(() -> {
+                    Path directory = pathOf(client);
+                    Files.createDirectories(directory);
+                    String repo = "daemon" + client;
+                    List<String> output = new ArrayList<>();
+                    output.add(send("create " + repo + " " + directory));
+                    Path file = directory.resolve(repo).resolve("file");
+                    Files.write(file, ("content of client " + client).getBytes(StandardCharsets.UTF_8));
+                    output.add(send("add " + repo + " " + file));
+                    output.add(send("commit " + repo + " first commit"));
+                    output.add(send("push " + repo));
+                    return output;
+                }));
+            }
+            for(Future<List<String>> output : outputs){
+                List<String> result = output.get();
+                assertEquals("Repository created successfully!\n\n", result.get(0));
+                assertEquals("Added files successfully!\n\n", result.get(1));
+                assertEquals("Commit made successfully!\n\n", result.get(2));
+                assertEquals("Created new remote repository, pushed all files successfully!\n\n", result.get(3));
+            }
+        } finally {
+            clients.shutdown();
+        }
+    }
+
+    @Test
+    void testCaseUnknownCommand() throws Exception{
+        assertEquals("Command not found.\n", send("fetch daemon0"));
+    }
+
+    private static String send(String command) throws IOException{
+        try(Socket socket = new Socket(InetAddress.getLoopbackAddress(), daemon.getPort())){
+            OutputStream out = socket.getOutputStream();
+            out.write((command + "\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            InputStream in = socket.getInputStream();
+            ByteArrayOutputStream response = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int read;
+            while((read = in.read(buffer)) != -1)
+                response.write(buffer, 0, read);
+            return new String(response.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static Path pathOf(int client){
+        return Paths.get(System.getProperty("user.dir"), "client" + client);
+    }
+
+    private void deleteFiles(File file){
+        File[] files = file.listFiles();
+        if(files != null){
+            for(File f: files){
+                deleteFiles(f);
+            }
+        }
+        file.delete();
+    }
+}
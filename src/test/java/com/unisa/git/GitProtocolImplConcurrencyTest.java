@@ -0,0 +1,143 @@
+package com.unisa.git;
+
+import org.junit.jupiter.api.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.unisa.git.storage.DHTStorage;
+
+/**
+ * This test class is made to test concurrent pushes on the same repository from 4 peers,
+ * only one push must succeed and the others must be told to pull.
+ */
+public class GitProtocolImplConcurrencyTest {
+    private static final int PEERS = 4;
+    private static GitProtocolImpl[] peers = new GitProtocolImpl[PEERS];
+
+    //Push messages
+    private static final String pushOk = "Pushed all files successfully!\n";
+    private static final String pushOutOfDate = "The repository is out of date, do a pull before pushing...\n";
+    private static final String pushCreateRepo = "Created new remote repository, pushed all files successfully!\n";
+
+    //Pull messages
+    private static final String pullOk = "All up to date!\n";
+    private static final String pullNoConflicts = "Pulled, no conflicts are present!\n";
+
+    public GitProtocolImplConcurrencyTest() throws IOException{
+        for(int i = 0; i < PEERS; i++){
+            peers[i] = new GitProtocolImpl(new DHTStorage(20 + i, "127.0.0.1"));
+            deleteFiles(pathOf(i).toFile());
+            Files.createDirectory(pathOf(i));
+        }
+    }
+
+    @AfterEach
+    void cleanse(){
+        for(int i = 0; i < PEERS; i++)
+            deleteFiles(pathOf(i).toFile());
+    }
+
+    @Test
+    void testCaseConcurrentPushes() throws Exception{
+        String repo = "contended";
+        assertTrue(peers[0].createRepository(repo, pathOf(0).toFile()));
+        assertTrue(peers[0].addFilesToRepository(repo, write(0, repo, "base", "base content")));
+        assertTrue(peers[0].commit(repo, "base"));
+        assertEquals(pushCreateRepo, peers[0].push(repo));
+        for(int i = 1; i < PEERS; i++){
+            assertTrue(peers[i].createRepository(repo, pathOf(i).toFile()));
+            assertEquals(pullNoConflicts, peers[i].pull(repo));
+        }
+
+        //every peer commits its own file, then all of them push at the same time
+        for(int i = 0; i < PEERS; i++){
+            assertTrue(peers[i].addFilesToRepository(repo, write(i, repo, "file" + i, "content of peer " + i)));
+            assertTrue(peers[i].commit(repo, "commit of peer " + i));
+        }
+        List<String> results = pushTogether(repo);
+        assertEquals(1, results.stream().filter(pushOk::equals).count());
+        assertEquals(PEERS - 1, results.stream().filter(pushOutOfDate::equals).count());
+
+        //the others pull and push one after the other, no update is lost
+        for(int i = 0; i < PEERS; i++){
+            if(results.get(i).equals(pushOk))
+                continue;
+            assertEquals(pullNoConflicts, peers[i].pull(repo));
+            assertEquals(pushOk, peers[i].push(repo));
+        }
+        int last = PEERS - 1;
+        String pull = peers[last].pull(repo);
+        assertTrue(pull.equals(pullNoConflicts) || pull.equals(pullOk));
+        List<String> tracked = peers[last].statusGetTrackedFiles(repo);
+        List<String> testTracked = Arrays.asList("base", "file0", "file1", "file2", "file3");
+        assertTrue(tracked.containsAll(testTracked) && testTracked.containsAll(tracked));
+    }
+
+    @Test
+    void testCaseConcurrentCreation() throws Exception{
+        String repo = "created";
+        for(int i = 0; i < PEERS; i++){
+            assertTrue(peers[i].createRepository(repo, pathOf(i).toFile()));
+            assertTrue(peers[i].addFilesToRepository(repo, write(i, repo, "file" + i, "content of peer " + i)));
+            assertTrue(peers[i].commit(repo, "first commit of peer " + i));
+        }
+        List<String> results = pushTogether(repo);
+        assertEquals(1, results.stream().filter(pushCreateRepo::equals).count());
+        assertEquals(PEERS - 1, results.stream().filter(pushOutOfDate::equals).count());
+    }
+
+    private static List<String> pushTogether(String repo) throws Exception{
+        ExecutorService executor = Executors.newFixedThreadPool(PEERS);
+        CountDownLatch start = new CountDownLatch(1);
+        try{
+            List<Future<String>> pushes = new ArrayList<>();
+            for(GitProtocolImpl peer : peers){
+                pushes.add(executor.submit(() -> {
+                    start.await();
+                    return peer.push(repo);
+                }));
+            }
+            start.countDown();
+            List<String> results = new ArrayList<>();
+            for(Future<String> push : pushes)
+                results.add(push.get());
+            return results;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static List<File> write(int peer, String repo, String filename, String content) throws IOException{
+        Path path = Paths.get(pathOf(peer).toString(), repo, filename);
+        Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+        return new ArrayList<>(Arrays.asList(path.toFile()));
+    }
+
+    private static Path pathOf(int peer){
+        return Paths.get(System.getProperty("user.dir"), "contention" + peer);
+    }
+
+    private void deleteFiles(File file){
+        File[] files = file.listFiles();
+        if(files != null){
+            for(File f: files){
+                deleteFiles(f);
+            }
+        }
+        file.delete();
+    }
+}
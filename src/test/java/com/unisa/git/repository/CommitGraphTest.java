@@ -0,0 +1,156 @@
+package com.unisa.git.repository;
+
+import org.junit.jupiter.api.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests of the history of the repositories: parents, ancestry, merge base and pulls of
+ * histories that moved forward or split.
+ */
+public class CommitGraphTest {
+    private Path directory;
+
+    @BeforeEach
+    void createDirectory() throws IOException{
+        directory = Files.createTempDirectory("graph");
+    }
+
+    @AfterEach
+    void deleteDirectory(){
+        deleteFiles(directory.toFile());
+    }
+
+    @Test
+    void testCaseLongHistory(){
+        Repository repository = new Repository("long", "/long", "null");
+        Commit base = chain(repository, null, 100000);
+        Commit left = chain(repository, base, 5);
+        Commit right = chain(repository, base, 7);
+        Commit first = repository.commits.get(0);
+
+        assertTrue(repository.isAncestor(first.getId(), base.getId()));
+        assertTrue(repository.isAncestor(base.getId(), left.getId()));
+        assertFalse(repository.isAncestor(left.getId(), right.getId()));
+        assertFalse(repository.isAncestor(left.getId(), base.getId()));
+        assertEquals(base, repository.mergeBase(left.getId(), right.getId()));
+        assertEquals(base, repository.mergeBase(base.getId(), right.getId()));
+        assertEquals(left, repository.mergeBase(left.getId(), left.getId()));
+        assertNull(repository.mergeBase(left.getId(), "missing"));
+        assertTrue(repository.checkLastCommit(new Ref(right.getId(), "null", 1)));
+    }
+
+    @Test
+    void testCaseCommitsHaveParents() throws Exception{
+        Repository repository = new Repository("repo", directory.toFile());
+        commitFile(repository, "a.txt", "first");
+        commitFile(repository, "a.txt", "second");
+        Commit first = repository.commits.get(0);
+        Commit second = repository.commits.get(1);
+
+        assertTrue(first.getParents().isEmpty());
+        assertEquals(1, first.getGeneration());
+        assertEquals(Arrays.asList(first.getId()), second.getParents());
+        assertEquals(2, second.getGeneration());
+        assertTrue(repository.isAncestor(first.getId(), second.getId()));
+    }
+
+    @Test
+    void testCasePullJoinsHistories() throws Exception{
+        Repository local = new Repository("repo", directory.toFile());
+        commitFile(local, "a.txt", "base");
+        Commit base = local.commits.get(0);
+
+        //the remote moved forward from the same base
+        Repository remote = new Repository("repo", "/remote", "null");
+        remote.appendCommit(base);
+        Commit remoteCommit = new Commit("repo", "remote", Arrays.asList(base.getId()), 2);
+        remote.appendCommit(remoteCommit);
+        local.update(remote);
+        assertEquals(remoteCommit.getId(), local.getRef(1).getHead());
+        assertTrue(local.mergeHeads.isEmpty());
+
+        //now both have new commits
+        commitFile(local, "b.txt", "local");
+        Commit localCommit = local.commits.get(local.commits.size() - 1);
+        Commit otherCommit = new Commit("repo", "other", Arrays.asList(remoteCommit.getId()), 3);
+        remote.appendCommit(otherCommit);
+        local.update(remote);
+        assertEquals(localCommit.getId(), local.getRef(1).getHead());
+        assertEquals(Arrays.asList(otherCommit.getId()), local.mergeHeads);
+        assertEquals(remoteCommit, local.mergeBase(localCommit.getId(), otherCommit.getId()));
+
+        //the next commit has both heads as parents
+        commitFile(local, "c.txt", "merge");
+        Commit merge = local.commits.get(local.commits.size() - 1);
+        assertEquals(Arrays.asList(localCommit.getId(), otherCommit.getId()), merge.getParents());
+        assertEquals(4, merge.getGeneration());
+        assertTrue(local.isAncestor(otherCommit.getId(), merge.getId()));
+        assertTrue(local.mergeHeads.isEmpty());
+
+        Repository decoded = RepositoryCodec.decode(RepositoryCodec.encode(local, false));
+        Commit decodedMerge = decoded.getCommit(merge.getId());
+        assertEquals(merge.getParents(), decodedMerge.getParents());
+        assertEquals(4, decodedMerge.getGeneration());
+        assertEquals(remoteCommit, decoded.mergeBase(localCommit.getId(), otherCommit.getId()));
+    }
+
+    @Test
+    void testCaseRefusedPushIsCancelled() throws Exception{
+        Repository repository = new Repository("repo", directory.toFile());
+        commitFile(repository, "a.txt", "first");
+        assertTrue(repository.checkBeforePush());
+        commitFile(repository, "a.txt", "second");
+        assertTrue(repository.checkBeforePush());
+        repository.cancelPush();
+
+        assertTrue(repository.commits.get(0).getPushed());
+        assertFalse(repository.commits.get(1).getPushed());
+    }
+
+    /**
+     * Adds commits one after the other
+     * @return the last one
+     */
+    private static Commit chain(Repository repository, Commit from, int length){
+        Commit last = from;
+        for(int i = 0; i < length; i++){
+            List<String> parents = last == null ? Collections.<String>emptyList() : Arrays.asList(last.getId());
+            Commit commit = new Commit(repository.getName(), "commit " + i, parents, last == null ? 1 : last.getGeneration() + 1);
+            repository.appendCommit(commit);
+            last = commit;
+        }
+        return last;
+    }
+
+    private static void commitFile(Repository repository, String filename, String content) throws Exception{
+        Path path = directory(repository).resolve(filename);
+        Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+        repository.addFile(new ArrayList<>(Arrays.asList(path.toFile())));
+        assertTrue(repository.addCommit(repository.getName(), content));
+    }
+
+    private static Path directory(Repository repository){
+        return new File(repository.getPath()).toPath();
+    }
+
+    private void deleteFiles(File file){
+        File[] files = file.listFiles();
+        if(files != null){
+            for(File f: files){
+                deleteFiles(f);
+            }
+        }
+        file.delete();
+    }
+}
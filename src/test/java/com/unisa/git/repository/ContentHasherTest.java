@@ -0,0 +1,92 @@
+package com.unisa.git.repository;
+
+import org.junit.jupiter.api.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Tests of the ids of the contents, files read a piece at a time must have the same id of the
+ * content in memory, also when many files are added at the same time.
+ */
+public class ContentHasherTest {
+    private Path directory;
+
+    @BeforeEach
+    void createDirectory() throws IOException{
+        directory = Files.createTempDirectory("hasher");
+    }
+
+    @AfterEach
+    void deleteDirectory(){
+        deleteFiles(directory.toFile());
+    }
+
+    @Test
+    void testCaseStreamedFileHasSameId() throws IOException{
+        byte[] content = new byte[300000];
+        new Random(3).nextBytes(content);
+        Path path = directory.resolve("large.bin");
+        Files.write(path, content);
+
+        String id = ContentHasher.hash(content);
+        assertEquals(64, id.length());
+        assertEquals(id, ContentHasher.hash(path));
+        Crate crate = new Crate(path.toFile());
+        assertEquals(id, crate.getId());
+        //the content is read from the file, not kept on the heap
+        assertEquals(content.length, crate.getSize());
+        assertArrayEquals(content, crate.getContent());
+        //a file changed after it was added doesn't match the id anymore
+        Files.write(path, new byte[] {1, 2, 3});
+        assertThrows(UncheckedIOException.class, crate::getContent);
+        //the SHA-256 of the empty content
+        assertEquals("e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855", ContentHasher.hash(new byte[0]));
+    }
+
+    @Test
+    void testCaseOldIdsAreRecognized(){
+        byte[] content = "hi".getBytes(StandardCharsets.UTF_8);
+        assertTrue(ContentHasher.matches(UUID.nameUUIDFromBytes(content).toString(), content));
+        assertTrue(ContentHasher.matches(ContentHasher.hash(content), content));
+        assertFalse(ContentHasher.matches(ContentHasher.hash(content), new byte[] {1}));
+    }
+
+    @Test
+    void testCaseManyFilesAreAddedTogether() throws Exception{
+        Repository repository = new Repository("repo", directory.toFile());
+        List<File> files = new ArrayList<>();
+        for(int i = 0; i < 200; i++){
+            Path path = directory.resolve("repo").resolve("file" + i);
+            Files.write(path, ("content of file " + i).getBytes(StandardCharsets.UTF_8));
+            files.add(path.toFile());
+        }
+        assertTrue(repository.addFile(files));
+
+        assertEquals(200, repository.getStagedFiles().size());
+        for(int i = 0; i < 200; i++){
+            Crate crate = repository.stagedFiles.get("file" + i);
+            assertEquals(ContentHasher.hash(("content of file " + i).getBytes(StandardCharsets.UTF_8)), crate.getId());
+        }
+    }
+
+    private void deleteFiles(File file){
+        File[] files = file.listFiles();
+        if(files != null){
+            for(File f: files){
+                deleteFiles(f);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,157 @@
+package com.unisa.git.repository;
+
+import org.junit.jupiter.api.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Tests of the history split in pages: shallow pulls read only the last pages and can be deepened.
+ */
+public class HistoryTest {
+    private Path directory;
+    //the pages of the remote storage
+    private Map<String, byte[]> pages;
+    private List<String> fetches;
+
+    @BeforeEach
+    void createDirectory() throws IOException{
+        directory = Files.createTempDirectory("history");
+        pages = new ConcurrentHashMap<>();
+        fetches = Collections.synchronizedList(new ArrayList<>());
+    }
+
+    @AfterEach
+    void deleteDirectory(){
+        deleteFiles(directory.toFile());
+    }
+
+    @Test
+    void testCaseShallowPullIsDeepened() throws Exception{
+        Repository remote = new Repository("repo", "/repo", "null");
+        Commit last = null;
+        for(int i = 0; i < 600; i++){
+            List<String> parents = last == null ? Collections.<String>emptyList() : Arrays.asList(last.getId());
+            last = new Commit("repo", "commit " + i, parents, i + 1);
+            remote.appendCommit(last);
+        }
+        History history = new History(remote);
+        history.store(id -> CompletableFuture.completedFuture(pages.containsKey(id)), (id, page) -> {
+            pages.put(id, page);
+            return CompletableFuture.completedFuture(null);
+        }).join();
+        //two full pages, the other commits are in the metadata
+        assertEquals(2, pages.size());
+        assertEquals(600 - 2 * History.PAGE_SIZE, RepositoryCodec.decode(history.getMetadata()).getDepth());
+
+        //the last commits are in the metadata, no page is read
+        Repository local = new Repository("repo", directory.toFile());
+        local.update(pull(history, 10, null));
+        assertEquals(0, fetches.size());
+        assertEquals(10, local.getDepth());
+        assertTrue(local.isShallow());
+        assertEquals(last.getId(), local.commits.get(9).getId());
+        assertTrue(RepositoryCodec.decode(RepositoryCodec.encode(local, false)).isShallow());
+
+        //only the last page is read, the older commits go before the local ones
+        local.update(pull(history, 300, local));
+        assertEquals(1, fetches.size());
+        assertEquals(300, local.getDepth());
+        assertEquals(remote.commits.get(300).getId(), local.commits.get(0).getId());
+        assertEquals(last.getId(), local.commits.get(299).getId());
+        assertTrue(local.isShallow());
+
+        local.update(pull(history, 0, local));
+        assertEquals(600, local.getDepth());
+        assertFalse(local.isShallow());
+        for(int i = 0; i < 600; i++)
+            assertEquals(remote.commits.get(i).getId(), local.commits.get(i).getId());
+    }
+
+    @Test
+    void testCaseWholeHistoryReadsOnlyNewPages() throws Exception{
+        Repository remote = new Repository("repo", "/repo", "null");
+        appendCommits(remote, 600);
+        Repository local = new Repository("repo", directory.toFile());
+        local.update(pull(store(remote), 0, local));
+        assertEquals(2, fetches.size());
+        assertEquals(600, local.getDepth());
+
+        //the new commits fill the third page and some more, the first two pages are known
+        appendCommits(remote, 300);
+        fetches.clear();
+        local.update(pull(store(remote), 0, local));
+        assertEquals(1, fetches.size());
+        assertEquals(900, local.getDepth());
+        assertFalse(local.isShallow());
+        for(int i = 0; i < 900; i++)
+            assertEquals(remote.commits.get(i).getId(), local.commits.get(i).getId());
+
+        //nothing new, no page is read
+        fetches.clear();
+        local.update(pull(store(remote), 0, local));
+        assertEquals(0, fetches.size());
+        assertEquals(900, local.getDepth());
+        assertFalse(local.isShallow());
+    }
+
+    private static void appendCommits(Repository repository, int count){
+        int first = repository.commits.size();
+        for(int i = first; i < first + count; i++){
+            Commit last = repository.commits.isEmpty() ? null : repository.commits.get(repository.commits.size() - 1);
+            List<String> parents = last == null ? Collections.<String>emptyList() : Arrays.asList(last.getId());
+            repository.appendCommit(new Commit("repo", "commit " + i, parents, i + 1));
+        }
+    }
+
+    private History store(Repository repository){
+        History history = new History(repository);
+        history.store(id -> CompletableFuture.completedFuture(pages.containsKey(id)), (id, page) -> {
+            pages.put(id, page);
+            return CompletableFuture.completedFuture(null);
+        }).join();
+        return history;
+    }
+
+    private Repository pull(History history, int depth, Repository local) throws IOException{
+        Repository repository = RepositoryCodec.decode(history.getMetadata());
+        History.load(repository, history.getPages(), depth, local, fetch()).join();
+        return repository;
+    }
+
+    private Function<Collection<String>, CompletableFuture<Map<String, byte[]>>> fetch(){
+        return ids -> {
+            Map<String, byte[]> result = new HashMap<>();
+            for(String id : ids){
+                fetches.add(id);
+                if(pages.containsKey(id))
+                    result.put(id, pages.get(id));
+            }
+            return CompletableFuture.completedFuture(result);
+        };
+    }
+
+    private void deleteFiles(File file){
+        File[] files = file.listFiles();
+        if(files != null){
+            for(File f: files){
+                deleteFiles(f);
+            }
+        }
+        file.delete();
+    }
+}
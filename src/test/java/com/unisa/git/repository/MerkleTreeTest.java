@@ -0,0 +1,115 @@
+package com.unisa.git.repository;
+
+import org.junit.jupiter.api.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Tests of the Merkle tree used as id of the repositories, the root must depend only on the files
+ * and not on the order of the changes, also when nodes are split and merged.
+ */
+public class MerkleTreeTest {
+
+    @Test
+    void testCaseSameFilesSameRoot(){
+        List<String> names = names(2000);
+        MerkleTree tree = new MerkleTree();
+        for(String name : names)
+            tree.put(name, idOf(name));
+
+        List<String> shuffled = new ArrayList<>(names);
+        Collections.shuffle(shuffled, new Random(7));
+        MerkleTree other = new MerkleTree();
+        for(String name : shuffled)
+            other.put(name, idOf(name));
+
+        assertEquals(2000, tree.size());
+        assertEquals(tree.root(), other.root());
+        assertEquals(32, tree.root().length());
+        assertNotEquals(new MerkleTree().root(), tree.root());
+    }
+
+    @Test
+    void testCaseChangeAndRevert(){
+        MerkleTree tree = new MerkleTree();
+        for(String name : names(500))
+            tree.put(name, idOf(name));
+        String root = tree.root();
+
+        tree.put("file42", idOf("changed"));
+        assertNotEquals(root, tree.root());
+        tree.put("file42", idOf("file42"));
+        assertEquals(root, tree.root());
+
+        //putting the same content again changes nothing
+        tree.put("file7", idOf("file7"));
+        assertEquals(root, tree.root());
+        tree.remove("missing");
+        assertEquals(root, tree.root());
+    }
+
+    @Test
+    void testCaseRemoveMergesNodes(){
+        List<String> names = names(1000);
+        MerkleTree tree = new MerkleTree();
+        for(String name : names)
+            tree.put(name, idOf(name));
+        for(String name : names.subList(10, names.size()))
+            tree.remove(name);
+
+        MerkleTree small = new MerkleTree();
+        for(String name : names.subList(0, 10))
+            small.put(name, idOf(name));
+
+        assertEquals(10, tree.size());
+        assertEquals(small.root(), tree.root());
+        for(String name : names.subList(0, 10))
+            tree.remove(name);
+        assertEquals(new MerkleTree().root(), tree.root());
+    }
+
+    @Test
+    void testCaseDirectoriesHaveTheirHash(){
+        MerkleTree tree = new MerkleTree();
+        tree.put("src/main/App.java", idOf("app"));
+        tree.put("src/test/AppTest.java", idOf("test"));
+        tree.put("README.md", idOf("readme"));
+        assertTrue(tree.isDirectory("src"));
+        assertTrue(tree.isDirectory("src/main"));
+        assertFalse(tree.isDirectory("README.md"));
+        assertEquals(Arrays.asList("src/main/App.java", "src/test/AppTest.java"), tree.files("src"));
+
+        //the same files in another directory don't give the same root
+        MerkleTree moved = new MerkleTree();
+        moved.put("lib/main/App.java", idOf("app"));
+        moved.put("lib/test/AppTest.java", idOf("test"));
+        moved.put("README.md", idOf("readme"));
+        assertNotEquals(tree.root(), moved.root());
+
+        //a directory left empty is removed
+        String root = tree.root();
+        tree.put("src/other/Other.java", idOf("other"));
+        tree.remove("src/other/Other.java");
+        assertFalse(tree.isDirectory("src/other"));
+        assertEquals(root, tree.root());
+        assertEquals(3, tree.size());
+    }
+
+    private static List<String> names(int count){
+        List<String> names = new ArrayList<>();
+        for(int i = 0; i < count; i++)
+            names.add("file" + i);
+        return names;
+    }
+
+    private static String idOf(String content){
+        return UUID.nameUUIDFromBytes(content.getBytes()).toString();
+    }
+}
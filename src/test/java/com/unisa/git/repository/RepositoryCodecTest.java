@@ -0,0 +1,246 @@
+package com.unisa.git.repository;
+
+import org.junit.jupiter.api.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import com.unisa.git.storage.GitStorage;
+
+/**
+ * Round trip tests of the binary format of the repositories, the last tests decode payloads
+ * written by hand to be sure that the version 1 of the format is still readable.
+ */
+public class RepositoryCodecTest {
+    private Path directory;
+
+    @BeforeEach
+    void createDirectory() throws IOException{
+        directory = Files.createTempDirectory("codec");
+    }
+
+    @AfterEach
+    void deleteDirectory(){
+        deleteFiles(directory.toFile());
+    }
+
+    @Test
+    void testCaseEmptyRepository() throws IOException{
+        Repository repository = new Repository("empty", directory.toFile());
+        Repository decoded = RepositoryCodec.decode(RepositoryCodec.encode(repository, true));
+
+        assertEquals(repository.getName(), decoded.getName());
+        assertEquals(repository.getPath(), decoded.getPath());
+        assertEquals("null", decoded.id);
+        assertTrue(decoded.trackedFiles.isEmpty());
+        assertTrue(decoded.stagedFiles.isEmpty());
+        assertTrue(decoded.commits.isEmpty());
+    }
+
+    @Test
+    void testCaseRepositoryWithContent() throws IOException, Exception{
+        Repository repository = createRepository();
+        Repository decoded = RepositoryCodec.decode(RepositoryCodec.encode(repository, true));
+
+        assertEquals(repository.id, decoded.id);
+        assertEquals(repository, decoded);
+        assertEquals(repository.trackedFiles.keySet(), decoded.trackedFiles.keySet());
+        for(String filename : repository.trackedFiles.keySet()){
+            Crate crate = repository.trackedFiles.get(filename);
+            Crate decodedCrate = decoded.trackedFiles.get(filename);
+            assertEquals(crate, decodedCrate);
+            assertArrayEquals(crate.getContent(), decodedCrate.getContent());
+        }
+        //removal staged
+        assertTrue(decoded.stagedFiles.containsKey("b.txt"));
+        assertNull(decoded.stagedFiles.get("b.txt"));
+        assertEquals(repository.stagedFiles.get("c.txt"), decoded.stagedFiles.get("c.txt"));
+
+        assertEquals(repository.commits.size(), decoded.commits.size());
+        for(int i = 0; i < repository.commits.size(); i++){
+            Commit commit = repository.commits.get(i);
+            Commit decodedCommit = decoded.commits.get(i);
+            assertEquals(commit, decodedCommit);
+            assertEquals(commit.getRepositoryName(), decodedCommit.getRepositoryName());
+            assertEquals(commit.getMessage(), decodedCommit.getMessage());
+            assertEquals(commit.getPushed(), decodedCommit.getPushed());
+            assertEquals(commit.getFiles(), decodedCommit.getFiles());
+        }
+    }
+
+    @Test
+    void testCaseRepositoryWithoutContent() throws Exception{
+        Repository repository = createRepository();
+        byte[] withContent = RepositoryCodec.encode(repository, true);
+        byte[] withoutContent = RepositoryCodec.encode(repository, false);
+        Repository decoded = RepositoryCodec.decode(withoutContent);
+
+        assertTrue(withoutContent.length < withContent.length);
+        for(Crate crate : decoded.getCrates()){
+            assertNull(crate.getContent());
+            crate.attachContent(repository.trackedFiles.get(crate.getName()).getContent());
+        }
+        assertThrows(IOException.class, () -> decoded.trackedFiles.get("a.txt").attachContent(new byte[] {1}));
+    }
+
+    @Test
+    void testCaseReencodeIsStable() throws Exception{
+        Repository repository = createRepository();
+        byte[] payload = RepositoryCodec.encode(repository, true);
+
+        assertArrayEquals(payload, RepositoryCodec.encode(RepositoryCodec.decode(payload), true));
+    }
+
+    @Test
+    void testCaseUnicodeAndLargeValues() throws IOException{
+        //built without directory, the name could not be valid for the file system
+        Repository repository = new Repository("repò-ñame", "/repò-ñame", "null");
+        byte[] large = new byte[300000];
+        for(int i = 0; i < large.length; i++)
+            large[i] = (byte) i;
+        String id = "00112233445566778899aabbccddeeff00112233445566778899aabbccddeeff";
+        repository.trackedFiles.put("file ✓.bin", new Crate("file ✓.bin", id, large));
+        Commit commit = new Commit("repò-ñame", "messaggio è", "1969-07-20", UUID.randomUUID().toString(),
+                false, new ArrayList<>(Arrays.asList("file ✓.bin")));
+        repository.commits.add(commit);
+
+        Repository decoded = RepositoryCodec.decode(RepositoryCodec.encode(repository, true));
+        Crate crate = decoded.trackedFiles.get("file ✓.bin");
+        assertEquals(id, crate.getId());
+        assertArrayEquals(large, crate.getContent());
+        assertEquals("1969-07-20", decoded.commits.get(0).getDate());
+        assertEquals("messaggio è", decoded.commits.get(0).getMessage());
+        assertEquals("repò-ñame", decoded.getName());
+    }
+
+    @Test
+    void testCaseMalformedPayloads() throws Exception{
+        byte[] payload = RepositoryCodec.encode(createRepository(), true);
+
+        //truncated at every length
+        for(int length = 0; length < payload.length; length += 7)
+            assertThrows(IOException.class, decodeOf(Arrays.copyOf(payload, length)));
+        //trailing bytes
+        assertThrows(IOException.class, decodeOf(Arrays.copyOf(payload, payload.length + 1)));
+        //wrong magic
+        byte[] wrongMagic = payload.clone();
+        wrongMagic[0] = 'X';
+        assertThrows(IOException.class, decodeOf(wrongMagic));
+        //unknown version
+        byte[] wrongVersion = payload.clone();
+        wrongVersion[RepositoryCodec.MAGIC.length] = 2;
+        assertThrows(IOException.class, decodeOf(wrongVersion));
+    }
+
+    @Test
+    void testCaseRef() throws Exception{
+        Repository repository = createRepository();
+        Ref ref = repository.getRef(42);
+        byte[] payload = RepositoryCodec.encodeRef(ref);
+        Ref decoded = RepositoryCodec.decodeRef(payload);
+
+        assertEquals(ref, decoded);
+        assertEquals(repository.commits.get(0).getId(), decoded.getHead());
+        assertTrue(repository.checkLastCommit(decoded));
+        assertTrue(payload.length < 50);
+        assertThrows(IOException.class, () -> RepositoryCodec.decodeRef(RepositoryCodec.encode(repository, false)));
+        assertNull(new Repository("empty", directory.toFile()).getRef(1));
+    }
+
+    @Test
+    void testCaseVarints() throws IOException{
+        long[] values = {0, 1, 127, 128, 16383, 16384, Integer.MAX_VALUE, Long.MAX_VALUE, -1, Long.MIN_VALUE};
+        RepositoryCodec.Writer out = new RepositoryCodec.Writer();
+        for(long value : values){
+            out.varint(value);
+            out.zigzag(value);
+        }
+        RepositoryCodec.Reader in = new RepositoryCodec.Reader(out.toByteArray());
+        for(long value : values){
+            assertEquals(value, in.varlong());
+            assertEquals(value, in.zigzag());
+        }
+        assertFalse(in.buffer.hasRemaining());
+
+        out = new RepositoryCodec.Writer();
+        out.varint(300);
+        assertArrayEquals(new byte[] {(byte) 0xAC, 0x02}, out.toByteArray());
+    }
+
+    @Test
+    void testCaseVersion1Payload() throws IOException{
+        //repository "r" in "/p" with a tracked crate "f" ("hi") and a pushed commit "m" on 2022-01-01
+        byte[] payload = {
+            'G', 'I', 'T', 'P', 1,
+            1, 'r', 2, '/', 'p', 0,
+            1, 1, 'f', 1, 'f', 1,
+            0x49, (byte) 0xf6, (byte) 0x8a, 0x5c, (byte) 0x84, (byte) 0x93, 0x3c, 0x2c,
+            (byte) 0x8b, (byte) 0xf4, (byte) 0x89, (byte) 0x82, 0x1c, 0x21, (byte) 0xfc, 0x3b,
+            1, 2, 'h', 'i',
+            0,
+            1, 1, 'r', 1, 'm', (byte) 0xe2, (byte) 0xa8, 0x02, 1,
+            0x12, 0x34, 0x56, 0x78, (byte) 0x9a, (byte) 0xbc, 0x4d, (byte) 0xef,
+            (byte) 0x81, 0x23, 0x45, 0x67, (byte) 0x89, (byte) 0xab, (byte) 0xcd, (byte) 0xef,
+            1, 1, 1, 'f'
+        };
+        Repository decoded = RepositoryCodec.decode(payload);
+
+        assertEquals("r", decoded.getName());
+        assertEquals("/p", decoded.getPath());
+        assertEquals("null", decoded.id);
+        Crate crate = decoded.trackedFiles.get("f");
+        assertEquals("49f68a5c-8493-3c2c-8bf4-89821c21fc3b", crate.getId());
+        assertArrayEquals("hi".getBytes(StandardCharsets.UTF_8), crate.getContent());
+        crate.attachContent("hi".getBytes(StandardCharsets.UTF_8));
+        Commit commit = decoded.commits.get(0);
+        assertEquals("m", commit.getMessage());
+        assertEquals("2022-01-01", commit.getDate());
+        assertEquals("12345678-9abc-4def-8123-456789abcdef", commit.getId());
+        assertTrue(commit.getPushed());
+        assertEquals("f ", commit.getFiles());
+        assertArrayEquals(payload, RepositoryCodec.encode(decoded, true));
+    }
+
+    private Repository createRepository() throws Exception{
+        Repository repository = new Repository("codec", directory.toFile());
+        Path path = Files.createDirectories(directory.resolve("codec"));
+        List<File> files = new ArrayList<>();
+        for(String filename : Arrays.asList("a.txt", "b.txt", "c.txt")){
+            Files.write(path.resolve(filename), ("content of " + filename).getBytes(StandardCharsets.UTF_8));
+            files.add(path.resolve(filename).toFile());
+        }
+        repository.addFile(files);
+        repository.addCommit("codec", "first commit");
+        repository.checkBeforePush();
+        //stored as after every command, the crates keep the content of the files only until then
+        new GitStorage().put("codec", repository);
+
+        Files.write(path.resolve("c.txt"), "changed".getBytes(StandardCharsets.UTF_8));
+        repository.addFile(files.subList(2, 3));
+        repository.removeFile(files.subList(1, 2));
+        return repository;
+    }
+
+    private static org.junit.jupiter.api.function.Executable decodeOf(byte[] payload){
+        return () -> RepositoryCodec.decode(payload);
+    }
+
+    private void deleteFiles(File file){
+        File[] files = file.listFiles();
+        if(files != null){
+            for(File f: files){
+                deleteFiles(f);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,87 @@
+package com.unisa.git.repository;
+
+import org.junit.jupiter.api.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import com.unisa.git.storage.GitStorage;
+
+/**
+ * Tests of a repository with directories, files are tracked by their path from the repository.
+ */
+public class RepositoryTreeTest {
+    private Path directory;
+
+    @BeforeEach
+    void createDirectory() throws IOException{
+        directory = Files.createTempDirectory("tree");
+    }
+
+    @AfterEach
+    void deleteDirectory(){
+        deleteFiles(directory.toFile());
+    }
+
+    @Test
+    void testCaseNestedFilesAreTracked() throws Exception{
+        Repository repository = new Repository("repo", directory.toFile());
+        Path path = directory.resolve("repo");
+        write(path, "src/main/App.java", "app");
+        write(path, "src/test/App.java", "test");
+        write(path, "docs/guide/index.md", "guide");
+        write(path, "README.md", "readme");
+
+        //a directory without tracked files is listed as a whole
+        assertEquals(new HashSet<>(Arrays.asList("src/", "docs/", "README.md")), new HashSet<>(repository.getUntrackedFiles()));
+        assertTrue(repository.addFile(Arrays.asList(path.resolve("src").toFile(), new File("README.md"))));
+        assertEquals(new HashSet<>(Arrays.asList("src/main/App.java", "src/test/App.java", "README.md")), new HashSet<>(repository.getStagedFiles()));
+        assertTrue(repository.addCommit("repo", "first"));
+        //stored as after every command, the crates keep the content of the files only until then
+        new GitStorage().put("repo", repository);
+        //files with the same name in different directories are different files
+        assertEquals(3, repository.getTrackedFiles().size());
+        assertEquals(Collections.singletonList("docs/"), repository.getUntrackedFiles());
+
+        write(path, "src/main/App.java", "changed");
+        write(path, "src/main/New.java", "new");
+        assertEquals(Collections.singletonList("src/main/App.java"), repository.getUnstagedFiles());
+        assertEquals(new HashSet<>(Arrays.asList("docs/", "src/main/New.java")), new HashSet<>(repository.getUntrackedFiles()));
+
+        //a pull writes the directories that are missing
+        Repository other = new Repository("repo", directory.resolve("other").toFile());
+        String id = other.generateId();
+        other.update(RepositoryCodec.decode(RepositoryCodec.encode(repository, true)));
+        assertEquals("test", new String(Files.readAllBytes(directory.resolve("other/repo/src/test/App.java")), StandardCharsets.UTF_8));
+        assertNotEquals(id, other.generateId());
+        assertEquals(repository.generateId(), other.generateId());
+
+        assertTrue(repository.removeFile(Collections.singletonList(new File("src"))));
+        assertTrue(repository.addCommit("repo", "removed"));
+        assertEquals(Collections.singletonList("README.md"), repository.getTrackedFiles());
+    }
+
+    private static void write(Path path, String filename, String content) throws IOException{
+        Path file = path.resolve(filename);
+        Files.createDirectories(file.getParent());
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void deleteFiles(File file){
+        File[] files = file.listFiles();
+        if(files != null){
+            for(File f: files){
+                deleteFiles(f);
+            }
+        }
+        file.delete();
+    }
+}
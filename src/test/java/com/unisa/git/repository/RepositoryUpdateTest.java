@@ -0,0 +1,128 @@
+package com.unisa.git.repository;
+
+import org.junit.jupiter.api.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Tests of a pull: only the files brought by the pull must be touched and the commits
+ * brought must keep the history in order.
+ */
+public class RepositoryUpdateTest {
+    private Path directory;
+
+    @BeforeEach
+    void createDirectory() throws IOException{
+        directory = Files.createTempDirectory("update");
+    }
+
+    @AfterEach
+    void deleteDirectory(){
+        deleteFiles(directory.toFile());
+    }
+
+    @Test
+    void testCaseOnlyChangedFilesAreWritten() throws Exception{
+        Repository local = new Repository("repo", directory.toFile());
+        Path path = directory.resolve("repo");
+        List<File> files = new ArrayList<>();
+        for(int i = 0; i < 50; i++){
+            Files.write(path.resolve("file" + i), ("content " + i).getBytes(StandardCharsets.UTF_8));
+            files.add(path.resolve("file" + i).toFile());
+        }
+        local.addFile(files);
+        local.addCommit("repo", "first");
+        Repository remote = RepositoryCodec.decode(RepositoryCodec.encode(local, true));
+
+        //the remote changed a file and added another one
+        byte[] changed = "changed".getBytes(StandardCharsets.UTF_8);
+        byte[] added = "added".getBytes(StandardCharsets.UTF_8);
+        remote.trackedFiles.put("file7", new Crate("file7", ContentHasher.hash(changed), changed));
+        remote.trackedFiles.put("new.txt", new Crate("new.txt", ContentHasher.hash(added), added));
+
+        FileTime past = FileTime.fromMillis(System.currentTimeMillis() - 60000);
+        for(File file : files)
+            Files.setLastModifiedTime(file.toPath(), past);
+        assertEquals(2, local.update(remote));
+
+        Set<String> touched = new HashSet<>();
+        for(File file : path.toFile().listFiles()){
+            if(!Files.getLastModifiedTime(file.toPath()).equals(past))
+                touched.add(file.getName());
+        }
+        assertEquals(new HashSet<>(Arrays.asList("file7_(1)", "new.txt")), touched);
+        assertArrayEquals(changed, Files.readAllBytes(path.resolve("file7_(1)")));
+        assertArrayEquals(added, Files.readAllBytes(path.resolve("new.txt")));
+        assertArrayEquals("content 7".getBytes(StandardCharsets.UTF_8), Files.readAllBytes(path.resolve("file7")));
+
+        //nothing new, nothing is written
+        for(File file : path.toFile().listFiles())
+            Files.setLastModifiedTime(file.toPath(), past);
+        local.update(remote);
+        for(File file : path.toFile().listFiles())
+            assertEquals(past, Files.getLastModifiedTime(file.toPath()), file.getName());
+    }
+
+    @Test
+    void testCaseDivergentHistoriesKeepTheOrder() throws Exception{
+        Repository local = new Repository("repo", directory.toFile());
+        Repository remote = new Repository("repo", "/remote", "null");
+        Commit base = new Commit("repo", "base", Collections.<String>emptyList(), 1);
+        base.updateStatus();
+        local.appendCommit(base);
+        remote.appendCommit(base);
+        List<Commit> localCommits = chain(local, base, 2);
+        List<Commit> remoteCommits = chain(remote, base, 3);
+
+        local.update(remote);
+        List<Commit> expected = new ArrayList<>(remote.commits);
+        expected.addAll(localCommits);
+        assertEquals(expected, local.commits);
+        //every commit comes after its parents
+        Set<String> seen = new HashSet<>();
+        for(Commit commit : local.commits){
+            assertTrue(seen.containsAll(commit.getParents()), commit.getMessage());
+            seen.add(commit.getId());
+        }
+        assertEquals(localCommits.get(1).getId(), local.getRef(1).getHead());
+        assertEquals(Arrays.asList(remoteCommits.get(2).getId()), local.mergeHeads);
+    }
+
+    /**
+     * Adds commits one after the other, the local ones are not pushed
+     */
+    private static List<Commit> chain(Repository repository, Commit from, int length){
+        List<Commit> chain = new ArrayList<>();
+        Commit last = from;
+        for(int i = 0; i < length; i++){
+            Commit commit = new Commit(repository.getName(), repository.getPath() + " " + i, Arrays.asList(last.getId()), last.getGeneration() + 1);
+            repository.appendCommit(commit);
+            chain.add(commit);
+            last = commit;
+        }
+        return chain;
+    }
+
+    private void deleteFiles(File file){
+        File[] files = file.listFiles();
+        if(files != null){
+            for(File f: files){
+                deleteFiles(f);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,97 @@
+package com.unisa.git.repository;
+
+import org.junit.jupiter.api.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+
+/**
+ * Tests of the index of the working directory, a file must be read again only when its metadata changes.
+ */
+public class StatIndexTest {
+    private Path directory;
+
+    @BeforeEach
+    void createDirectory() throws IOException{
+        directory = Files.createTempDirectory("index");
+    }
+
+    @AfterEach
+    void deleteDirectory(){
+        deleteFiles(directory.toFile());
+    }
+
+    @Test
+    void testCaseUnchangedMetadataSkipsRead() throws IOException{
+        Path path = directory.resolve("a.txt");
+        FileTime past = FileTime.fromMillis(System.currentTimeMillis() - 60000);
+        Files.write(path, "first".getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(path, past);
+
+        StatIndex index = new StatIndex();
+        assertEquals(idOf("first"), index.contentId(path, "a.txt"));
+        assertTrue(index.entries.containsKey("a.txt"));
+        assertTrue(index.takeChanged());
+
+        //same size and same modified time, the content is not read
+        Files.write(path, "other".getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(path, past);
+        assertEquals(idOf("first"), index.contentId(path, "a.txt"));
+        assertFalse(index.takeChanged());
+
+        //the modified time changed, the content is read again
+        Files.setLastModifiedTime(path, FileTime.fromMillis(past.toMillis() + 1000));
+        assertEquals(idOf("other"), index.contentId(path, "a.txt"));
+    }
+
+    @Test
+    void testCaseRecentFilesAreNotCached() throws IOException{
+        Path path = directory.resolve("a.txt");
+        Files.write(path, "fresh".getBytes(StandardCharsets.UTF_8));
+
+        StatIndex index = new StatIndex();
+        assertEquals(idOf("fresh"), index.contentId(path, "a.txt"));
+        assertFalse(index.entries.containsKey("a.txt"));
+    }
+
+    @Test
+    void testCaseIndexIsEncoded() throws Exception{
+        Repository repository = new Repository("repo", directory.toFile());
+        Path path = directory.resolve("repo").resolve("a.txt");
+        Files.write(path, "content".getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis() - 60000));
+        repository.addFile(Arrays.asList(path.toFile()));
+        repository.addCommit("repo", "first");
+        assertTrue(repository.getUnstagedFiles().isEmpty());
+
+        Repository decoded = RepositoryCodec.decode(RepositoryCodec.encode(repository, false));
+        RepositoryCodec.decodeIndex(decoded, RepositoryCodec.encodeIndex(repository));
+        StatIndex.Entry entry = decoded.index.entries.get("a.txt");
+        assertEquals(7, entry.size);
+        assertEquals(idOf("content"), entry.id);
+        assertEquals(repository.index.entries.get("a.txt").modified, entry.modified);
+        assertEquals(repository.index.entries.get("a.txt").fileKey, entry.fileKey);
+        assertThrows(IOException.class, () -> RepositoryCodec.decodeIndex(decoded, RepositoryCodec.encode(repository, false)));
+    }
+
+    private static String idOf(String content){
+        return ContentHasher.hash(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void deleteFiles(File file){
+        File[] files = file.listFiles();
+        if(files != null){
+            for(File f: files){
+                deleteFiles(f);
+            }
+        }
+        file.delete();
+    }
+}
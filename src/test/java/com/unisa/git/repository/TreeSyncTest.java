@@ -0,0 +1,169 @@
+package com.unisa.git.repository;
+
+import org.junit.jupiter.api.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Tests of the synchronization through the tree objects, only what changed is sent.
+ */
+public class TreeSyncTest {
+    private Path directory;
+    //the tree objects of the remote storage
+    private Map<String, byte[]> trees;
+    private List<String> puts;
+    private List<String> fetches;
+
+    @BeforeEach
+    void createDirectory() throws IOException{
+        directory = Files.createTempDirectory("sync");
+        trees = new ConcurrentHashMap<>();
+        puts = Collections.synchronizedList(new ArrayList<>());
+        fetches = Collections.synchronizedList(new ArrayList<>());
+    }
+
+    @AfterEach
+    void deleteDirectory(){
+        deleteFiles(directory.toFile());
+    }
+
+    @Test
+    void testCaseOnlyTheChangedPathIsSent() throws Exception{
+        Repository repository = new Repository("repo", directory.toFile());
+        Path path = directory.resolve("repo");
+        write(path, "README.md", "readme");
+        write(path, "src/main/App.java", "app");
+        write(path, "src/test/AppTest.java", "test");
+        write(path, "docs/guide.md", "guide");
+        assertTrue(repository.addFile(Arrays.asList(new File("README.md"), new File("src"), new File("docs"))));
+        assertTrue(repository.addCommit("repo", "first"));
+        store(repository);
+        assertEquals(5, puts.size());
+
+        //every file is listed without a local repository
+        TreeSync.Difference all = TreeSync.diff(null, repository.generateId(), fetch()).join();
+        assertEquals(4, all.getCrates().size());
+        assertEquals(5, all.getTrees());
+
+        Repository other = new Repository("repo", directory.resolve("other").toFile());
+        other.update(RepositoryCodec.decode(RepositoryCodec.encode(repository, true)));
+        fetches.clear();
+        assertEquals(0, TreeSync.diff(other, repository.generateId(), fetch()).join().getCrates().size());
+        assertEquals(0, fetches.size());
+
+        write(path, "src/main/App.java", "changed");
+        assertTrue(repository.addFile(Collections.singletonList(new File("src/main/App.java"))));
+        assertTrue(repository.addCommit("repo", "second"));
+        puts.clear();
+        store(repository);
+        //the root, src and src/main, docs and src/test are already stored
+        assertEquals(3, puts.size());
+
+        TreeSync.Difference difference = TreeSync.diff(other, repository.generateId(), fetch()).join();
+        assertEquals(3, difference.getTrees());
+        assertEquals(1, difference.getCrates().size());
+        Crate crate = difference.getCrates().get(0);
+        assertEquals("src/main/App.java", crate.getName());
+        assertEquals(repository.trackedFiles.get("src/main/App.java").getId(), crate.getId());
+        assertEquals(difference.getCrates(), difference.getMissing());
+    }
+
+    @Test
+    void testCaseWrongTreesAreRefused() throws Exception{
+        Repository repository = new Repository("repo", directory.toFile());
+        Path path = directory.resolve("repo");
+        write(path, "a/one.txt", "one");
+        write(path, "b/two.txt", "two");
+        assertTrue(repository.addFile(Arrays.asList(new File("a"), new File("b"))));
+        assertTrue(repository.addCommit("repo", "first"));
+        store(repository);
+
+        //a tree object stored under the key of another directory
+        String a = repository.tree().hash("a").substring(0, 32);
+        String b = repository.tree().hash("b").substring(0, 32);
+        trees.put(a, trees.get(b));
+        CompletionException wrong = assertThrows(CompletionException.class, () -> TreeSync.diff(null, repository.generateId(), fetch()).join());
+        assertTrue(wrong.getCause().getMessage().contains("doesn't match"));
+
+        trees.remove(a);
+        CompletionException missing = assertThrows(CompletionException.class, () -> TreeSync.diff(null, repository.generateId(), fetch()).join());
+        assertTrue(missing.getCause().getMessage().contains("is missing"));
+    }
+
+    @Test
+    void testCaseSparseRepositoryGetsOnlyMatchingFiles() throws Exception{
+        Repository repository = new Repository("repo", directory.toFile());
+        Path path = directory.resolve("repo");
+        write(path, "README.md", "readme");
+        write(path, "services/api/Api.java", "api");
+        write(path, "services/api/api.md", "notes");
+        write(path, "services/web/Web.java", "web");
+        assertTrue(repository.addFile(Arrays.asList(new File("README.md"), new File("services"))));
+        assertTrue(repository.addCommit("repo", "first"));
+        store(repository);
+
+        Repository other = new Repository("repo", directory.resolve("other").toFile());
+        other.setSparse(SparsePatterns.of(Arrays.asList("services/api/", "*.md"), Arrays.asList("**.md")));
+        TreeSync.Difference difference = TreeSync.diff(other, repository.generateId(), fetch()).join();
+        assertEquals(1, difference.getCrates().size());
+        assertEquals("services/api/Api.java", difference.getCrates().get(0).getName());
+
+        //only the matching files are written, also when the whole repository is given
+        assertEquals(1, other.update(RepositoryCodec.decode(RepositoryCodec.encode(repository, true))));
+        assertEquals(Collections.singletonList("services/api/Api.java"), other.getTrackedFiles());
+        assertFalse(Files.exists(directory.resolve("other/repo/services/web/Web.java")));
+        assertEquals(other.getSparse(), RepositoryCodec.decode(RepositoryCodec.encode(other, false)).getSparse());
+
+        //the patterns are widened, the files already pulled are not brought again
+        other.setSparse(SparsePatterns.of(Collections.singletonList("services/"), Collections.<String>emptyList()));
+        difference = TreeSync.diff(other, repository.generateId(), fetch()).join();
+        assertEquals(2, difference.getCrates().size());
+        assertNull(SparsePatterns.of(Collections.<String>emptyList(), Collections.<String>emptyList()));
+    }
+
+    private void store(Repository repository){
+        TreeSync.store(repository, key -> CompletableFuture.completedFuture(trees.containsKey(key)), (key, tree) -> {
+            puts.add(key);
+            trees.put(key, tree);
+            return CompletableFuture.completedFuture(null);
+        }).join();
+    }
+
+    private Function<String, CompletableFuture<byte[]>> fetch(){
+        return key -> {
+            fetches.add(key);
+            return CompletableFuture.completedFuture(trees.get(key));
+        };
+    }
+
+    private static void write(Path path, String filename, String content) throws IOException{
+        Path file = path.resolve(filename);
+        Files.createDirectories(file.getParent());
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void deleteFiles(File file){
+        File[] files = file.listFiles();
+        if(files != null){
+            for(File f: files){
+                deleteFiles(f);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,212 @@
+package com.unisa.git.repository;
+
+import org.junit.jupiter.api.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.unisa.git.exceptions.RepositoryException;
+
+/**
+ * Tests of the status of a watched repository, only the files changed since the last status are looked at.
+ */
+public class WorkingTreeWatcherTest {
+    private Path directory;
+    private WorkingTreeWatcher watcher;
+
+    @BeforeEach
+    void createDirectory() throws IOException{
+        directory = Files.createTempDirectory("watcher");
+    }
+
+    @AfterEach
+    void deleteDirectory() throws IOException{
+        if(watcher != null)
+            watcher.close();
+        deleteFiles(directory.toFile());
+    }
+
+    @Test
+    void testCaseStatusFollowsTheChanges() throws Exception{
+        Repository repository = new Repository("repo", directory.toFile());
+        Path path = directory.resolve("repo");
+        watcher = new WorkingTreeWatcher(path);
+        repository.attach(watcher);
+        List<File> files = new ArrayList<>();
+        for(int i = 0; i < 10; i++)
+            files.add(write(path, "file" + i, "content " + i));
+
+        //the first status scans the directory
+        assertEquals(10, repository.getUntrackedFiles().size());
+        assertTrue(repository.getUnstagedFiles().isEmpty());
+        repository.addFile(files);
+        repository.addCommit("repo", "first");
+        assertTrue(repository.getUntrackedFiles().isEmpty());
+        assertTrue(repository.getUnstagedFiles().isEmpty());
+
+        //then only the changed files
+        write(path, "file3", "changed");
+        write(path, "other", "new file");
+        assertEquals(new HashSet<>(Arrays.asList("file3", "other")), watcher.changes());
+        write(path, "file3", "changed again");
+        write(path, "other", "new file");
+        assertEquals(Collections.singletonList("file3"), repository.getUnstagedFiles());
+        assertEquals(Collections.singletonList("other"), repository.getUntrackedFiles());
+
+        //an unchanged file is known to be committed without reading it
+        assertThrows(RepositoryException.class, () -> repository.addFile(Collections.singletonList(path.resolve("file5").toFile())));
+        assertTrue(repository.addFile(Collections.singletonList(path.resolve("file3").toFile())));
+        assertTrue(repository.getUnstagedFiles().isEmpty());
+        Files.delete(path.resolve("other"));
+        assertTrue(repository.getUntrackedFiles().isEmpty());
+    }
+
+    @Test
+    void testCaseCookiesStayOutOfTheWorkingTree() throws Exception{
+        Path path = Files.createDirectories(directory.resolve("repo"));
+        Path cookies = directory.resolve("cookies");
+        write(path, "file", "content");
+        watcher = new WorkingTreeWatcher(path, cookies);
+        //the file system of the tests has native events
+        assertTrue(watcher.isWatching());
+        assertNull(watcher.changes());
+        write(path, "file", "changed");
+        assertEquals(Collections.singleton("file"), watcher.changes());
+        try(Stream<Path> files = Files.list(path)){
+            assertEquals(Collections.singletonList(path.resolve("file")), files.collect(Collectors.toList()));
+        }
+        watcher.close();
+        try(Stream<Path> files = Files.list(cookies)){
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    void testCaseDirectoriesAreWatched() throws Exception{
+        Repository repository = new Repository("repo", directory.toFile());
+        Path path = directory.resolve("repo");
+        Files.createDirectories(path.resolve("src/main"));
+        write(path, "src/main/App.java", "app");
+        watcher = new WorkingTreeWatcher(path);
+        repository.attach(watcher);
+        assertTrue(repository.addFile(Collections.singletonList(path.resolve("src").toFile())));
+        assertTrue(repository.addCommit("repo", "first"));
+        assertTrue(repository.getUnstagedFiles().isEmpty());
+
+        write(path, "src/main/App.java", "changed");
+        //a new directory is watched as soon as it's created
+        Files.createDirectories(path.resolve("src/test"));
+        assertEquals(new HashSet<>(Arrays.asList("src/main/App.java", "src/test")), watcher.changes());
+        write(path, "src/test/AppTest.java", "test");
+        write(path, "src/main/App.java", "changed again");
+        assertEquals(new HashSet<>(Arrays.asList("src/main/App.java", "src/test/AppTest.java")), watcher.changes());
+
+        write(path, "src/main/App.java", "changed");
+        write(path, "src/test/AppTest.java", "test");
+        assertEquals(Collections.singletonList("src/main/App.java"), repository.getUnstagedFiles());
+        assertEquals(Collections.singletonList("src/test/"), repository.getUntrackedFiles());
+    }
+
+    @Test
+    void testCaseLostEventsScanTheDirectory() throws Exception{
+        Repository repository = new Repository("repo", directory.toFile());
+        Path path = directory.resolve("repo");
+        watcher = new WorkingTreeWatcher(path);
+        repository.attach(watcher);
+        assertNull(watcher.changes());
+        assertTrue(watcher.changes().isEmpty());
+
+        write(path, "file", "content");
+        watcher.invalidate();
+        assertEquals(Collections.singletonList("file"), repository.getUntrackedFiles());
+    }
+
+    @Test
+    void testCaseDeletedFilesAreUntrackedByCommit() throws Exception{
+        Repository repository = new Repository("repo", directory.toFile());
+        Path path = directory.resolve("repo");
+        watcher = new WorkingTreeWatcher(path);
+        repository.attach(watcher);
+        List<File> files = new ArrayList<>();
+        for(int i = 0; i < 10; i++)
+            files.add(write(path, "file" + i, "content " + i));
+        repository.addFile(files);
+        //the first commit looks for every tracked file
+        repository.addCommit("repo", "first");
+        assertNotNull(watcher.missing);
+
+        //seen missing by a status, then deleted after the last status
+        Files.delete(path.resolve("file2"));
+        assertTrue(repository.getUnstagedFiles().isEmpty());
+        assertEquals(Collections.singleton("file2"), watcher.missing);
+        Files.delete(path.resolve("file4"));
+        repository.addFile(Collections.singletonList(write(path, "other", "other")));
+        repository.addCommit("repo", "second");
+        assertFalse(repository.getTrackedFiles().contains("file2"));
+        assertFalse(repository.getTrackedFiles().contains("file4"));
+        assertEquals(9, repository.getTrackedFiles().size());
+        assertTrue(watcher.missing.isEmpty());
+    }
+
+    @Test
+    void testCasePullTouchesOnlyWrittenFiles() throws Exception{
+        Repository repository = new Repository("repo", directory.toFile());
+        Path path = directory.resolve("repo");
+        Path other = directory.resolve("other");
+        Files.createDirectories(other);
+        Repository remote = new Repository("repo", other.toFile());
+        List<File> files = new ArrayList<>();
+        List<File> remoteFiles = new ArrayList<>();
+        for(int i = 0; i < 10; i++){
+            files.add(write(path, "file" + i, "content " + i));
+            remoteFiles.add(write(other.resolve("repo"), "file" + i, "content " + i));
+        }
+        remoteFiles.add(write(other.resolve("repo"), "new", "new file"));
+        //a file not tracked locally with another content, the pull writes it with another name
+        write(path, "untracked.txt", "local");
+        remoteFiles.add(write(other.resolve("repo"), "untracked.txt", "remote"));
+        repository.addFile(files);
+        repository.addCommit("repo", "first");
+        remote.addFile(remoteFiles);
+        remote.addCommit("repo", "remote");
+        watcher = new WorkingTreeWatcher(path);
+        repository.attach(watcher);
+        assertNull(watcher.changes());
+
+        assertEquals(1, repository.update(remote));
+        Set<String> changes = watcher.changes();
+        assertTrue(changes.containsAll(Arrays.asList("new", "untracked.txt", "untracked_(1).txt")), changes.toString());
+        for(int i = 0; i < 10; i++)
+            assertFalse(changes.contains("file" + i), changes.toString());
+        assertEquals("remote", new String(Files.readAllBytes(path.resolve("untracked_(1).txt")), StandardCharsets.UTF_8));
+    }
+
+    private static File write(Path path, String filename, String content) throws IOException{
+        Path file = path.resolve(filename);
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+        return file.toFile();
+    }
+
+    private void deleteFiles(File file){
+        File[] files = file.listFiles();
+        if(files != null){
+            for(File f: files){
+                deleteFiles(f);
+            }
+        }
+        file.delete();
+    }
+}
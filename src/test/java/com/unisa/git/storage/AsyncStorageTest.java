@@ -0,0 +1,74 @@
+package com.unisa.git.storage;
+
+import org.junit.jupiter.api.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import com.unisa.git.repository.Repository;
+
+public class AsyncStorageTest {
+
+    @Test
+    void testCaseBatchStartsEveryRequest() throws IOException{
+        SlowStorage storage = new SlowStorage();
+        CompletableFuture<Map<String, Repository>> batch = storage.getAllAsync(Arrays.asList("a", "b", "c", "a"));
+
+        //every get is started before any of them is answered
+        assertEquals(3, storage.pending.size());
+        assertEquals(3, storage.requests);
+        assertFalse(batch.isDone());
+        Path directory = Files.createTempDirectory("async");
+        Repository repository = new Repository("a", directory.toFile());
+        storage.pending.get("a").complete(repository);
+        storage.pending.get("b").complete(null);
+        assertFalse(batch.isDone());
+        storage.pending.get("c").complete(repository);
+
+        Map<String, Repository> result = batch.join();
+        assertEquals(2, result.size());
+        assertSame(repository, result.get("a"));
+        assertFalse(result.containsKey("b"));
+        new File(repository.getPath()).delete();
+        directory.toFile().delete();
+    }
+
+    /**
+     * Storage whose answers are given by the test
+     */
+    private static class SlowStorage implements AsyncStorage {
+        final Map<String, CompletableFuture<Repository>> pending = new HashMap<>();
+        int requests;
+
+        @Override
+        public boolean put(String key, Repository repository){
+            return putAsync(key, repository).join();
+        }
+
+        @Override
+        public Repository get(String key){
+            return getAsync(key).join();
+        }
+
+        @Override
+        public CompletableFuture<Boolean> putAsync(String key, Repository repository){
+            return CompletableFuture.completedFuture(true);
+        }
+
+        @Override
+        public CompletableFuture<Repository> getAsync(String key){
+            requests++;
+            CompletableFuture<Repository> future = new CompletableFuture<>();
+            pending.put(key, future);
+            return future;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.unisa.git.storage;
+
+import org.junit.jupiter.api.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+public class ChunkerTest {
+
+    @Test
+    void testCaseChunksCoverTheContent(){
+        byte[] content = randomContent(1024 * 1024, 1);
+        List<Chunker.Chunk> chunks = Chunker.split(content);
+
+        int offset = 0;
+        for(Chunker.Chunk chunk : chunks){
+            assertEquals(offset, chunk.getOffset());
+            assertTrue(chunk.getLength() <= Chunker.MAX_SIZE);
+            offset += chunk.getLength();
+        }
+        assertEquals(content.length, offset);
+        //only the last chunk can be smaller than the minimum
+        for(Chunker.Chunk chunk : chunks.subList(0, chunks.size() - 1))
+            assertTrue(chunk.getLength() >= Chunker.MIN_SIZE);
+        assertTrue(Chunker.split(new byte[0]).isEmpty());
+        assertEquals(1, Chunker.split(new byte[10]).size());
+    }
+
+    @Test
+    void testCaseEditChangesFewChunks(){
+        byte[] content = randomContent(1024 * 1024, 2);
+        byte[] edited = new byte[content.length + 3];
+        //insert three bytes in the middle, every offset after the edit is shifted
+        System.arraycopy(content, 0, edited, 0, 500000);
+        edited[500000] = 1;
+        edited[500001] = 2;
+        edited[500002] = 3;
+        System.arraycopy(content, 500000, edited, 500003, content.length - 500000);
+
+        Set<String> ids = new HashSet<>();
+        for(Chunker.Chunk chunk : Chunker.split(content))
+            ids.add(chunk.getId());
+        int changed = 0;
+        List<Chunker.Chunk> editedChunks = Chunker.split(edited);
+        for(Chunker.Chunk chunk : editedChunks){
+            if(!ids.contains(chunk.getId()))
+                changed++;
+        }
+        assertTrue(changed <= 2, changed + " chunks changed");
+        assertTrue(editedChunks.size() > 50);
+    }
+
+    private static byte[] randomContent(int size, long seed){
+        byte[] content = new byte[size];
+        new Random(seed).nextBytes(content);
+        return content;
+    }
+}
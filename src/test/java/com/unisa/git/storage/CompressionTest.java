@@ -0,0 +1,60 @@
+package com.unisa.git.storage;
+
+import org.junit.jupiter.api.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+public class CompressionTest {
+
+    @Test
+    void testCaseCodecsRestoreTheObject() throws IOException{
+        byte[] text = sourceText(2000);
+        Random random = new Random(11);
+        byte[] noise = new byte[50000];
+        random.nextBytes(noise);
+        byte[] repeated = new byte[70000];
+        Arrays.fill(repeated, (byte) 'a');
+
+        for(Codec codec : Arrays.asList(Compression.RAW, Compression.DEFLATE, Compression.FAST, Compression.DEFLATE_BEST)){
+            for(byte[] payload : Arrays.asList(new byte[0], new byte[10], text, noise, repeated, Arrays.copyOf(text, 100)))
+                assertArrayEquals(payload, Compression.decode(Compression.encode(payload, codec)));
+        }
+    }
+
+    @Test
+    void testCaseTextIsCompressedNoiseIsNot(){
+        byte[] text = sourceText(2000);
+        assertTrue(Compression.encode(text, Compression.FAST).length < text.length / 2);
+        assertTrue(Compression.encode(text, Compression.DEFLATE_BEST).length < Compression.encode(text, Compression.FAST).length);
+        assertEquals(FastCodec.ID, Compression.encode(text, Compression.FAST)[0]);
+
+        byte[] noise = new byte[50000];
+        new Random(12).nextBytes(noise);
+        assertTrue(Compression.entropy(noise) > Compression.MAX_ENTROPY);
+        byte[] encoded = Compression.encode(noise, Compression.DEFLATE);
+        assertEquals(Compression.RAW.id(), encoded[0]);
+        assertEquals(noise.length + 1, encoded.length);
+    }
+
+    @Test
+    void testCaseCorruptedObjectIsRejected(){
+        byte[] encoded = Compression.encode(sourceText(500), Compression.FAST);
+        assertThrows(IOException.class, () -> Compression.decode(Arrays.copyOf(encoded, encoded.length - 10)));
+        byte[] deflated = Compression.encode(sourceText(500), Compression.DEFLATE);
+        assertThrows(IOException.class, () -> Compression.decode(Arrays.copyOf(deflated, deflated.length - 10)));
+        assertThrows(IOException.class, () -> Compression.decode(new byte[] {(byte) 200, 1, 2}));
+        assertThrows(IllegalArgumentException.class, () -> Compression.register(new FastCodec()));
+    }
+
+    private static byte[] sourceText(int lines){
+        StringBuilder text = new StringBuilder();
+        for(int i = 0; i < lines; i++)
+            text.append("    private static final int VALUE_").append(i).append(" = ").append(i * 7).append(";\n");
+        return text.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
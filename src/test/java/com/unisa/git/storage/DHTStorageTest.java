@@ -0,0 +1,59 @@
+package com.unisa.git.storage;
+
+import org.junit.jupiter.api.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class DHTStorageTest {
+    private Path directory;
+
+    @BeforeEach
+    void createDirectory() throws IOException{
+        directory = Files.createTempDirectory("dht");
+    }
+
+    @AfterEach
+    void deleteDirectory(){
+        deleteFiles(directory.toFile());
+    }
+
+    @Test
+    void testCasePeerMapIsSavedAfterBootstrap() throws Exception{
+        //the master joins the network with its first request
+        DHTStorage master = new DHTStorage(0, Collections.singletonList("127.0.0.1"), null);
+        assertNull(master.getRefAsync("bootstrap").join());
+
+        Path peerMap = directory.resolve("peers");
+        //the peer isn't started before its first request
+        DHTStorage peer = new DHTStorage(61, Arrays.asList("bootstrap.invalid", "127.0.0.1"), peerMap);
+        assertFalse(Files.exists(peerMap));
+        //an address that can't be reached doesn't stop the others
+        assertNull(peer.getRefAsync("bootstrap").join());
+        List<String> peers = Files.readAllLines(peerMap, StandardCharsets.UTF_8);
+        assertTrue(peers.contains("127.0.0.1 4000"));
+
+        //the saved peers are used when no bootstrap address answers
+        DHTStorage reconnected = new DHTStorage(62, Collections.singletonList("bootstrap.invalid"), peerMap);
+        assertNull(reconnected.getRefAsync("bootstrap").join());
+        assertEquals(peers, Files.readAllLines(peerMap, StandardCharsets.UTF_8));
+    }
+
+    private void deleteFiles(File file){
+        File[] files = file.listFiles();
+        if(files != null){
+            for(File f: files){
+                deleteFiles(f);
+            }
+        }
+        file.delete();
+    }
+}
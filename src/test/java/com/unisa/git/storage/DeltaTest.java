@@ -0,0 +1,51 @@
+package com.unisa.git.storage;
+
+import org.junit.jupiter.api.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+public class DeltaTest {
+
+    @Test
+    void testCaseEditedLinesMakeSmallDelta() throws IOException{
+        StringBuilder source = new StringBuilder();
+        for(int i = 0; i < 5000; i++)
+            source.append("    int line").append(i).append(" = ").append(i * 31).append(";\n");
+        byte[] base = source.toString().getBytes(StandardCharsets.UTF_8);
+        String edited = source.toString()
+                .replace("int line42 = ", "long line42 = ")
+                .replace("    int line4000 = 124000;\n", "")
+                .concat("    int last = 0;\n");
+        byte[] content = edited.getBytes(StandardCharsets.UTF_8);
+
+        byte[] delta = Delta.encode(base, content);
+        assertTrue(delta.length < 200, delta.length + " bytes");
+        assertArrayEquals(content, Delta.decode(base, delta));
+    }
+
+    @Test
+    void testCaseAnyContentIsRebuilt() throws IOException{
+        Random random = new Random(5);
+        byte[] base = new byte[100000];
+        random.nextBytes(base);
+        byte[] unrelated = new byte[5000];
+        random.nextBytes(unrelated);
+
+        for(byte[] content : Arrays.asList(new byte[0], new byte[7], unrelated, base, Arrays.copyOfRange(base, 3, 50000)))
+            assertArrayEquals(content, Delta.decode(base, Delta.encode(base, content)));
+        assertArrayEquals(base, Delta.decode(new byte[0], Delta.encode(new byte[0], base)));
+    }
+
+    @Test
+    void testCaseWrongBaseIsRejected(){
+        byte[] base = "the base of the delta, long enough to be copied".getBytes(StandardCharsets.UTF_8);
+        byte[] delta = Delta.encode(base, "the base of the delta, long enough to be copied!".getBytes(StandardCharsets.UTF_8));
+        assertThrows(IOException.class, () -> Delta.decode(new byte[3], delta));
+        assertThrows(IOException.class, () -> Delta.decode(base, Arrays.copyOf(delta, delta.length - 2)));
+    }
+}
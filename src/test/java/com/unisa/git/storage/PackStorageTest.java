@@ -0,0 +1,285 @@
+package com.unisa.git.storage;
+
+import org.junit.jupiter.api.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import com.unisa.git.exceptions.RepositoryException;
+import com.unisa.git.repository.Crate;
+import com.unisa.git.repository.Repository;
+import com.unisa.git.repository.RepositoryCodec;
+import com.unisa.git.repository.SparsePatterns;
+
+public class PackStorageTest {
+    private Path directory;
+    private Path storageDirectory;
+
+    @BeforeEach
+    void createDirectory() throws IOException{
+        directory = Files.createTempDirectory("pack");
+        storageDirectory = directory.resolve("storage");
+    }
+
+    @AfterEach
+    void deleteDirectory(){
+        deleteFiles(directory.toFile());
+    }
+
+    @Test
+    void testCaseRepositorySurvivesReopen() throws IOException, RepositoryException{
+        PackStorage storage = new PackStorage(storageDirectory);
+        Repository repository = createRepository("repo");
+        assertTrue(storage.put("repo", repository));
+        assertFalse(storage.put("repo", repository));
+        storage.close();
+
+        storage = new PackStorage(storageDirectory);
+        Repository reopened = storage.get("repo");
+        assertEquals(repository, reopened);
+        assertEquals(repository.getPath(), reopened.getPath());
+        assertTrue(reopened.getTrackedFiles().containsAll(Arrays.asList("a.txt", "b.txt")));
+        assertEquals(Arrays.asList("c.txt"), reopened.getStagedFiles());
+        assertArrayEquals(Files.readAllBytes(directory.resolve("repo").resolve("c.txt")), reopened.getStagedCrates().iterator().next().getContent());
+        assertNull(storage.get("missing"));
+        storage.close();
+    }
+
+    @Test
+    void testCaseContentIsWrittenOnce() throws IOException, RepositoryException{
+        PackStorage storage = new PackStorage(storageDirectory);
+        Repository repository = createRepository("repo");
+        storage.put("repo", repository);
+        long size = Files.size(storageDirectory.resolve("objects.pack"));
+
+        //same files in another repository, only the metadata is written
+        Repository copy = createRepository("copy");
+        storage.put("copy", copy);
+        long added = Files.size(storageDirectory.resolve("objects.pack")) - size;
+        assertTrue(added < 1000, added + " bytes added");
+        storage.close();
+    }
+
+    @Test
+    void testCasePartialRecordIsDropped() throws IOException, RepositoryException{
+        PackStorage storage = new PackStorage(storageDirectory);
+        storage.put("repo", createRepository("repo"));
+        storage.close();
+        long size = Files.size(storageDirectory.resolve("objects.pack"));
+        //a record that was being written when the process stopped
+        try(FileChannel pack = FileChannel.open(storageDirectory.resolve("objects.pack"), StandardOpenOption.APPEND)){
+            pack.write(java.nio.ByteBuffer.wrap(new byte[] {'O', 1, 2, 3}));
+        }
+        Files.delete(storageDirectory.resolve("objects.idx"));
+
+        storage = new PackStorage(storageDirectory);
+        assertNotNull(storage.get("repo"));
+        assertEquals(size, Files.size(storageDirectory.resolve("objects.pack")));
+        storage.close();
+    }
+
+    @Test
+    void testCaseContentIsMapped() throws IOException, RepositoryException{
+        PackStorage storage = new PackStorage(storageDirectory);
+        Repository repository = createRepository("repo");
+        Crate staged = repository.getStagedCrates().iterator().next();
+        byte[] content = staged.getContent();
+        storage.put("repo", repository);
+
+        //after the put the content is read from the pack
+        assertTrue(staged.getContentBuffer().isDirect());
+        assertEquals(content.length, staged.getSize());
+        assertArrayEquals(content, staged.getContent());
+        storage.close();
+
+        storage = new PackStorage(storageDirectory);
+        for(Crate crate : storage.get("repo").getCrates()){
+            assertTrue(crate.getContentBuffer().isDirect());
+            assertArrayEquals(Files.readAllBytes(directory.resolve("repo").resolve(crate.getName())), crate.getContent());
+        }
+        storage.close();
+    }
+
+    @Test
+    void testCaseContentIsCopiedFromPack() throws IOException, RepositoryException{
+        PackStorage storage = new PackStorage(storageDirectory);
+        Repository repository = createRepository("repo");
+        repository.addCommit("repo", "first");
+        storage.put("repo", repository);
+
+        Path copy = directory.resolve("copy");
+        for(Crate crate : repository.getCrates()){
+            try(FileChannel channel = FileChannel.open(copy, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)){
+                crate.writeTo(channel);
+            }
+            assertArrayEquals(Files.readAllBytes(directory.resolve("repo").resolve(crate.getName())), Files.readAllBytes(copy));
+        }
+
+        //the pull brings a file with a content that is already in the pack
+        Path other = directory.resolve("other");
+        Files.createDirectory(other);
+        Repository remote = new Repository("repo", other.toFile());
+        Path path = other.resolve("repo").resolve("copy.txt");
+        Files.copy(directory.resolve("repo").resolve("a.txt"), path);
+        remote.addFile(Arrays.asList(path.toFile()));
+        remote.addCommit("repo", "copy");
+        storage.close();
+        storage = new PackStorage(storageDirectory);
+        Repository local = storage.get("repo");
+        assertEquals(1, local.update(remote));
+        for(Crate crate : local.getCrates())
+            assertTrue(crate.getContentBuffer().isDirect());
+        assertArrayEquals(Files.readAllBytes(directory.resolve("repo").resolve("a.txt")), Files.readAllBytes(directory.resolve("repo").resolve("copy.txt")));
+        storage.close();
+    }
+
+    @Test
+    void testCaseBatchOfRepositories() throws IOException, RepositoryException{
+        PackStorage storage = new PackStorage(storageDirectory);
+        Map<String, Repository> repositories = new HashMap<>();
+        for(String name : Arrays.asList("first", "second", "third"))
+            repositories.put(name, createRepository(name));
+        Map<String, Boolean> results = storage.putAll(repositories);
+        assertEquals(3, results.size());
+        assertFalse(results.containsValue(false));
+        //nothing changed, nothing is written
+        assertFalse(storage.putAll(repositories).containsValue(true));
+        storage.close();
+
+        storage = new PackStorage(storageDirectory);
+        Map<String, Repository> read = storage.getAll(Arrays.asList("first", "second", "third", "missing"));
+        assertEquals(repositories, read);
+        storage.close();
+    }
+
+    @Test
+    void testCaseIndexGrows() throws IOException, RepositoryException{
+        PackStorage storage = new PackStorage(storageDirectory);
+        Repository repository = createRepository("repo");
+        for(int i = 0; i < 2000; i++)
+            storage.put("repo" + i, repository);
+        storage.close();
+
+        storage = new PackStorage(storageDirectory);
+        for(int i = 0; i < 2000; i += 97)
+            assertEquals(repository, storage.get("repo" + i));
+        storage.close();
+    }
+
+    @Test
+    void testCaseMissingContentIsNotStored() throws IOException, RepositoryException{
+        PackStorage storage = new PackStorage(storageDirectory);
+        //only the metadata, the crates have no content
+        Repository repository = RepositoryCodec.decode(RepositoryCodec.encode(createRepository("repo"), false));
+        assertFalse(storage.put("repo", repository));
+        assertNull(storage.get("repo"));
+        storage.close();
+    }
+
+    @Test
+    void testCaseDeadRecordsAreCompacted() throws IOException, RepositoryException{
+        PackStorage storage = new PackStorage(storageDirectory);
+        Repository repository = createRepository("repo");
+        storage.put("repo", repository);
+        Crate staged = repository.getStagedCrates().iterator().next();
+        byte[] content = Files.readAllBytes(directory.resolve("repo").resolve("c.txt"));
+        long written = 0;
+        for(int i = 0; i < 100; i++){
+            //a long pattern makes every metadata record a few kilobytes
+            char[] pattern = new char[4000];
+            Arrays.fill(pattern, (char) ('a' + i % 26));
+            repository.setSparse(SparsePatterns.of(Arrays.asList(new String(pattern) + i), Collections.<String>emptyList()));
+            storage.put("repo", repository);
+            written += pattern.length;
+        }
+        //the old metadata records were dropped
+        long size = Files.size(storageDirectory.resolve("objects.pack"));
+        assertTrue(size < written / 2, size + " bytes in the pack");
+        //the crates read the content where the compaction moved it
+        assertArrayEquals(content, staged.getContent());
+        storage.close();
+
+        storage = new PackStorage(storageDirectory);
+        Repository reopened = storage.get("repo");
+        assertEquals(repository.getSparse(), reopened.getSparse());
+        assertArrayEquals(content, reopened.getStagedCrates().iterator().next().getContent());
+        storage.close();
+    }
+
+    @Test
+    void testCaseUnreferencedBlobsAreDropped() throws IOException, RepositoryException{
+        PackStorage storage = new PackStorage(storageDirectory);
+        Random random = new Random(5);
+        byte[] first = new byte[100000];
+        random.nextBytes(first);
+        //another repository keeps the first version alive
+        Path shared = Files.createDirectories(directory.resolve("other")).resolve("a.bin");
+        Files.write(shared, first);
+        Repository other = new Repository("other", directory.toFile());
+        other.addFile(Collections.singletonList(shared.toFile()));
+        other.addCommit("other", "first");
+        storage.put("other", other);
+
+        Path path = Files.createDirectories(directory.resolve("repo")).resolve("a.bin");
+        Repository repository = new Repository("repo", directory.toFile());
+        byte[] content = first;
+        for(int i = 0; i < 30; i++){
+            Files.write(path, content);
+            repository.addFile(Collections.singletonList(path.toFile()));
+            repository.addCommit("repo", "version " + i);
+            storage.put("repo", repository);
+            content = new byte[100000];
+            random.nextBytes(content);
+        }
+        //the old versions were dropped, only a few of them wait for the next compaction
+        long size = Files.size(storageDirectory.resolve("objects.pack"));
+        assertTrue(size < 5 * first.length, size + " bytes in the pack");
+        storage.close();
+
+        storage = new PackStorage(storageDirectory);
+        assertArrayEquals(first, storage.get("other").getCrates().iterator().next().getContent());
+        assertArrayEquals(Files.readAllBytes(path), storage.get("repo").getCrates().iterator().next().getContent());
+        storage.close();
+    }
+
+    private Repository createRepository(String name) throws IOException, RepositoryException{
+        Repository repository = new Repository(name, directory.toFile());
+        List<File> files = new ArrayList<>();
+        for(String filename : Arrays.asList("a.txt", "b.txt", "c.txt")){
+            Path path = directory.resolve(name).resolve(filename);
+            StringBuilder content = new StringBuilder("content of " + filename);
+            for(int i = 0; i < 1000; i++)
+                content.append(" line ").append(i);
+            Files.write(path, content.toString().getBytes(StandardCharsets.UTF_8));
+            files.add(path.toFile());
+        }
+        repository.addFile(files.subList(0, 2));
+        repository.addCommit(name, "first");
+        repository.addFile(files.subList(2, 3));
+        return repository;
+    }
+
+    private void deleteFiles(File file){
+        File[] files = file.listFiles();
+        if(files != null){
+            for(File f: files){
+                deleteFiles(f);
+            }
+        }
+        file.delete();
+    }
+}